@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.music;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for the play queue: saving and restoring it, and the
+ * edits the service makes to it, for queues of 10 to 100000 tracks.
+ * <p>
+ * The benchmarked classes don't use the framework, so these run on a
+ * plain JVM, built by benchmarks/pom.xml:
+ * <pre>
+ * cd benchmarks
+ * mvn package
+ * java -jar target/benchmarks.jar -prof gc QueueBenchmark
+ * </pre>
+ * "-prof gc" adds the allocation rate and bytes allocated per operation
+ * to every result; "-p size=20000" runs one size only.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class QueueBenchmark {
+    @Param({ "10", "1000", "20000", "100000" })
+    public int size;
+
+    private long [] mQueue;
+    private String mSaved;
+    private final StringBuilder mBuilder = new StringBuilder();
+    private long [] mWork;
+    private int mWorkLen;
+    private final long [] mAdd = new long [] { 1, 2, 3 };
+    private final Random mRandom = new Random(1);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // ids the way the media provider hands them out: mostly small,
+        // and growing with the library
+        mQueue = new long[size];
+        Random r = new Random(0);
+        for (int i = 0; i < size; i++) {
+            mQueue[i] = 1 + r.nextInt(size * 4);
+        }
+        mBuilder.setLength(0);
+        for (long id : mQueue) {
+            QueueCodec.append(mBuilder, id);
+        }
+        mSaved = mBuilder.toString();
+        // room for the inserts, without growing
+        mWork = new long[size + mAdd.length];
+        System.arraycopy(mQueue, 0, mWork, 0, size);
+        mWorkLen = size;
+    }
+
+    @Benchmark
+    public String encode() {
+        StringBuilder q = mBuilder;
+        q.setLength(0);
+        long [] queue = mQueue;
+        for (int i = 0; i < queue.length; i++) {
+            QueueCodec.append(q, queue[i]);
+        }
+        return q.toString();
+    }
+
+    @Benchmark
+    public long [] decode() {
+        return QueueCodec.decode(mSaved);
+    }
+
+    @Benchmark
+    public long [] append() {
+        // one track at a time, the way party shuffle grows the queue
+        long [] list = null;
+        for (int i = 0; i < size; i++) {
+            list = QueueOps.ensureCapacity(list, i, i + 1);
+            list[i] = i;
+        }
+        return list;
+    }
+
+    @Benchmark
+    public int move() {
+        return QueueOps.move(mWork, mRandom.nextInt(size), mRandom.nextInt(size), size / 2);
+    }
+
+    @Benchmark
+    public int insertAndRemoveAtFront() {
+        // the worst case for both, and it leaves the queue as it was
+        QueueOps.insert(mWork, mWorkLen, mAdd, 0);
+        return QueueOps.removeRange(mWork, mWorkLen + mAdd.length, 0, mAdd.length - 1);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.music;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for picking the next track in the shuffle modes, with a
+ * full history. See {@link QueueBenchmark} for how to run them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ShuffleBenchmark {
+    // as in MediaPlaybackService
+    private static final int MAX_HISTORY_SIZE = 100;
+
+    @Param({ "10", "1000", "20000", "100000" })
+    public int size;
+
+    private Shuffler mShuffler;
+    private final Vector<Integer> mHistory = new Vector<Integer>(MAX_HISTORY_SIZE);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mShuffler = new Shuffler(new Random(0));
+        Random r = new Random(1);
+        for (int i = 0; i < MAX_HISTORY_SIZE; i++) {
+            mHistory.add(r.nextInt(size));
+        }
+    }
+
+    @Benchmark
+    public int pickUnplayed() {
+        return mShuffler.pickUnplayed(size, mHistory, true);
+    }
+
+    @Benchmark
+    public int pickNotRecent() {
+        return mShuffler.pickNotRecent(size, mHistory);
+    }
+}
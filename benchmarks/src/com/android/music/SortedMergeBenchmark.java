@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.music;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for the row search behind SortCursor, which merges the
+ * internal and external volumes for the browsers. The inputs are sorted
+ * string arrays standing in for the cursors. See {@link QueueBenchmark}
+ * for how to run them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SortedMergeBenchmark {
+    @Param({ "10", "1000", "20000", "100000" })
+    public int size;
+
+    @Param({ "2" })
+    public int inputs;
+
+    private static class ArrayInputs implements SortedMerge.Inputs {
+        final String [][] mKeys;
+        final int [] mPositions;
+
+        ArrayInputs(String [][] keys) {
+            mKeys = keys;
+            mPositions = new int[keys.length];
+        }
+
+        public int count() {
+            return mKeys.length;
+        }
+
+        public boolean has(int input) {
+            return mKeys[input] != null;
+        }
+
+        public boolean isAfterLast(int input) {
+            return mPositions[input] >= mKeys[input].length;
+        }
+
+        public String key(int input) {
+            return mKeys[input][mPositions[input]];
+        }
+
+        public void moveToFirst(int input) {
+            mPositions[input] = 0;
+        }
+
+        public void moveToNext(int input) {
+            mPositions[input]++;
+        }
+
+        public void moveToPosition(int input, int position) {
+            mPositions[input] = position;
+        }
+
+        public int getPosition(int input) {
+            return mPositions[input];
+        }
+    }
+
+    private String [][] mKeys;
+    private int [] mJumps;
+    private final Random mRandom = new Random(1);
+    private SortedMerge mMerge;
+    private int mPos;
+
+    @Setup
+    public void setUp() {
+        Random r = new Random(0);
+        mKeys = new String[inputs][];
+        for (int i = 0; i < inputs; i++) {
+            // most of the music is on one volume
+            int n = i == 0 ? size - size / 10 * (inputs - 1) : size / 10;
+            mKeys[i] = new String[n];
+            for (int j = 0; j < n; j++) {
+                mKeys[i][j] = "Artist " + Integer.toString(r.nextInt(size * 4), 36);
+            }
+            Arrays.sort(mKeys[i], String.CASE_INSENSITIVE_ORDER);
+        }
+        // short flings through the list, mostly forward, as a list view
+        // does while scrolling
+        mJumps = new int[1024];
+        for (int i = 0; i < mJumps.length; i++) {
+            mJumps[i] = r.nextInt(10) < 8 ? 1 + r.nextInt(8) : -r.nextInt(32);
+        }
+        mMerge = new SortedMerge(new ArrayInputs(mKeys));
+        mPos = -1;
+    }
+
+    @Benchmark
+    public int scan() {
+        SortedMerge merge = new SortedMerge(new ArrayInputs(mKeys));
+        int which = 0;
+        for (int i = 0; i < size; i++) {
+            which += merge.move(i - 1, i);
+        }
+        return which;
+    }
+
+    @Benchmark
+    public int scroll() {
+        SortedMerge merge = new SortedMerge(new ArrayInputs(mKeys));
+        int pos = -1;
+        int which = 0;
+        for (int i = 0; i < mJumps.length; i++) {
+            int next = Math.max(0, Math.min(size - 1, pos + mJumps[i]));
+            if (next != pos) {
+                which += merge.move(pos, next);
+                pos = next;
+            }
+        }
+        return which;
+    }
+
+    @Benchmark
+    public int randomAccess() {
+        int next = mRandom.nextInt(size);
+        int which = mMerge.move(mPos, next);
+        mPos = next;
+        return which;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class QueueCodecTest extends TestCase {
+    private static String encode(long... ids) {
+        StringBuilder q = new StringBuilder();
+        for (long id : ids) {
+            QueueCodec.append(q, id);
+        }
+        return q.toString();
+    }
+
+    public void testFormat() {
+        // lowest digit first
+        assertEquals("0;1;f;01;321;", encode(0, 1, 15, 16, 0x123));
+    }
+
+    public void testRoundTrip() {
+        Random r = new Random(0);
+        long [] ids = new long[1000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = r.nextInt(1 << 20);
+        }
+        assertTrue(Arrays.equals(ids, QueueCodec.decode(encode(ids))));
+    }
+
+    public void testLargeIds() {
+        // the old parser added the digits into an int
+        long [] ids = { Integer.MAX_VALUE, 1L << 31, 0xfedcba987654321L, Long.MAX_VALUE };
+        assertTrue(Arrays.equals(ids, QueueCodec.decode(encode(ids))));
+    }
+
+    public void testNegativeIdsAreLeftOut() {
+        assertEquals("5;", encode(-1, 5, Long.MIN_VALUE));
+    }
+
+    public void testEmpty() {
+        assertNull(QueueCodec.decode(null));
+        assertNull(QueueCodec.decode(""));
+        assertNull(QueueCodec.decode(";"));
+    }
+
+    public void testBogus() {
+        assertNull(QueueCodec.decode("12;x4;"));
+        assertNull(QueueCodec.decode("12;A;"));
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the queue edits with the loops the service used to do them
+ * with.
+ */
+public class QueueOpsTest extends TestCase {
+    private final Random mRandom = new Random(0);
+
+    private long [] queue(int len, int capacity) {
+        long [] list = new long[capacity];
+        for (int i = 0; i < len; i++) {
+            list[i] = 1 + mRandom.nextInt(1000);
+        }
+        return list;
+    }
+
+    // The old insert. Its tail shift only worked for a single track.
+    private static void oldInsert(long [] list, int len, long [] add, int position) {
+        int addlen = add.length;
+        int tailsize = len - position;
+        for (int i = tailsize ; i > 0 ; i--) {
+            list[position + i] = list[position + i - addlen];
+        }
+        for (int i = 0; i < addlen; i++) {
+            list[position + i] = add[i];
+        }
+    }
+
+    private static long [] expectedInsert(long [] list, int len, long [] add, int position) {
+        long [] out = new long[len + add.length];
+        System.arraycopy(list, 0, out, 0, position);
+        System.arraycopy(add, 0, out, position, add.length);
+        System.arraycopy(list, position, out, position + add.length, len - position);
+        return out;
+    }
+
+    private static int oldMove(long [] list, int index1, int index2, int pos) {
+        if (index1 < index2) {
+            long tmp = list[index1];
+            for (int i = index1; i < index2; i++) {
+                list[i] = list[i+1];
+            }
+            list[index2] = tmp;
+            if (pos == index1) {
+                pos = index2;
+            } else if (pos >= index1 && pos <= index2) {
+                pos--;
+            }
+        } else if (index2 < index1) {
+            long tmp = list[index1];
+            for (int i = index1; i > index2; i--) {
+                list[i] = list[i-1];
+            }
+            list[index2] = tmp;
+            if (pos == index1) {
+                pos = index2;
+            } else if (pos >= index2 && pos <= index1) {
+                pos++;
+            }
+        }
+        return pos;
+    }
+
+    private static int oldRemove(long [] list, int len, int first, int last) {
+        int num = len - last - 1;
+        for (int i = 0; i < num; i++) {
+            list[first + i] = list[last + 1 + i];
+        }
+        return len - (last - first + 1);
+    }
+
+    public void testInsertOne() {
+        for (int n = 0; n < 200; n++) {
+            int len = mRandom.nextInt(50);
+            long [] list = queue(len, len + 1);
+            long [] old = list.clone();
+            long [] add = { 5000 };
+            int position = mRandom.nextInt(len + 1);
+            QueueOps.insert(list, len, add, position);
+            oldInsert(old, len, add, position);
+            assertTrue(Arrays.equals(old, list));
+        }
+    }
+
+    public void testInsertMany() {
+        for (int n = 0; n < 200; n++) {
+            int len = mRandom.nextInt(50);
+            long [] add = new long[1 + mRandom.nextInt(10)];
+            for (int i = 0; i < add.length; i++) {
+                add[i] = 5000 + i;
+            }
+            long [] list = queue(len, len + add.length);
+            int position = mRandom.nextInt(len + 1);
+            long [] expected = expectedInsert(list, len, add, position);
+            QueueOps.insert(list, len, add, position);
+            assertTrue(Arrays.equals(expected, Arrays.copyOf(list, len + add.length)));
+        }
+    }
+
+    public void testMove() {
+        for (int n = 0; n < 500; n++) {
+            int len = 1 + mRandom.nextInt(50);
+            long [] list = queue(len, len);
+            long [] old = list.clone();
+            int from = mRandom.nextInt(len);
+            int to = mRandom.nextInt(len);
+            int pos = mRandom.nextInt(len);
+            assertEquals(oldMove(old, from, to, pos), QueueOps.move(list, from, to, pos));
+            assertTrue(Arrays.equals(old, list));
+        }
+    }
+
+    public void testRemoveRange() {
+        for (int n = 0; n < 500; n++) {
+            int len = 1 + mRandom.nextInt(50);
+            long [] list = queue(len, len);
+            long [] old = list.clone();
+            int first = mRandom.nextInt(len);
+            int last = first + mRandom.nextInt(len - first);
+            int newLen = QueueOps.removeRange(list, len, first, last);
+            assertEquals(oldRemove(old, len, first, last), newLen);
+            assertTrue(Arrays.equals(Arrays.copyOf(old, newLen), Arrays.copyOf(list, newLen)));
+        }
+    }
+
+    public void testEnsureCapacity() {
+        long [] list = { 1, 2, 3, 0 };
+        assertSame(list, QueueOps.ensureCapacity(list, 3, 4));
+        long [] grown = QueueOps.ensureCapacity(list, 3, 5);
+        assertTrue(grown.length >= 5);
+        assertTrue(Arrays.equals(new long [] { 1, 2, 3 }, Arrays.copyOf(grown, 3)));
+        assertTrue(QueueOps.ensureCapacity(null, 0, 3).length >= 3);
+    }
+}
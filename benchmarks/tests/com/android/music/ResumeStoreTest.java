@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class ResumeStoreTest extends TestCase {
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = File.createTempFile("resume", null);
+        mFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testPutAndGet() {
+        ResumeStore store = ResumeStore.inMemory();
+        assertEquals(0, store.get(1));
+        store.put(1, 60000);
+        store.put(2, 120000);
+        assertEquals(60000, store.get(1));
+        assertEquals(120000, store.get(2));
+        store.put(1, 90000);
+        assertEquals(90000, store.get(1));
+        store.put(1, 0);
+        assertEquals(0, store.get(1));
+        // not valid ids
+        store.put(0, 1000);
+        store.put(-5, 1000);
+        assertEquals(0, store.get(0));
+        assertEquals(0, store.get(-5));
+    }
+
+    public void testEvictsLeastRecentlyUsed() {
+        ResumeStore store = ResumeStore.inMemory();
+        for (int id = 1; id <= ResumeStore.MAX_ENTRIES; id++) {
+            store.put(id, id * 1000);
+        }
+        // 1 is the oldest, until it's used again; then 2 is
+        assertEquals(1000, store.get(1));
+        store.put(10000, 5000);
+        assertEquals(0, store.get(2));
+        assertEquals(1000, store.get(1));
+        assertEquals(5000, store.get(10000));
+        for (int id = 3; id <= ResumeStore.MAX_ENTRIES; id++) {
+            assertEquals(id * 1000, store.get(id));
+        }
+    }
+
+    public void testFreedSlotIsReused() {
+        ResumeStore store = ResumeStore.inMemory();
+        for (int id = 1; id <= ResumeStore.MAX_ENTRIES; id++) {
+            store.put(id, id * 1000);
+        }
+        store.put(5, 0);
+        store.put(10000, 5000);
+        // nothing had to be evicted
+        assertEquals(1000, store.get(1));
+        assertEquals(5000, store.get(10000));
+    }
+
+    public void testReopen() throws IOException {
+        ResumeStore store = ResumeStore.open(mFile);
+        for (int id = 1; id <= ResumeStore.MAX_ENTRIES; id++) {
+            store.put(id, id * 1000);
+        }
+        store.get(1);
+
+        store = ResumeStore.open(mFile);
+        // the use order survived, so 2 goes first
+        store.put(10000, 5000);
+        assertEquals(0, store.get(2));
+        assertEquals(1000, store.get(1));
+        for (int id = 3; id <= ResumeStore.MAX_ENTRIES; id++) {
+            assertEquals(id * 1000, store.get(id));
+        }
+    }
+
+    public void testResetsForeignFile() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            for (int i = 0; i < 8192; i++) {
+                raf.write(0x5a);
+            }
+        } finally {
+            raf.close();
+        }
+        ResumeStore store = ResumeStore.open(mFile);
+        for (int id = 1; id < 100; id++) {
+            assertEquals(0, store.get(id));
+        }
+        assertEquals(0, store.get(0x5a5a5a5a5a5a5a5aL));
+        store.put(1, 1000);
+        assertEquals(1000, ResumeStore.open(mFile).get(1));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+public class ShufflerTest extends TestCase {
+    private final Shuffler mShuffler = new Shuffler(new Random(0));
+
+    public void testNextIntNeverRepeats() {
+        int previous = -1;
+        for (int i = 0; i < 1000; i++) {
+            int n = mShuffler.nextInt(3);
+            assertTrue(n >= 0 && n < 3);
+            assertTrue(n != previous);
+            previous = n;
+        }
+        assertEquals(0, mShuffler.nextInt(1));
+        assertEquals(0, mShuffler.nextInt(1));
+    }
+
+    public void testPickUnplayedPlaysEverythingOnce() {
+        int tracks = 50;
+        ArrayList<Integer> history = new ArrayList<Integer>();
+        HashSet<Integer> seen = new HashSet<Integer>();
+        for (int i = 0; i < tracks; i++) {
+            int pick = mShuffler.pickUnplayed(tracks, history, false);
+            assertTrue(pick >= 0 && pick < tracks);
+            assertTrue("picked " + pick + " twice", seen.add(pick));
+            history.add(pick);
+        }
+        assertEquals(-1, mShuffler.pickUnplayed(tracks, history, false));
+        int again = mShuffler.pickUnplayed(tracks, history, true);
+        assertTrue(again >= 0 && again < tracks);
+    }
+
+    public void testPickUnplayedIgnoresStaleHistory() {
+        // entries past the end of a queue that has since shrunk
+        ArrayList<Integer> history = new ArrayList<Integer>();
+        history.add(7);
+        history.add(0);
+        assertEquals(1, mShuffler.pickUnplayed(2, history, false));
+    }
+
+    public void testPickNotRecent() {
+        ArrayList<Integer> history = new ArrayList<Integer>();
+        for (int i = 0; i < 8; i++) {
+            history.add(i);
+        }
+        for (int i = 0; i < 100; i++) {
+            int pick = mShuffler.pickNotRecent(10, history);
+            assertTrue(pick >= 0 && pick < 10);
+        }
+        // with everything recent it still ends
+        for (int i = 8; i < 10; i++) {
+            history.add(i);
+        }
+        int pick = mShuffler.pickNotRecent(10, history);
+        assertTrue(pick >= 0 && pick < 10);
+    }
+
+    public void testWasRecentlyUsed() {
+        ArrayList<Integer> history = new ArrayList<Integer>();
+        history.add(3);
+        history.add(4);
+        history.add(5);
+        assertTrue(Shuffler.wasRecentlyUsed(history, 5, 1));
+        assertFalse(Shuffler.wasRecentlyUsed(history, 4, 1));
+        assertTrue(Shuffler.wasRecentlyUsed(history, 3, 10));
+        assertFalse(Shuffler.wasRecentlyUsed(history, 3, 0));
+        assertFalse(Shuffler.wasRecentlyUsed(history, 6, 3));
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+public class SortedMergeTest extends TestCase {
+    /**
+     * Sorted string arrays with a position each, like cursors. A null
+     * array is an input that isn't there.
+     */
+    private static class ArrayInputs implements SortedMerge.Inputs {
+        final String [][] mKeys;
+        final int [] mPositions;
+
+        ArrayInputs(String [][] keys) {
+            mKeys = keys;
+            mPositions = new int[keys.length];
+        }
+
+        public int count() {
+            return mKeys.length;
+        }
+
+        public boolean has(int input) {
+            return mKeys[input] != null;
+        }
+
+        public boolean isAfterLast(int input) {
+            return mPositions[input] >= mKeys[input].length;
+        }
+
+        public String key(int input) {
+            return mKeys[input][mPositions[input]];
+        }
+
+        public void moveToFirst(int input) {
+            mPositions[input] = 0;
+        }
+
+        public void moveToNext(int input) {
+            mPositions[input]++;
+        }
+
+        public void moveToPosition(int input, int position) {
+            mPositions[input] = position;
+        }
+
+        public int getPosition(int input) {
+            return mPositions[input];
+        }
+    }
+
+    private static String [] sorted(Random r, int n) {
+        String [] keys = new String[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = Integer.toString(r.nextInt(100000), 36);
+        }
+        Arrays.sort(keys, String.CASE_INSENSITIVE_ORDER);
+        return keys;
+    }
+
+    public void testRandomAccess() {
+        Random r = new Random(0);
+        String [][] keys = { sorted(r, 300), null, sorted(r, 200), sorted(r, 0) };
+        ArrayList<String> all = new ArrayList<String>();
+        for (String [] k : keys) {
+            if (k != null) {
+                all.addAll(Arrays.asList(k));
+            }
+        }
+        Collections.sort(all, String.CASE_INSENSITIVE_ORDER);
+
+        ArrayInputs inputs = new ArrayInputs(keys);
+        SortedMerge merge = new SortedMerge(inputs);
+        int position = -1;
+        for (int n = 0; n < 2000; n++) {
+            int next = r.nextInt(all.size());
+            int which = merge.move(position, next);
+            assertTrue(which >= 0);
+            assertEquals(all.get(next).toLowerCase(), inputs.key(which).toLowerCase());
+            position = next;
+        }
+    }
+
+    public void testPastTheEnd() {
+        ArrayInputs inputs = new ArrayInputs(new String [][] { { "a", "c" }, { "b" } });
+        SortedMerge merge = new SortedMerge(inputs);
+        assertEquals(1, merge.move(-1, 1));
+        // the old code indexed its caches with -1 here
+        assertEquals(-1, merge.move(1, 3));
+        assertEquals(0, merge.move(3, 2));
+    }
+}
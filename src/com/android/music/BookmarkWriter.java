@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.music;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.OperationApplicationException;
+import android.database.sqlite.SQLiteException;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the podcast bookmarks the service has set, and writes them to the
+ * media provider in batches on a worker thread, so that skipping from one
+ * podcast to the next doesn't wait for the provider. Bookmarks that
+ * haven't been written yet, or were written after the track's cursor was
+ * read, are handed out by {@link #get} in place of the cursor's.
+ */
+class BookmarkWriter {
+    private static final String TAG = "BookmarkWriter";
+
+    // how many bookmarks to remember after they have been written
+    private static final int MAX_ENTRIES = 64;
+
+    private final ContentResolver mResolver;
+    private final Handler mWorkerHandler;
+
+    // audio id -> bookmark in ms, in access order. Guarded by 'this'.
+    private final LinkedHashMap<Long, Long> mBookmarks =
+            new LinkedHashMap<Long, Long>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+            // the ones still to be written have to stay
+            return size() > MAX_ENTRIES && !mDirty.contains(eldest.getKey());
+        }
+    };
+    // ids whose bookmark hasn't been written yet, guarded by 'this'
+    private final HashSet<Long> mDirty = new HashSet<Long>();
+    // whether a write has been posted and hasn't started yet, guarded by 'this'
+    private boolean mWritePending;
+
+    private final Runnable mWrite = new Runnable() {
+        public void run() {
+            write();
+        }
+    };
+
+    BookmarkWriter(ContentResolver resolver) {
+        mResolver = resolver;
+        Worker worker = new Worker("bookmarks");
+        mWorkerHandler = new Handler(worker.getLooper());
+    }
+
+    /**
+     * Sets the bookmark of a track. It is written with the next flush().
+     */
+    synchronized void put(long audioId, long position) {
+        Long old = mBookmarks.put(audioId, position);
+        if (old == null || old.longValue() != position) {
+            mDirty.add(audioId);
+        }
+    }
+
+    /**
+     * Returns the bookmark set for a track, or the given one from the
+     * provider if none has been set lately.
+     */
+    synchronized long get(long audioId, long fromProvider) {
+        Long position = mBookmarks.get(audioId);
+        return position != null ? position.longValue() : fromProvider;
+    }
+
+    /**
+     * Starts writing the bookmarks that have changed, on the worker
+     * thread. Returns right away.
+     */
+    synchronized void flush() {
+        if (!mDirty.isEmpty() && !mWritePending) {
+            mWritePending = true;
+            mWorkerHandler.post(mWrite);
+        }
+    }
+
+    /**
+     * Flushes, and stops the worker once everything has been written.
+     */
+    void quit() {
+        flush();
+        mWorkerHandler.post(new Runnable() {
+            public void run() {
+                Looper.myLooper().quit();
+            }
+        });
+    }
+
+    private void write() {
+        ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+        synchronized (this) {
+            mWritePending = false;
+            for (Long id : mDirty) {
+                ops.add(ContentProviderOperation.newUpdate(ContentUris.withAppendedId(
+                        MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, id))
+                        .withValue(MediaStore.Audio.Media.BOOKMARK, mBookmarks.get(id))
+                        .build());
+            }
+            mDirty.clear();
+        }
+        if (ops.isEmpty()) {
+            return;
+        }
+        try {
+            mResolver.applyBatch(MediaStore.AUTHORITY, ops);
+        } catch (RemoteException ex) {
+            Log.w(TAG, "couldn't write bookmarks", ex);
+        } catch (OperationApplicationException ex) {
+            Log.w(TAG, "couldn't write bookmarks", ex);
+        } catch (SQLiteException ex) {
+            Log.w(TAG, "couldn't write bookmarks", ex);
+        }
+    }
+}
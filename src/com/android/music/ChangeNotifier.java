@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Collects the playback service's change notifications and hands them
+ * out in batches. Changes posted within one frame are merged into a
+ * single set of flags, and the service state is read once per batch.
+ * Each sink can also ask not to be called more often than a given
+ * interval; changes it misses in the meantime are merged into its next
+ * delivery, so a sink always ends up seeing the latest state.
+ * Sinks are called on the thread of the looper passed in.
+ */
+class ChangeNotifier {
+    static final int META = 1;
+    static final int PLAYSTATE = 1 << 1;
+    static final int QUEUE = 1 << 2;
+    static final int REPEATMODE = 1 << 3;
+    static final int SHUFFLEMODE = 1 << 4;
+    static final int POSITION = 1 << 5;
+    static final int PLAYSTATUS = 1 << 6;
+
+    // in the order in which they are delivered
+    private static final int [] FLAGS = {
+        QUEUE, META, PLAYSTATE, REPEATMODE, SHUFFLEMODE, POSITION, PLAYSTATUS
+    };
+    private static final String [] ACTIONS = {
+        MediaPlaybackService.QUEUE_CHANGED,
+        MediaPlaybackService.META_CHANGED,
+        MediaPlaybackService.PLAYSTATE_CHANGED,
+        MediaPlaybackService.REPEATMODE_CHANGED,
+        MediaPlaybackService.SHUFFLEMODE_CHANGED,
+        MediaPlaybackService.POSITION_CHANGED,
+        MediaPlaybackService.PLAYSTATUS_RESPONSE
+    };
+
+    // changes posted within this many milliseconds are delivered together
+    private static final long FRAME = 16;
+
+    private static final int FLUSH = 1;
+    private static final int FLUSH_SINK = 2;
+
+    /**
+     * Returns the flag for the given change action, or 0 if it isn't one.
+     */
+    static int flagFor(String action) {
+        for (int i = 0; i < ACTIONS.length; i++) {
+            if (ACTIONS[i].equals(action)) {
+                return FLAGS[i];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the change actions for the given flags, in delivery order.
+     */
+    static String [] actionsFor(int flags) {
+        int n = Integer.bitCount(flags);
+        String [] actions = new String[n];
+        int j = 0;
+        for (int i = 0; i < FLAGS.length && j < n; i++) {
+            if ((flags & FLAGS[i]) != 0) {
+                actions[j++] = ACTIONS[i];
+            }
+        }
+        return actions;
+    }
+
+    /**
+     * The service state that goes along with a batch of changes.
+     */
+    static class State {
+        long mAudioId;
+        String mArtistName;
+        String mAlbumartistName;
+        String mAlbumName;
+        String mTrackName;
+        boolean mPlaying;
+        long mAlbumId;
+        long mDuration;
+        long mPosition;
+        long mPositionTime;
+        long mListSize;
+    }
+
+    interface Source {
+        State getState();
+    }
+
+    interface Sink {
+        void onChange(int flags, State state);
+    }
+
+    private static class SinkEntry {
+        final Sink mSink;
+        final String mName;
+        final long mMinInterval;
+        int mPending;
+        final Metrics.Histogram mLatency;
+        long mLastDelivery = -1;
+        int mDelivered;
+
+        SinkEntry(Sink sink, String name, long minInterval) {
+            mSink = sink;
+            mName = name;
+            mMinInterval = minInterval;
+            mLatency = Metrics.histogram("notify " + name);
+        }
+    }
+
+    private final Source mSource;
+    private final ArrayList<SinkEntry> mSinks = new ArrayList<SinkEntry>();
+    private final Handler mHandler;
+    // guarded by 'this', since changes are posted from binder threads too
+    private int mPending;
+    private int mPosted;
+    // only touched on the handler thread
+    private int mFlushes;
+
+    ChangeNotifier(Source source, Looper looper) {
+        mSource = source;
+        mHandler = new Handler(looper) {
+            @Override
+            public void handleMessage(Message msg) {
+                switch (msg.what) {
+                    case FLUSH:
+                        flush();
+                        break;
+                    case FLUSH_SINK:
+                        SinkEntry entry = mSinks.get(msg.arg1);
+                        deliver(entry, mSource.getState(), SystemClock.uptimeMillis());
+                        break;
+                }
+            }
+        };
+    }
+
+    /**
+     * Adds a sink, which won't be called more than once per minInterval
+     * milliseconds. Sinks have to be added before the first change is posted.
+     */
+    void addSink(Sink sink, String name, long minInterval) {
+        mSinks.add(new SinkEntry(sink, name, minInterval));
+    }
+
+    /**
+     * Schedules delivery of the given changes. Can be called from any thread.
+     */
+    void post(int flags) {
+        synchronized (this) {
+            mPosted++;
+            boolean scheduled = mPending != 0;
+            mPending |= flags;
+            if (scheduled) {
+                return;
+            }
+        }
+        mHandler.sendEmptyMessageDelayed(FLUSH, FRAME);
+    }
+
+    private void flush() {
+        int flags;
+        synchronized (this) {
+            flags = mPending;
+            mPending = 0;
+        }
+        if (flags == 0) {
+            return;
+        }
+        mFlushes++;
+        long now = SystemClock.uptimeMillis();
+        State state = null;
+        for (int i = 0; i < mSinks.size(); i++) {
+            SinkEntry entry = mSinks.get(i);
+            boolean waiting = entry.mPending != 0;
+            entry.mPending |= flags;
+            if (waiting) {
+                // already scheduled, and will pick these up
+                continue;
+            }
+            long due = entry.mLastDelivery < 0 ? now : entry.mLastDelivery + entry.mMinInterval;
+            if (due <= now) {
+                if (state == null) {
+                    state = mSource.getState();
+                }
+                deliver(entry, state, now);
+            } else {
+                mHandler.sendMessageAtTime(mHandler.obtainMessage(FLUSH_SINK, i, 0), due);
+            }
+        }
+    }
+
+    private void deliver(SinkEntry entry, State state, long now) {
+        int flags = entry.mPending;
+        entry.mPending = 0;
+        entry.mLastDelivery = now;
+        entry.mDelivered++;
+        long start = Metrics.start();
+        entry.mSink.onChange(flags, state);
+        entry.mLatency.recordSince(start);
+    }
+
+    /**
+     * Delivers everything that is still pending right away, ignoring the
+     * rate limits. Must be called on the handler thread.
+     */
+    void flushNow() {
+        mHandler.removeMessages(FLUSH);
+        mHandler.removeMessages(FLUSH_SINK);
+        synchronized (this) {
+            for (int i = 0; i < mSinks.size(); i++) {
+                mSinks.get(i).mPending |= mPending;
+            }
+            mPending = 0;
+        }
+        State state = null;
+        long now = SystemClock.uptimeMillis();
+        for (int i = 0; i < mSinks.size(); i++) {
+            SinkEntry entry = mSinks.get(i);
+            if (entry.mPending != 0) {
+                if (state == null) {
+                    state = mSource.getState();
+                }
+                deliver(entry, state, now);
+            }
+        }
+    }
+
+    void dump(PrintWriter writer) {
+        synchronized (this) {
+            writer.println("changes posted: " + mPosted + ", batches: " + mFlushes);
+        }
+        for (int i = 0; i < mSinks.size(); i++) {
+            SinkEntry entry = mSinks.get(i);
+            writer.println("  " + entry.mName + ": " + entry.mDelivered + " deliveries");
+        }
+    }
+}
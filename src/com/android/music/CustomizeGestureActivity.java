@@ -17,6 +17,7 @@
 package com.android.music;
 
 import android.app.Activity;
+import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.os.Bundle;
@@ -86,33 +87,53 @@ public class CustomizeGestureActivity extends Activity {
     }
 
     public void replaceGesture(View v) {
-        SharedPreferences preferences = getSharedPreferences(MusicSettingsActivity.PREFERENCES_FILE,
-                MODE_PRIVATE);
-        GestureLibrary gestureLibrary;
-        if (preferences.getBoolean(MusicSettingsActivity.KEY_HAS_CUSTOM_GESTURES, false)) {
-            gestureLibrary = EditGesturesActivity.getGestureLibrary();
-            gestureLibrary.removeEntry(mEntryName);
-            gestureLibrary.addGesture(mEntryName, mGesture);
-        } else {
-            String fileName = EditGesturesActivity.LIBRARY_FILENAME;
-            gestureLibrary = GestureLibraries.fromPrivateFile(this, fileName);
-            GestureLibrary defaultGestureLibrary = EditGesturesActivity.getGestureLibrary();
-            for (String entryName : defaultGestureLibrary.getGestureEntries()) {
-                if (entryName.equals(mEntryName)){
-                    gestureLibrary.addGesture(mEntryName, mGesture);
+        final SharedPreferences preferences = getSharedPreferences(
+                MusicSettingsActivity.PREFERENCES_FILE, MODE_PRIVATE);
+        final boolean hasCustomGestures = preferences.getBoolean(
+                MusicSettingsActivity.KEY_HAS_CUSTOM_GESTURES, false);
+        final String entryName = mEntryName;
+        final Gesture gesture = mGesture;
+        final Context context = getApplicationContext();
+        mDoneButton.setEnabled(false);
+        GestureEngine.getInstance(this).edit(new GestureEngine.LibraryEdit() {
+            public boolean edit(GestureLibrary currentGestureLibrary) {
+                GestureLibrary gestureLibrary;
+                if (hasCustomGestures) {
+                    gestureLibrary = currentGestureLibrary;
+                    gestureLibrary.removeEntry(entryName);
+                    gestureLibrary.addGesture(entryName, gesture);
                 } else {
-                    gestureLibrary.addGesture(entryName,
-                            defaultGestureLibrary.getGestures(entryName).get(0));
+                    String fileName = EditGesturesActivity.LIBRARY_FILENAME;
+                    gestureLibrary = GestureLibraries.fromPrivateFile(context, fileName);
+                    GestureLibrary defaultGestureLibrary = currentGestureLibrary;
+                    for (String name : defaultGestureLibrary.getGestureEntries()) {
+                        if (name.equals(entryName)) {
+                            gestureLibrary.addGesture(entryName, gesture);
+                        } else {
+                            gestureLibrary.addGesture(name,
+                                    defaultGestureLibrary.getGestures(name).get(0));
+                        }
+                    }
                 }
+                return gestureLibrary.save();
             }
-        }
-        gestureLibrary.save();
-        Editor editor = preferences.edit();
-        editor.putBoolean(MusicSettingsActivity.KEY_HAS_CUSTOM_GESTURES, true);
-        editor.putBoolean(MusicSettingsActivity.KEY_HAS_CUSTOM_GESTURE_XXX + mEntryName, true);
-        editor.apply();
-        setResult(RESULT_OK);
-        finish();
+
+            public void onDone(boolean edited) {
+                if (!edited) {
+                    setResult(RESULT_CANCELED);
+                    finish();
+                    return;
+                }
+                GestureThumbnails.getInstance(context).invalidate(entryName);
+                Editor editor = preferences.edit();
+                editor.putBoolean(MusicSettingsActivity.KEY_HAS_CUSTOM_GESTURES, true);
+                editor.putBoolean(MusicSettingsActivity.KEY_HAS_CUSTOM_GESTURE_XXX + entryName,
+                        true);
+                editor.apply();
+                setResult(RESULT_OK);
+                finish();
+            }
+        });
     }
 
     private class GesturesProcessor implements GestureOverlayView.OnGestureListener {
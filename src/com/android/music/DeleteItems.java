@@ -60,9 +60,14 @@ public class DeleteItems extends Activity
     
     private View.OnClickListener mButtonClicked = new View.OnClickListener() {
         public void onClick(View v) {
-            // delete the selected item(s)
-            MusicUtils.deleteTracks(DeleteItems.this, mItemList);
-            finish();
+            // delete the selected item(s), and stay around to show the
+            // progress of a big delete
+            mButton.setEnabled(false);
+            MusicUtils.deleteTracks(DeleteItems.this, mItemList, new Runnable() {
+                public void run() {
+                    finish();
+                }
+            });
         }
     };
 }
@@ -62,7 +62,6 @@ public class EditGesturesActivity extends ListActivity {
 
     static final String LIBRARY_FILENAME = "music_gestures";
 
-    private static GestureLibrary mGestureLibrary;
     private GesturesArrayAdapter mGesturesArrayAdapter;
     private GesturesLoadTask mTask;
     private TextView mEmpty;
@@ -117,42 +116,60 @@ public class EditGesturesActivity extends ListActivity {
                 return true;
 
             case MENU_ID_RESET:
-                GestureLibrary defaultGestureLibrary = GestureLibraries.fromRawResource(this,
-                        R.raw.gestures);
-                if (defaultGestureLibrary.load()) {
-                    mGestureLibrary.removeEntry(gesturePreview.entryName);
-                    mGestureLibrary.addGesture(gesturePreview.entryName,
-                            defaultGestureLibrary.getGestures(gesturePreview.entryName).get(0));
-                    mGestureLibrary.save();
-
-                    Editor editor = mPreferences.edit();
-                    editor.remove(MusicSettingsActivity.KEY_HAS_CUSTOM_GESTURE_XXX
-                            + gesturePreview.entryName);
-                    editor.apply();
-
-                    boolean stillHasCustomGestures = false;
-                    for (String entryName : GESTURE_NAMES) {
-                        if (mPreferences.getBoolean(MusicSettingsActivity.KEY_HAS_CUSTOM_GESTURE_XXX
-                                + entryName, false)) {
-                            stillHasCustomGestures = true;
+                final String entryName = gesturePreview.entryName;
+                final Context context = getApplicationContext();
+                GestureEngine.getInstance(this).edit(new GestureEngine.LibraryEdit() {
+                    public boolean edit(GestureLibrary gestureLibrary) {
+                        GestureLibrary defaultGestureLibrary =
+                                GestureLibraries.fromRawResource(context, R.raw.gestures);
+                        if (!defaultGestureLibrary.load()) {
+                            return false;
                         }
-                    }
-                    if (!stillHasCustomGestures) {
-                        editor.putBoolean(MusicSettingsActivity.KEY_HAS_CUSTOM_GESTURES, false);
-                        editor.apply();
+                        gestureLibrary.removeEntry(entryName);
+                        gestureLibrary.addGesture(entryName,
+                                defaultGestureLibrary.getGestures(entryName).get(0));
+                        return gestureLibrary.save();
                     }
 
-                    notifyGestureChanges();
-                    loadGestures();
-                } else {
-                    Toast.makeText(this, R.string.gestures_error_loading,
-                            Toast.LENGTH_SHORT).show();
-                }
+                    public void onDone(boolean edited) {
+                        if (edited) {
+                            onGestureReset(entryName);
+                        } else {
+                            Toast.makeText(context, R.string.gestures_error_loading,
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                    }
+                });
                 return true;
         }
         return super.onContextItemSelected(item);
     }
 
+    private void onGestureReset(String resetEntryName) {
+        GestureThumbnails.getInstance(this).invalidate(resetEntryName);
+
+        Editor editor = mPreferences.edit();
+        editor.remove(MusicSettingsActivity.KEY_HAS_CUSTOM_GESTURE_XXX + resetEntryName);
+        editor.apply();
+
+        boolean stillHasCustomGestures = false;
+        for (String entryName : GESTURE_NAMES) {
+            if (mPreferences.getBoolean(MusicSettingsActivity.KEY_HAS_CUSTOM_GESTURE_XXX
+                    + entryName, false)) {
+                stillHasCustomGestures = true;
+            }
+        }
+        if (!stillHasCustomGestures) {
+            editor.putBoolean(MusicSettingsActivity.KEY_HAS_CUSTOM_GESTURES, false);
+            editor.apply();
+        }
+
+        notifyGestureChanges();
+        if (!isFinishing()) {
+            loadGestures();
+        }
+    }
+
     @Override
     protected Dialog onCreateDialog(int id) {
         if (id == DIALOG_RESET) {
@@ -167,6 +184,11 @@ public class EditGesturesActivity extends ListActivity {
                                         + entryName);
                             }
                             editor.apply();
+                            GestureThumbnails thumbnails =
+                                    GestureThumbnails.getInstance(EditGesturesActivity.this);
+                            for (String entryName : GESTURE_NAMES) {
+                                thumbnails.invalidate(entryName);
+                            }
                             notifyGestureChanges();
                             loadGestures();
                         }
@@ -181,11 +203,8 @@ public class EditGesturesActivity extends ListActivity {
         return super.onCreateDialog(id);
     }
 
-    static GestureLibrary getGestureLibrary() {
-        return mGestureLibrary;
-    }
-
     public void reloadGestures(View v) {
+        GestureEngine.getInstance(this).reload();
         loadGestures();
     }
 
@@ -194,8 +213,7 @@ public class EditGesturesActivity extends ListActivity {
     }
 
     private void notifyGestureChanges() {
-        Intent intent = new Intent(MusicSettingsActivity.ACTION_GESTURES_CHANGED);
-        sendBroadcast(intent);
+        GestureEngine.getInstance(this).reload();
     }
 
     @Override
@@ -212,11 +230,6 @@ public class EditGesturesActivity extends ListActivity {
     private void loadGestures() {
         mHasCustomGestures = mPreferences.getBoolean(MusicSettingsActivity.KEY_HAS_CUSTOM_GESTURES,
                 false);
-        if (mHasCustomGestures) {
-            mGestureLibrary = GestureLibraries.fromPrivateFile(this, LIBRARY_FILENAME);
-        } else {
-            mGestureLibrary = GestureLibraries.fromRawResource(this, R.raw.gestures);
-        }
 
         if (mTask != null && mTask.getStatus() != GesturesLoadTask.Status.FINISHED) {
             mTask.cancel(true);
@@ -225,19 +238,10 @@ public class EditGesturesActivity extends ListActivity {
     }
 
     private class GesturesLoadTask extends AsyncTask<Context, GesturePreview, Integer> {
-        private int mThumbnailSize;
-        private int mThumbnailInset;
-        private int mPathColor;
-
         @Override
         protected void onPreExecute() {
             super.onPreExecute();
 
-            mPathColor = 0xFFFFFF00;
-            final float scale = getResources().getDisplayMetrics().density;
-            mThumbnailInset = (int) (8 * scale + 0.5f);
-            mThumbnailSize = (int) (64 * scale + 0.5f);
-
             findViewById(R.id.resetButton).setEnabled(false);
             findViewById(R.id.reloadButton).setEnabled(false);
 
@@ -249,11 +253,13 @@ public class EditGesturesActivity extends ListActivity {
         protected Integer doInBackground(Context... context) {
             if (isCancelled()) return STATUS_CANCELLED;
 
-            final GestureLibrary gestureLibrary = mGestureLibrary;
-            if (gestureLibrary.load()) {
+            final GestureLibrary gestureLibrary =
+                    GestureEngine.getInstance(context[0]).getLibrary();
+            if (gestureLibrary != null) {
                 final Resources resources = context[0].getResources();
                 final String[] titles = resources.getStringArray(R.array.gesture_titles);
                 final String[] summaries = resources.getStringArray(R.array.gesture_summaries);
+                final GestureThumbnails thumbnails = GestureThumbnails.getInstance(context[0]);
                 int position = 0;
                 for (String name : GESTURE_NAMES) {
                     if (isCancelled()) break;
@@ -265,8 +271,7 @@ public class EditGesturesActivity extends ListActivity {
                     gesturePreview.entryName = name;
                     gesturePreview.title = titles[position];
                     gesturePreview.summary = summaries[position];
-                    gesturePreview.thumbnail = gesture.toBitmap(mThumbnailSize, mThumbnailSize,
-                            mThumbnailInset, mPathColor);
+                    gesturePreview.thumbnail = thumbnails.get(name, gesture);
                     publishProgress(gesturePreview);
                     position++;
                 }
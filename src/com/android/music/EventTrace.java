@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music;
+
+import android.os.Process;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers the last few hundred things the playback service did, for
+ * dumpsys. Events are stored as primitives in a fixed ring, so recording
+ * one doesn't allocate or take a lock, and can be done from any thread.
+ * <p>
+ * Every slot carries the sequence number of the event in it. A writer
+ * clears it before filling in the slot and sets it afterwards, so a
+ * reader can tell an event that was overwritten while it was reading it.
+ * The fields are atomic arrays too, so their reads can't move past the
+ * second check of the sequence number.
+ */
+final class EventTrace {
+    static final int HANDLER_MESSAGE = 0;
+    static final int RECEIVER_COMMAND = 1;
+    static final int START_COMMAND = 2;
+    static final int PLAYER_START = 3;
+    static final int PLAY = 4;
+    static final int PAUSE = 5;
+    static final int STOP = 6;
+    static final int NEXT = 7;
+    static final int PREV = 8;
+    static final int OPEN = 9;
+
+    private static final String [] NAMES = {
+        "handler message", "receiver command", "start command", "player start",
+        "play", "pause", "stop", "next", "prev", "open"
+    };
+
+    // the service commands, and the actions that do the same thing
+    private static final String [] COMMANDS = {
+        MediaPlaybackService.CMDTOGGLEPAUSE, MediaPlaybackService.CMDSTOP,
+        MediaPlaybackService.CMDPAUSE, MediaPlaybackService.CMDPREVIOUS,
+        MediaPlaybackService.CMDNEXT, MediaPlaybackService.CMDCYCLEREPEAT,
+        MediaPlaybackService.CMDTOGGLESHUFFLE
+    };
+    private static final String [] ACTIONS = {
+        MediaPlaybackService.TOGGLEPAUSE_ACTION, null,
+        MediaPlaybackService.PAUSE_ACTION, MediaPlaybackService.PREVIOUS_ACTION,
+        MediaPlaybackService.NEXT_ACTION, MediaPlaybackService.CYCLEREPEAT_ACTION,
+        MediaPlaybackService.TOGGLESHUFFLE_ACTION
+    };
+
+    // must be a power of two
+    private static final int SIZE = 512;
+    private static final int MASK = SIZE - 1;
+    private static final int WRITING = -1;
+
+    private static final AtomicInteger sNext = new AtomicInteger();
+    private static final AtomicIntegerArray sSeqs = new AtomicIntegerArray(SIZE);
+    private static final AtomicIntegerArray sEvents = new AtomicIntegerArray(SIZE);
+    private static final AtomicIntegerArray sArgs = new AtomicIntegerArray(SIZE);
+    private static final AtomicLongArray sTimes = new AtomicLongArray(SIZE);
+    private static final AtomicLongArray sTrackIds = new AtomicLongArray(SIZE);
+    private static final AtomicIntegerArray sQueuePositions = new AtomicIntegerArray(SIZE);
+    private static final AtomicIntegerArray sThreads = new AtomicIntegerArray(SIZE);
+
+    static {
+        for (int i = 0; i < SIZE; i++) {
+            sSeqs.set(i, WRITING);
+        }
+    }
+
+    private EventTrace() {
+    }
+
+    /**
+     * Returns the argument to record for a command sent to the service,
+     * or -1 if it isn't one of the known commands.
+     */
+    static int commandFor(String action, String cmd) {
+        for (int i = 0; i < COMMANDS.length; i++) {
+            if (COMMANDS[i].equals(cmd) || (ACTIONS[i] != null && ACTIONS[i].equals(action))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Records an event.
+     * @param event one of the event constants
+     * @param arg the message code for HANDLER_MESSAGE, the result of
+     * commandFor() for the command events, otherwise anything
+     * @param trackId the current track, or -1
+     * @param queuePos the current position in the queue, or -1
+     */
+    static void record(int event, int arg, long trackId, int queuePos) {
+        int seq = sNext.getAndIncrement() & Integer.MAX_VALUE;
+        int i = seq & MASK;
+        sSeqs.set(i, WRITING);
+        sEvents.set(i, event);
+        sArgs.set(i, arg);
+        sTimes.set(i, System.nanoTime());
+        sTrackIds.set(i, trackId);
+        sQueuePositions.set(i, queuePos);
+        sThreads.set(i, Process.myTid());
+        sSeqs.set(i, seq);
+    }
+
+    private static String describe(int event, int arg) {
+        String name = event >= 0 && event < NAMES.length ? NAMES[event] : "event " + event;
+        if (event == RECEIVER_COMMAND || event == START_COMMAND) {
+            return name + " " + (arg >= 0 && arg < COMMANDS.length ? COMMANDS[arg] : "other");
+        }
+        if (event == HANDLER_MESSAGE) {
+            return name + " " + arg;
+        }
+        return name;
+    }
+
+    private interface Visitor {
+        void visit(int event, int arg, long time, long trackId, int queuePos, int thread);
+    }
+
+    /**
+     * Hands the events still in the ring to the visitor, oldest first.
+     * Events that get overwritten while this runs are skipped.
+     */
+    private static void visit(Visitor visitor) {
+        int end = sNext.get() & Integer.MAX_VALUE;
+        int start = Math.max(0, end - SIZE);
+        for (int seq = start; seq < end; seq++) {
+            int i = seq & MASK;
+            if (sSeqs.get(i) != seq) {
+                continue;
+            }
+            int event = sEvents.get(i);
+            int arg = sArgs.get(i);
+            long time = sTimes.get(i);
+            long trackId = sTrackIds.get(i);
+            int queuePos = sQueuePositions.get(i);
+            int thread = sThreads.get(i);
+            if (sSeqs.get(i) != seq) {
+                continue;
+            }
+            visitor.visit(event, arg, time, trackId, queuePos, thread);
+        }
+    }
+
+    static void dump(final PrintWriter writer) {
+        final long now = System.nanoTime();
+        writer.println("recent events (ms ago, thread, track, queue position):");
+        visit(new Visitor() {
+            public void visit(int event, int arg, long time, long trackId, int queuePos,
+                    int thread) {
+                writer.println(String.format("  %9.1f %5d %6d %4d  %s",
+                        (now - time) / 1000000f, thread, trackId, queuePos,
+                        describe(event, arg)));
+            }
+        });
+    }
+
+    /**
+     * Writes the events as JSON in the Chrome trace event format, which
+     * chrome://tracing and Perfetto can load.
+     */
+    static void dumpJson(final PrintWriter writer) {
+        final int pid = Process.myPid();
+        writer.println("{\"traceEvents\":[");
+        visit(new Visitor() {
+            boolean mFirst = true;
+
+            public void visit(int event, int arg, long time, long trackId, int queuePos,
+                    int thread) {
+                if (!mFirst) {
+                    writer.println(",");
+                }
+                mFirst = false;
+                writer.print("{\"name\":\"" + describe(event, arg) + "\",\"ph\":\"i\",\"s\":\"t\""
+                        + ",\"ts\":" + time / 1000 + ",\"pid\":" + pid + ",\"tid\":" + thread
+                        + ",\"args\":{\"track\":" + trackId + ",\"pos\":" + queuePos + "}}");
+            }
+        });
+        writer.println();
+        writer.println("]}");
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.preference.PreferenceManager;
+
+/**
+ * Pauses playback when the phone is put face down, and resumes it when
+ * it is rolled over again. The orientation sensor is only listened to
+ * while the feature is turned on and there is something to pause or
+ * resume.
+ */
+class FlipControl implements SensorEventListener,
+        SharedPreferences.OnSharedPreferenceChangeListener {
+
+    /**
+     * Called on the main thread.
+     */
+    public interface Callback {
+        void onFlipPause();
+        void onFlipResume();
+    }
+
+    private final SensorManager mSensorManager;
+    private final Sensor mSensor;
+    private final SharedPreferences mSettings;
+    private final SharedPreferences mDefaultPrefs;
+    private final Callback mCallback;
+    private final FlipDetector mDetector = new FlipDetector();
+
+    private boolean mEnabled;
+    private boolean mPlaying;
+    private boolean mPausedByFlip;
+    private boolean mRegistered;
+
+    FlipControl(Context context, Callback callback) {
+        mCallback = callback;
+        mSensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        mSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_ORIENTATION);
+        mSettings = context.getSharedPreferences(
+                MusicSettingsActivity.PREFERENCES_FILE, Context.MODE_PRIVATE);
+        mDefaultPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mSettings.registerOnSharedPreferenceChangeListener(this);
+        mDefaultPrefs.registerOnSharedPreferenceChangeListener(this);
+        mEnabled = mSettings.getBoolean(MusicSettingsActivity.KEY_FLIP, false);
+        mDetector.setSensitivity(mDefaultPrefs.getInt(MusicSettingsActivity.FLIP_SENSITIVITY,
+                MusicSettingsActivity.DEFAULT_FLIP_SENS));
+    }
+
+    void release() {
+        mSettings.unregisterOnSharedPreferenceChangeListener(this);
+        mDefaultPrefs.unregisterOnSharedPreferenceChangeListener(this);
+        mEnabled = false;
+        updateRegistration();
+    }
+
+    /**
+     * Tells the control whether playback is currently active.
+     */
+    void setPlaying(boolean playing) {
+        if (playing) {
+            // whatever paused us before, the user has taken over now
+            mPausedByFlip = false;
+        }
+        mPlaying = playing;
+        updateRegistration();
+    }
+
+    public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+        if (MusicSettingsActivity.KEY_FLIP.equals(key) && prefs == mSettings) {
+            mEnabled = prefs.getBoolean(key, false);
+            if (!mEnabled) {
+                mPausedByFlip = false;
+            }
+            updateRegistration();
+        } else if (MusicSettingsActivity.FLIP_SENSITIVITY.equals(key) && prefs == mDefaultPrefs) {
+            mDetector.setSensitivity(prefs.getInt(key, MusicSettingsActivity.DEFAULT_FLIP_SENS));
+        }
+    }
+
+    private void updateRegistration() {
+        boolean wanted = mEnabled && mSensor != null && (mPlaying || mPausedByFlip);
+        if (wanted == mRegistered) {
+            return;
+        }
+        if (wanted) {
+            mDetector.reset();
+            mSensorManager.registerListener(this, mSensor, SensorManager.SENSOR_DELAY_UI);
+        } else {
+            mSensorManager.unregisterListener(this);
+        }
+        mRegistered = wanted;
+    }
+
+    public void onSensorChanged(SensorEvent event) {
+        // event timestamps are in nanoseconds
+        int result = mDetector.onSample(event.timestamp / 1000000, event.values);
+        if (result == FlipDetector.FACE_DOWN) {
+            if (mPlaying) {
+                mPausedByFlip = true;
+                mCallback.onFlipPause();
+            }
+        } else if (result == FlipDetector.ROLLED_OVER) {
+            if (mPausedByFlip && !mPlaying) {
+                mPausedByFlip = false;
+                mCallback.onFlipResume();
+            }
+        }
+    }
+
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+}
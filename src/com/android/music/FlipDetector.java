@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music;
+
+/**
+ * Decides from orientation samples when the phone has been put face
+ * down, and when it has been rolled over again. A position has to be
+ * held for a short while before it counts, and the limits for leaving
+ * a position are a little wider than for entering it, so the phone
+ * wobbling on a table doesn't toggle playback.
+ * This class only does arithmetic, so it can run off the device too.
+ */
+public final class FlipDetector implements MotionDetector {
+    public static final int FACE_DOWN = 1;
+    public static final int ROLLED_OVER = 2;
+
+    // |pitch| above this and |roll| below that means face down
+    static final int PITCH_LIMIT = 160;
+    static final int ROLL_LIMIT = 25;
+    // extra degrees needed to leave a position
+    static final float HYSTERESIS = 5f;
+    // how long a position has to be held, in milliseconds
+    static final long DEBOUNCE = 250;
+
+    private static final int OTHER = 0;
+    private static final int DOWN = 1;
+    private static final int OVER = 2;
+
+    private float mPitchLimit = PITCH_LIMIT;
+    private float mRollLimit = ROLL_LIMIT;
+    private int mPosition = OTHER;
+    private int mCandidate = OTHER;
+    private long mCandidateSince;
+
+    /**
+     * Widens the face down window by the given number of degrees.
+     */
+    public void setSensitivity(int sensitivity) {
+        mPitchLimit = PITCH_LIMIT - sensitivity;
+        mRollLimit = ROLL_LIMIT + sensitivity;
+    }
+
+    /**
+     * Forgets the current position, e.g. after the sensor was turned off.
+     */
+    public void reset() {
+        mPosition = OTHER;
+        mCandidate = OTHER;
+    }
+
+    /**
+     * Takes a sample from the orientation sensor.
+     */
+    public int onSample(long time, float [] values) {
+        return onSample(time, values[1], values[2]);
+    }
+
+    /**
+     * @param time sample time in milliseconds
+     * @param pitch rotation around the x axis, in degrees (-180..180)
+     * @param roll rotation around the y axis, in degrees (-90..90)
+     * @return FACE_DOWN or ROLLED_OVER when the phone has settled in that
+     * position, otherwise NONE
+     */
+    public int onSample(long time, float pitch, float roll) {
+        float absPitch = Math.abs(pitch);
+        float absRoll = Math.abs(roll);
+        int position;
+        if (mPosition == DOWN) {
+            // stay face down until clearly out of the window
+            if (absPitch > mPitchLimit - HYSTERESIS && absRoll < mRollLimit + HYSTERESIS) {
+                position = DOWN;
+            } else if (absPitch > mPitchLimit - HYSTERESIS) {
+                position = OVER;
+            } else {
+                position = OTHER;
+            }
+        } else if (absPitch > mPitchLimit) {
+            if (absRoll < mRollLimit) {
+                position = DOWN;
+            } else if (absRoll > mRollLimit + HYSTERESIS) {
+                position = OVER;
+            } else {
+                position = mPosition;
+            }
+        } else {
+            position = OTHER;
+        }
+
+        if (position != mCandidate) {
+            mCandidate = position;
+            mCandidateSince = time;
+        }
+        if (mCandidate == mPosition || time - mCandidateSince < DEBOUNCE) {
+            return NONE;
+        }
+        mPosition = mCandidate;
+        if (mPosition == DOWN) {
+            return FACE_DOWN;
+        }
+        if (mPosition == OVER) {
+            return ROLLED_OVER;
+        }
+        return NONE;
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Keeps a {@link FolderTrie} of all music on the card up to date.
+ * The trie is built once on a background thread. After that, changes
+ * to the media database only add the new tracks, unless tracks were
+ * removed, in which case it is rebuilt.
+ */
+class FolderIndex {
+    private static final String TAG = "FolderIndex";
+
+    private static final int UPDATE = 1;
+    // the scanner sends lots of change notifications, wait for them to settle
+    private static final long UPDATE_DELAY = 1000;
+
+    static final String SELECTION = MediaStore.Audio.Media.IS_MUSIC + "=1";
+
+    /**
+     * Called on the main thread after the index has changed.
+     */
+    public interface Listener {
+        void onFolderIndexChanged();
+    }
+
+    /**
+     * A folder as shown in the browser.
+     */
+    static class Folder {
+        final String mName;
+        final String mPath;
+        final int mCount;
+
+        Folder(String name, String path, int count) {
+            mName = name;
+            mPath = path;
+            mCount = count;
+        }
+    }
+
+    private static FolderIndex sInstance;
+
+    static synchronized FolderIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new FolderIndex(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final Context mContext;
+    private final Handler mWorkerHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<Listener> mListeners = new ArrayList<Listener>();
+    // guarded by 'this', replaced wholesale on a rebuild
+    private FolderTrie mTrie;
+
+    private FolderIndex(Context context) {
+        mContext = context;
+        Worker worker = new Worker("folder index");
+        mWorkerHandler = new Handler(worker.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                if (msg.what == UPDATE) {
+                    try {
+                        update();
+                    } catch (SQLiteException ex) {
+                        Log.e(TAG, "couldn't update folder index", ex);
+                    } catch (UnsupportedOperationException ex) {
+                        // most likely the card just got unmounted
+                        Log.e(TAG, "couldn't update folder index", ex);
+                    }
+                }
+            }
+        };
+        context.getContentResolver().registerContentObserver(
+                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true,
+                new ContentObserver(mWorkerHandler) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        mWorkerHandler.removeMessages(UPDATE);
+                        mWorkerHandler.sendEmptyMessageDelayed(UPDATE, UPDATE_DELAY);
+                    }
+                });
+        mWorkerHandler.sendEmptyMessage(UPDATE);
+    }
+
+    void registerListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    void unregisterListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Returns true once the initial build has finished.
+     */
+    synchronized boolean isReady() {
+        return mTrie != null;
+    }
+
+    /**
+     * Returns the folders directly below the given one, or null if the
+     * index isn't ready yet.
+     */
+    synchronized Folder [] getFolders(String path) {
+        if (mTrie == null) {
+            return null;
+        }
+        FolderTrie.Node node = mTrie.find(path);
+        if (node == null) {
+            return new Folder[0];
+        }
+        Collection<FolderTrie.Node> children = node.getChildren();
+        Folder [] folders = new Folder[children.size()];
+        int i = 0;
+        for (FolderTrie.Node child : children) {
+            folders[i++] = new Folder(child.getName(), child.getPath(), child.getTrackCount());
+        }
+        return folders;
+    }
+
+    /**
+     * Returns the number of tracks below the given folder.
+     */
+    synchronized int getTrackCount(String path) {
+        if (mTrie == null) {
+            return 0;
+        }
+        FolderTrie.Node node = mTrie.find(path);
+        return node == null ? 0 : node.getTrackCount();
+    }
+
+    /**
+     * Returns the ids of all tracks below the given folder, or null if
+     * the index isn't ready yet.
+     */
+    synchronized long [] getIds(String path) {
+        if (mTrie == null) {
+            return null;
+        }
+        FolderTrie.Node node = mTrie.find(path);
+        return node == null ? new long[0] : mTrie.getIds(node);
+    }
+
+    /**
+     * Returns the ids of all tracks below the given folder, in the same
+     * order as getIds(), read straight from the media database. For when
+     * the index isn't ready yet. Returns null if the query failed. Don't
+     * call this on the main thread.
+     */
+    long [] queryIds(String path) {
+        Cursor c = MusicUtils.query(mContext, MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                new String [] { MediaStore.Audio.Media._ID, MediaStore.Audio.Media.DATA },
+                SELECTION + " AND " + SmartPlaylists.folderSelection(path), null,
+                MediaStore.Audio.Media.DATA);
+        if (c == null) {
+            return null;
+        }
+        FolderTrie trie = new FolderTrie();
+        try {
+            while (c.moveToNext()) {
+                trie.add(c.getLong(0), c.getString(1));
+            }
+        } finally {
+            c.close();
+        }
+        FolderTrie.Node node = trie.find(path);
+        return node == null ? new long[0] : trie.getIds(node);
+    }
+
+    private void update() {
+        FolderTrie trie;
+        synchronized (this) {
+            trie = mTrie;
+        }
+        if (trie == null) {
+            rebuild();
+            return;
+        }
+
+        // Only the worker modifies the trie, so it can be read here without
+        // the lock. Additions are cheap, so pick those up first.
+        long maxid = trie.getMaxId();
+        Cursor c = MusicUtils.query(mContext, MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                new String [] { MediaStore.Audio.Media._ID, MediaStore.Audio.Media.DATA },
+                SELECTION + " AND " + MediaStore.Audio.Media._ID + ">" + maxid,
+                null, MediaStore.Audio.Media.DATA);
+        if (c == null) {
+            return;
+        }
+        int added = c.getCount();
+        try {
+            synchronized (this) {
+                while (c.moveToNext()) {
+                    trie.add(c.getLong(0), c.getString(1));
+                }
+            }
+        } finally {
+            c.close();
+        }
+
+        // there's no cheap way to find out which tracks went away, so if
+        // the numbers don't match, start over
+        c = MusicUtils.query(mContext, MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                new String [] { "count(*)" }, SELECTION, null, null);
+        if (c == null) {
+            return;
+        }
+        int count = trie.size();
+        try {
+            if (c.moveToFirst()) {
+                count = c.getInt(0);
+            }
+        } finally {
+            c.close();
+        }
+        if (count != trie.size()) {
+            rebuild();
+        } else if (added > 0) {
+            notifyListeners();
+        }
+    }
+
+    private void rebuild() {
+        Cursor c = MusicUtils.query(mContext, MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                new String [] { MediaStore.Audio.Media._ID, MediaStore.Audio.Media.DATA },
+                SELECTION, null, MediaStore.Audio.Media.DATA);
+        if (c == null) {
+            return;
+        }
+        FolderTrie trie = new FolderTrie();
+        try {
+            while (c.moveToNext()) {
+                trie.add(c.getLong(0), c.getString(1));
+            }
+        } finally {
+            c.close();
+        }
+        synchronized (this) {
+            mTrie = trie;
+        }
+        notifyListeners();
+    }
+
+    private void notifyListeners() {
+        mMainHandler.post(new Runnable() {
+            public void run() {
+                for (int i = mListeners.size() - 1; i >= 0; i--) {
+                    mListeners.get(i).onFolderIndexChanged();
+                }
+            }
+        });
+    }
+}
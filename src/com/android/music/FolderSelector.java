@@ -1,18 +1,33 @@
 package com.android.music;
 
-import android.app.Activity;
+import android.app.ListActivity;
+import android.content.Context;
 import android.media.AudioManager;
 import android.os.Bundle;
+import android.view.KeyEvent;
+import android.view.LayoutInflater;
 import android.view.View;
+import android.view.ViewGroup;
 import android.view.Window;
 import android.view.WindowManager;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
-import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.TextView;
 
-public class FolderSelector extends Activity
+/**
+ * Lets the user pick the favorite folder by browsing the folders that
+ * contain music, or play everything below the current folder.
+ */
+public class FolderSelector extends ListActivity implements FolderIndex.Listener
 {
-	EditText textEdit;
-	
+    private static final String PARENT = "..";
+
+    private FolderIndex mIndex;
+    private String mPath;
+    private TextView mPathView;
+    private FolderAdapter mAdapter;
+
     @Override
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
@@ -21,14 +36,35 @@ public class FolderSelector extends Activity
         requestWindowFeature(Window.FEATURE_NO_TITLE);
         setContentView(R.layout.folderpicker);
         getWindow().setLayout(WindowManager.LayoutParams.MATCH_PARENT,
-                                    WindowManager.LayoutParams.WRAP_CONTENT);
-
-        textEdit = (EditText)findViewById(R.id.edit_browse_folder);
-        String s = MusicUtils.getStringPref(this, "favoritefolder", "/mnt/sdcard");
-        textEdit.setText(s);
-        
-        ((Button) findViewById(R.id.set)).setOnClickListener(mListener);
-        
+                                    WindowManager.LayoutParams.MATCH_PARENT);
+
+        if (icicle != null) {
+            mPath = icicle.getString("favoritefolder");
+        }
+        if (mPath == null) {
+            mPath = MusicUtils.getStringPref(this, "favoritefolder", "/mnt/sdcard");
+        }
+        mPathView = (TextView) findViewById(R.id.folder_path);
+        mAdapter = new FolderAdapter(this);
+        setListAdapter(mAdapter);
+        mIndex = FolderIndex.getInstance(this);
+
+        ((Button) findViewById(R.id.set)).setOnClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
+                MusicUtils.setStringPref(FolderSelector.this, "favoritefolder", mPath);
+                setResult(RESULT_OK);
+                finish();
+            }
+        });
+
+        ((Button) findViewById(R.id.play)).setOnClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
+                // works before the index is ready, too
+                SmartPlaylists.getInstance(FolderSelector.this).play(
+                        SmartPlaylists.folder(mPath));
+            }
+        });
+
         ((Button) findViewById(R.id.cancel)).setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
                 setResult(RESULT_CANCELED);
@@ -36,23 +72,103 @@ public class FolderSelector extends Activity
             }
         });
     }
-    
+
     @Override
     public void onSaveInstanceState(Bundle outcicle) {
-        outcicle.putString("favoritefolder", textEdit.getText().toString());
+        outcicle.putString("favoritefolder", mPath);
     }
-    
+
     @Override
     public void onResume() {
         super.onResume();
+        mIndex.registerListener(this);
+        refresh();
     }
-    
-    private View.OnClickListener mListener = new View.OnClickListener() {
-        public void onClick(View v) {
-        	String s = textEdit.getText().toString();
-        	MusicUtils.setStringPref(FolderSelector.this, "favoritefolder", s);
-            setResult(RESULT_OK);
-            finish();
+
+    @Override
+    public void onPause() {
+        mIndex.unregisterListener(this);
+        super.onPause();
+    }
+
+    public void onFolderIndexChanged() {
+        refresh();
+    }
+
+    @Override
+    protected void onListItemClick(ListView l, View v, int position, long id) {
+        FolderIndex.Folder folder = mAdapter.getItem(position);
+        if (folder.mPath == null) {
+            goUp();
+        } else {
+            mPath = folder.mPath;
+            refresh();
+        }
+    }
+
+    @Override
+    public boolean onKeyDown(int keyCode, KeyEvent event) {
+        if (keyCode == KeyEvent.KEYCODE_BACK && goUp()) {
+            return true;
+        }
+        return super.onKeyDown(keyCode, event);
+    }
+
+    private boolean goUp() {
+        int slash = mPath.lastIndexOf('/');
+        if (slash < 0 || mPath.equals("/")) {
+            return false;
+        }
+        mPath = slash == 0 ? "/" : mPath.substring(0, slash);
+        refresh();
+        return true;
+    }
+
+    private void refresh() {
+        mPathView.setText(mPath);
+        mAdapter.setNotifyOnChange(false);
+        mAdapter.clear();
+        FolderIndex.Folder [] folders = mIndex.getFolders(mPath);
+        TextView empty = (TextView) findViewById(android.R.id.empty);
+        if (folders == null) {
+            empty.setText(R.string.loading);
+            mAdapter.notifyDataSetChanged();
+            return;
         }
-    };
-}
\ No newline at end of file
+        empty.setText(R.string.folderpicker_no_folders);
+        if (!mPath.equals("/")) {
+            mAdapter.add(new FolderIndex.Folder(PARENT, null, 0));
+        }
+        for (FolderIndex.Folder folder : folders) {
+            mAdapter.add(folder);
+        }
+        mAdapter.notifyDataSetChanged();
+    }
+
+    private static class FolderAdapter extends ArrayAdapter<FolderIndex.Folder> {
+        private final LayoutInflater mInflater;
+
+        FolderAdapter(Context context) {
+            super(context, android.R.layout.simple_list_item_2);
+            mInflater = LayoutInflater.from(context);
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            View v = convertView;
+            if (v == null) {
+                v = mInflater.inflate(android.R.layout.simple_list_item_2, parent, false);
+            }
+            FolderIndex.Folder folder = getItem(position);
+            ((TextView) v.findViewById(android.R.id.text1)).setText(folder.mName);
+            TextView line2 = (TextView) v.findViewById(android.R.id.text2);
+            if (folder.mPath == null) {
+                line2.setText("");
+            } else {
+                line2.setText(getContext().getResources().getQuantityString(
+                        R.plurals.Nsongs, folder.mCount, folder.mCount));
+            }
+            return v;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.TreeMap;
+
+/**
+ * A trie of folders, built from the paths of the tracks in the media
+ * database. Every folder knows how many tracks are below it, so the
+ * ids of a whole subtree can be collected in time proportional to the
+ * size of that subtree.
+ * This class is not thread safe.
+ */
+final class FolderTrie {
+    private static final long [] NO_IDS = new long[0];
+
+    static final class Node {
+        private final String mName;
+        private final Node mParent;
+        // sorted by name, which is the order they're shown in
+        private TreeMap<String, Node> mChildren;
+        // tracks directly in this folder, in the order they were added
+        private long [] mIds = NO_IDS;
+        private int mIdCount;
+        // tracks in this folder and all folders below it
+        private int mCount;
+
+        private Node(String name, Node parent) {
+            mName = name;
+            mParent = parent;
+        }
+
+        String getName() {
+            return mName;
+        }
+
+        Node getParent() {
+            return mParent;
+        }
+
+        int getTrackCount() {
+            return mCount;
+        }
+
+        Collection<Node> getChildren() {
+            if (mChildren == null) {
+                return Collections.emptyList();
+            }
+            return mChildren.values();
+        }
+
+        String getPath() {
+            if (mParent == null) {
+                return "/";
+            }
+            StringBuilder sb = new StringBuilder();
+            appendPath(sb);
+            return sb.toString();
+        }
+
+        private void appendPath(StringBuilder sb) {
+            if (mParent != null) {
+                mParent.appendPath(sb);
+                sb.append('/').append(mName);
+            }
+        }
+
+        private Node getOrAddChild(String name) {
+            if (mChildren == null) {
+                mChildren = new TreeMap<String, Node>();
+            }
+            Node child = mChildren.get(name);
+            if (child == null) {
+                child = new Node(name, this);
+                mChildren.put(name, child);
+            }
+            return child;
+        }
+
+        private void addId(long id) {
+            if (mIdCount == mIds.length) {
+                long [] ids = new long[Math.max(4, mIdCount * 2)];
+                System.arraycopy(mIds, 0, ids, 0, mIdCount);
+                mIds = ids;
+            }
+            mIds[mIdCount++] = id;
+        }
+
+        private int collectIds(long [] out, int pos) {
+            System.arraycopy(mIds, 0, out, pos, mIdCount);
+            pos += mIdCount;
+            if (mChildren != null) {
+                for (Node child : mChildren.values()) {
+                    pos = child.collectIds(out, pos);
+                }
+            }
+            return pos;
+        }
+    }
+
+    private final Node mRoot = new Node("", null);
+    private long mMaxId = -1;
+
+    /**
+     * Adds a track with the given id and absolute path.
+     */
+    void add(long id, String path) {
+        Node node = mRoot;
+        int start = 0;
+        int slash;
+        while ((slash = path.indexOf('/', start)) >= 0) {
+            if (slash > start) {
+                node = node.getOrAddChild(path.substring(start, slash));
+            }
+            start = slash + 1;
+        }
+        node.addId(id);
+        for (Node n = node; n != null; n = n.mParent) {
+            n.mCount++;
+        }
+        if (id > mMaxId) {
+            mMaxId = id;
+        }
+    }
+
+    Node getRoot() {
+        return mRoot;
+    }
+
+    /**
+     * Returns the node for the given folder, or null if there are no
+     * tracks below it.
+     */
+    Node find(String path) {
+        Node node = mRoot;
+        int start = 0;
+        int len = path.length();
+        while (start < len && node != null) {
+            int slash = path.indexOf('/', start);
+            if (slash < 0) {
+                slash = len;
+            }
+            if (slash > start) {
+                node = node.mChildren == null ? null :
+                        node.mChildren.get(path.substring(start, slash));
+            }
+            start = slash + 1;
+        }
+        return node;
+    }
+
+    /**
+     * Returns the ids of all tracks below the given node, folder by folder.
+     */
+    long [] getIds(Node node) {
+        long [] ids = new long[node.mCount];
+        node.collectIds(ids, 0);
+        return ids;
+    }
+
+    /**
+     * Returns the number of tracks in the trie.
+     */
+    int size() {
+        return mRoot.mCount;
+    }
+
+    /**
+     * Returns the largest id added so far, or -1 if the trie is empty.
+     */
+    long getMaxId() {
+        return mMaxId;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music;
+
+import android.content.Context;
+import android.gesture.Gesture;
+import android.gesture.GestureLibraries;
+import android.gesture.GestureLibrary;
+import android.gesture.Prediction;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Holds the gesture library for the whole process. The library is
+ * loaded once, on a background thread, and only loaded again after the
+ * gestures have been edited. Gestures drawn on the playback screen are
+ * recognized on that same thread.
+ */
+class GestureEngine {
+    private static final String TAG = "GestureEngine";
+
+    // predictions have to score higher than this
+    static final double MIN_SCORE = 2.0;
+
+    /**
+     * Called on the main thread.
+     */
+    public interface Callback {
+        void onGestureRecognized(String name);
+    }
+
+    /**
+     * A change to the library, made on the gesture thread so it can't
+     * happen in the middle of a recognition.
+     */
+    public interface LibraryEdit {
+        /**
+         * Called on the gesture thread with the loaded library. Returns
+         * false if the edit couldn't be made.
+         */
+        boolean edit(GestureLibrary library);
+
+        /**
+         * Called on the main thread afterwards, with the result of edit(),
+         * which is false too if the library couldn't be loaded.
+         */
+        void onDone(boolean edited);
+    }
+
+    private static GestureEngine sInstance;
+
+    static synchronized GestureEngine getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new GestureEngine(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // guarded by 'this'
+    private GestureLibrary mLibrary;
+    private boolean mLoaded;
+
+    private GestureEngine(Context context) {
+        mContext = context;
+        // Not a Worker: recognition is on the way from the finger to the
+        // action, so it shouldn't have to wait behind background work.
+        HandlerThread thread = new HandlerThread("gestures", Process.THREAD_PRIORITY_DISPLAY);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        preload();
+    }
+
+    /**
+     * Starts loading the library in the background, if that hasn't
+     * happened yet.
+     */
+    void preload() {
+        mHandler.post(new Runnable() {
+            public void run() {
+                getLibrary();
+            }
+        });
+    }
+
+    /**
+     * Drops the loaded library, after the gestures have been edited or
+     * reset, and loads the current one in the background.
+     */
+    void reload() {
+        synchronized (this) {
+            mLibrary = null;
+            mLoaded = false;
+        }
+        preload();
+    }
+
+    /**
+     * Returns the library, loading it first if needed, or null if it
+     * couldn't be loaded. Don't call this on the main thread, and only
+     * change the library through edit().
+     */
+    synchronized GestureLibrary getLibrary() {
+        if (!mLoaded) {
+            boolean custom = mContext.getSharedPreferences(MusicSettingsActivity.PREFERENCES_FILE,
+                    Context.MODE_PRIVATE).getBoolean(MusicSettingsActivity.KEY_HAS_CUSTOM_GESTURES,
+                            false);
+            GestureLibrary library;
+            if (custom) {
+                library = GestureLibraries.fromPrivateFile(mContext,
+                        EditGesturesActivity.LIBRARY_FILENAME);
+            } else {
+                library = GestureLibraries.fromRawResource(mContext, R.raw.gestures);
+            }
+            if (library.load()) {
+                mLibrary = library;
+            } else {
+                Log.e(TAG, "couldn't load gestures");
+                mLibrary = null;
+            }
+            mLoaded = true;
+        }
+        return mLibrary;
+    }
+
+    /**
+     * Makes the given edit on the gesture thread.
+     */
+    void edit(final LibraryEdit edit) {
+        mHandler.post(new Runnable() {
+            public void run() {
+                GestureLibrary library = getLibrary();
+                final boolean edited = library != null && edit.edit(library);
+                mMainHandler.post(new Runnable() {
+                    public void run() {
+                        edit.onDone(edited);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Recognizes the gesture in the background and calls back with the
+     * name of the best match, if it scores higher than MIN_SCORE.
+     */
+    void recognize(final Gesture gesture, final Callback callback) {
+        mHandler.post(new Runnable() {
+            public void run() {
+                GestureLibrary library = getLibrary();
+                if (library == null) {
+                    return;
+                }
+                ArrayList<Prediction> predictions = library.recognize(gesture);
+                if (predictions.isEmpty()) {
+                    return;
+                }
+                final Prediction best = predictions.get(0);
+                if (best.score <= MIN_SCORE) {
+                    return;
+                }
+                mMainHandler.post(new Runnable() {
+                    public void run() {
+                        callback.onGestureRecognized(best.name);
+                    }
+                });
+            }
+        });
+    }
+}
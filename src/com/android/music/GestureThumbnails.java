@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music;
+
+import android.content.Context;
+import android.gesture.Gesture;
+import android.gesture.GestureStroke;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Keeps the thumbnails shown in the gesture editor, in memory and in
+ * the cache directory, so they don't have to be drawn again every time
+ * the editor is opened. A thumbnail is keyed by the gesture's name and
+ * a hash of its strokes, so an edited gesture never shows an old
+ * picture; {@link #invalidate} just cleans up after an edit.
+ */
+class GestureThumbnails {
+    private static final String TAG = "GestureThumbnails";
+
+    private static final String DIRECTORY = "gesturethumbs";
+    private static final int PATH_COLOR = 0xFFFFFF00;
+
+    private static GestureThumbnails sInstance;
+
+    static synchronized GestureThumbnails getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new GestureThumbnails(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final File mDirectory;
+    private final int mSize;
+    private final int mInset;
+    // key -> thumbnail, guarded by 'this'
+    private final HashMap<String, Bitmap> mCache = new HashMap<String, Bitmap>();
+
+    private GestureThumbnails(Context context) {
+        mDirectory = new File(context.getCacheDir(), DIRECTORY);
+        float scale = context.getResources().getDisplayMetrics().density;
+        mInset = (int) (8 * scale + 0.5f);
+        mSize = (int) (64 * scale + 0.5f);
+    }
+
+    private static int hash(Gesture gesture) {
+        int hash = 1;
+        ArrayList<GestureStroke> strokes = gesture.getStrokes();
+        for (int i = 0; i < strokes.size(); i++) {
+            hash = 31 * hash + Arrays.hashCode(strokes.get(i).points);
+        }
+        return hash;
+    }
+
+    private String keyFor(String name, Gesture gesture) {
+        return name + "_" + mSize + "_" + Integer.toHexString(hash(gesture));
+    }
+
+    /**
+     * Returns the thumbnail for the given gesture, drawing it if it isn't
+     * cached yet. This may touch the disk, so don't call it on the main
+     * thread.
+     */
+    Bitmap get(String name, Gesture gesture) {
+        String key = keyFor(name, gesture);
+        synchronized (this) {
+            Bitmap b = mCache.get(key);
+            if (b != null) {
+                return b;
+            }
+        }
+
+        File file = new File(mDirectory, key + ".png");
+        Bitmap b = BitmapFactory.decodeFile(file.getPath());
+        if (b == null) {
+            b = gesture.toBitmap(mSize, mSize, mInset, PATH_COLOR);
+            write(b, file);
+        }
+        synchronized (this) {
+            mCache.put(key, b);
+        }
+        return b;
+    }
+
+    private void write(Bitmap b, File file) {
+        mDirectory.mkdirs();
+        File tmpfile = new File(mDirectory, file.getName() + ".tmp");
+        FileOutputStream out = null;
+        boolean ok = false;
+        try {
+            out = new FileOutputStream(tmpfile);
+            ok = b.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } catch (IOException ex) {
+            Log.e(TAG, "couldn't write " + tmpfile, ex);
+        } finally {
+            try {
+                if (out != null) {
+                    out.close();
+                }
+            } catch (IOException ex) {
+                ok = false;
+            }
+        }
+        if (!ok || !tmpfile.renameTo(file)) {
+            tmpfile.delete();
+        }
+    }
+
+    /**
+     * Drops the thumbnails of the given gesture, after it was changed.
+     */
+    synchronized void invalidate(String name) {
+        String prefix = name + "_";
+        for (Iterator<String> i = mCache.keySet().iterator(); i.hasNext(); ) {
+            if (i.next().startsWith(prefix)) {
+                i.remove();
+            }
+        }
+        File [] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.getName().startsWith(prefix)) {
+                    f.delete();
+                }
+            }
+        }
+    }
+}
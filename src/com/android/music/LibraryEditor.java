@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.io.File;
+
+/**
+ * Applies playlist and track edits on a background thread.
+ * All edits run one at a time on a single worker, so two edits of the
+ * same playlist can never interleave and compute the same play order.
+ * Progress and completion are reported on the main thread.
+ */
+class LibraryEditor {
+    private static final String TAG = "LibraryEditor";
+
+    // number of rows handed to the provider in one call
+    private static final int BATCH_SIZE = 1000;
+
+    /**
+     * Receives progress updates for an edit. All methods are called
+     * on the main thread.
+     */
+    public interface Listener {
+        void onProgress(int done, int total);
+        /**
+         * Called once the edit has gone too far to be cancelled.
+         */
+        void onCommitted();
+        /**
+         * @param count the number of items that were changed, or -1 if
+         * the edit was cancelled before anything was written
+         */
+        void onComplete(int count);
+    }
+
+    /**
+     * Handle for a queued edit, which can be used to cancel it.
+     * Cancelling is checked between batches, so a batch that has
+     * already been handed to the provider is not rolled back.
+     */
+    public static class Job {
+        private boolean mCancelled = false;
+        private boolean mCommitted = false;
+
+        /**
+         * @return false if the edit had already gone too far to be cancelled
+         */
+        public synchronized boolean cancel() {
+            if (!mCommitted) {
+                mCancelled = true;
+            }
+            return mCancelled;
+        }
+
+        public synchronized boolean isCancelled() {
+            return mCancelled;
+        }
+
+        /**
+         * Called by the worker past the last point at which the edit can
+         * stop. Returns false if it was cancelled before that.
+         */
+        synchronized boolean commit() {
+            if (!mCancelled) {
+                mCommitted = true;
+            }
+            return mCommitted;
+        }
+    }
+
+    private static LibraryEditor sInstance;
+
+    static synchronized LibraryEditor getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LibraryEditor(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final Context mContext;
+    private final Handler mWorkerHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private LibraryEditor(Context context) {
+        mContext = context;
+        Worker worker = new Worker("library editor");
+        mWorkerHandler = new Handler(worker.getLooper());
+    }
+
+    /**
+     * Appends the given tracks to the end of a playlist.
+     */
+    Job addToPlaylist(final long [] ids, final long playlistid, final Listener listener) {
+        final Job job = new Job();
+        mWorkerHandler.post(new Runnable() {
+            public void run() {
+                int count = -1;
+                try {
+                    count = doAddToPlaylist(job, ids, playlistid, listener);
+                } catch (SQLiteException ex) {
+                    Log.e(TAG, "couldn't add to playlist " + playlistid, ex);
+                } catch (UnsupportedOperationException ex) {
+                    // most likely the card just got unmounted
+                    Log.e(TAG, "couldn't add to playlist " + playlistid, ex);
+                }
+                postComplete(listener, count);
+            }
+        });
+        return job;
+    }
+
+    /**
+     * Removes the given tracks from the play queue, the database and the card.
+     */
+    Job deleteTracks(final long [] ids, final Listener listener) {
+        final Job job = new Job();
+        mWorkerHandler.post(new Runnable() {
+            public void run() {
+                int count = -1;
+                try {
+                    count = doDeleteTracks(job, ids, listener);
+                } catch (SQLiteException ex) {
+                    Log.e(TAG, "couldn't delete tracks", ex);
+                } catch (UnsupportedOperationException ex) {
+                    Log.e(TAG, "couldn't delete tracks", ex);
+                }
+                postComplete(listener, count);
+            }
+        });
+        return job;
+    }
+
+    private int doAddToPlaylist(Job job, long [] ids, long playlistid, Listener listener) {
+        ContentResolver resolver = mContext.getContentResolver();
+        Uri uri = MediaStore.Audio.Playlists.Members.getContentUri("external", playlistid);
+
+        // need to determine the number of items currently in the playlist,
+        // so the play_order field can be maintained. Since edits are serialized
+        // nobody else can be appending to this playlist in the meantime.
+        int base = 0;
+        Cursor cur = resolver.query(uri, new String [] { "count(*)" }, null, null, null);
+        if (cur != null) {
+            if (cur.moveToFirst()) {
+                base = cur.getInt(0);
+            }
+            cur.close();
+        }
+
+        int size = ids.length;
+        int numinserted = 0;
+        ContentValues [] values = null;
+        for (int offset = 0; offset < size; offset += BATCH_SIZE) {
+            if (job.isCancelled()) {
+                return numinserted > 0 ? numinserted : -1;
+            }
+            int len = Math.min(BATCH_SIZE, size - offset);
+            if (values == null || values.length != len) {
+                values = new ContentValues[len];
+                for (int i = 0; i < len; i++) {
+                    values[i] = new ContentValues(2);
+                }
+            }
+            for (int i = 0; i < len; i++) {
+                values[i].put(MediaStore.Audio.Playlists.Members.PLAY_ORDER, base + offset + i);
+                values[i].put(MediaStore.Audio.Playlists.Members.AUDIO_ID, ids[offset + i]);
+            }
+            numinserted += resolver.bulkInsert(uri, values);
+            postProgress(listener, offset + len, size);
+        }
+        return numinserted;
+    }
+
+    private int doDeleteTracks(Job job, long [] ids, Listener listener) {
+        ContentResolver resolver = mContext.getContentResolver();
+        String [] cols = new String [] { MediaStore.Audio.Media._ID,
+                MediaStore.Audio.Media.DATA, MediaStore.Audio.Media.ALBUM_ID };
+        StringBuilder where = new StringBuilder();
+        where.append(MediaStore.Audio.Media._ID + " IN (");
+        for (int i = 0; i < ids.length; i++) {
+            where.append(ids[i]);
+            if (i < ids.length - 1) {
+                where.append(",");
+            }
+        }
+        where.append(")");
+        Cursor c = MusicUtils.query(mContext, MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                cols, where.toString(), null, null);
+        if (c == null) {
+            return 0;
+        }
+
+        try {
+            int len = c.getCount();
+            long [] found = new long[len];
+            String [] paths = new String[len];
+            for (int i = 0; i < len; i++) {
+                c.moveToNext();
+                found[i] = c.getLong(0);
+                paths[i] = c.getString(1);
+                MusicUtils.removeFromArtCache(c.getLong(2));
+            }
+
+            // once the rows are gone the files have to go too, otherwise the
+            // scanner would bring them back, so this is the last point at
+            // which the delete can be cancelled
+            if (!job.commit()) {
+                return -1;
+            }
+            postCommitted(listener);
+
+            // step 1: remove selected tracks from the current playlist
+            IMediaPlaybackService service = MusicUtils.sService;
+            if (service != null) {
+                try {
+                    service.removeTracksById(found);
+                } catch (RemoteException ex) {
+                }
+            }
+
+            // step 2: remove selected tracks from the database
+            resolver.delete(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, where.toString(), null);
+
+            // step 3: remove files from card
+            for (int i = 0; i < len; i++) {
+                File f = new File(paths[i]);
+                try {  // File.delete can throw a security exception
+                    if (!f.delete()) {
+                        Log.e(TAG, "Failed to delete file " + paths[i]);
+                    }
+                } catch (SecurityException ex) {
+                }
+                if ((i + 1) % 100 == 0 || i == len - 1) {
+                    postProgress(listener, i + 1, len);
+                }
+            }
+            return len;
+        } finally {
+            c.close();
+        }
+    }
+
+    private void postProgress(final Listener listener, final int done, final int total) {
+        if (listener == null) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            public void run() {
+                listener.onProgress(done, total);
+            }
+        });
+    }
+
+    private void postCommitted(final Listener listener) {
+        if (listener == null) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            public void run() {
+                listener.onCommitted();
+            }
+        });
+    }
+
+    private void postComplete(final Listener listener, final int count) {
+        if (listener == null) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            public void run() {
+                listener.onComplete(count);
+            }
+        });
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive longs using open addressing, so that membership
+ * tests against track ids don't box every value.
+ */
+final class LongHashSet {
+    // marks an unused slot; the value itself is tracked separately
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long [] mKeys;
+    private int mMask;
+    private int mSize;
+    private boolean mHasEmptyKey;
+
+    LongHashSet(int expected) {
+        int capacity = 8;
+        // keep the load factor at or below 1/2
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new long[capacity];
+        Arrays.fill(mKeys, EMPTY);
+        mMask = capacity - 1;
+    }
+
+    private static int hash(long key) {
+        // spread the bits, ids tend to be small and sequential
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+    /**
+     * Adds the key to the set.
+     * @return true if the key was not already present
+     */
+    boolean add(long key) {
+        if (key == EMPTY) {
+            if (mHasEmptyKey) {
+                return false;
+            }
+            mHasEmptyKey = true;
+            mSize++;
+            return true;
+        }
+        int slot = hash(key) & mMask;
+        while (mKeys[slot] != EMPTY) {
+            if (mKeys[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & mMask;
+        }
+        mKeys[slot] = key;
+        mSize++;
+        if (mSize * 2 > mKeys.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    boolean contains(long key) {
+        if (key == EMPTY) {
+            return mHasEmptyKey;
+        }
+        int slot = hash(key) & mMask;
+        long k;
+        while ((k = mKeys[slot]) != EMPTY) {
+            if (k == key) {
+                return true;
+            }
+            slot = (slot + 1) & mMask;
+        }
+        return false;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    private void rehash() {
+        long [] old = mKeys;
+        allocate(old.length * 2);
+        for (int i = 0; i < old.length; i++) {
+            long key = old[i];
+            if (key != EMPTY) {
+                int slot = hash(key) & mMask;
+                while (mKeys[slot] != EMPTY) {
+                    slot = (slot + 1) & mMask;
+                }
+                mKeys[slot] = key;
+            }
+        }
+    }
+}
@@ -40,6 +40,24 @@ public class MediaAppWidgetProvider4x1 extends AppWidgetProvider {
 
     private static MediaAppWidgetProvider4x1 sInstance;
 
+    // ids of all instances of this widget, or null if they need to be looked up
+    private static volatile int[] sAppWidgetIds;
+
+    // what the widgets currently show, so that a play state change can
+    // reuse it instead of looking up the track and its artwork again
+    private boolean mTrackInfoValid;
+    private CharSequence mErrorState;
+    private CharSequence mArtistName;
+    private CharSequence mTitleName;
+    private Uri mArtworkUri;
+    private boolean mPlaying;
+
+    // created once and reused for every update
+    private PendingIntent mPlayerIntent;
+    private PendingIntent mBrowserIntent;
+    private PendingIntent mTogglePauseIntent;
+    private PendingIntent mNextIntent;
+
     static synchronized MediaAppWidgetProvider4x1 getInstance() {
         if (sInstance == null) {
             sInstance = new MediaAppWidgetProvider4x1();
@@ -49,6 +67,7 @@ public class MediaAppWidgetProvider4x1 extends AppWidgetProvider {
 
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        sAppWidgetIds = null;
         defaultAppWidget(context, appWidgetIds);
 
         // Send broadcast intent to any running MediaPlaybackService so it can
@@ -61,6 +80,16 @@ public class MediaAppWidgetProvider4x1 extends AppWidgetProvider {
         context.sendBroadcast(updateIntent);
     }
 
+    @Override
+    public void onDeleted(Context context, int[] appWidgetIds) {
+        sAppWidgetIds = null;
+    }
+
+    @Override
+    public void onDisabled(Context context) {
+        sAppWidgetIds = null;
+    }
+
     /**
      * Initialize given widgets to default state, where we launch Music on default click
      * and hide actions if service not running.
@@ -91,22 +120,25 @@ public class MediaAppWidgetProvider4x1 extends AppWidgetProvider {
     /**
      * Check against {@link AppWidgetManager} if there are any instances of this widget.
      */
-    private boolean hasInstances(Context context) {
-        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
-        int[] appWidgetIds = appWidgetManager.getAppWidgetIds(
-                new ComponentName(context, this.getClass()));
+    boolean hasInstances(Context context) {
+        int[] appWidgetIds = sAppWidgetIds;
+        if (appWidgetIds == null) {
+            AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+            appWidgetIds = appWidgetManager.getAppWidgetIds(
+                    new ComponentName(context, this.getClass()));
+            sAppWidgetIds = appWidgetIds;
+        }
         return (appWidgetIds.length > 0);
     }
 
     /**
      * Handle a change notification coming over from {@link MediaPlaybackService}
+     * @param flags the {@link ChangeNotifier} flags of what changed
      */
-    void notifyChange(MediaPlaybackService service, String what) {
-        if (hasInstances(service)) {
-            if (MediaPlaybackService.META_CHANGED.equals(what) ||
-                    MediaPlaybackService.PLAYSTATE_CHANGED.equals(what)) {
-                performUpdate(service, null);
-            }
+    void notifyChange(MediaPlaybackService service, int flags) {
+        if ((flags & (ChangeNotifier.META | ChangeNotifier.PLAYSTATE)) != 0
+                && hasInstances(service)) {
+            update(service, null, (flags & ChangeNotifier.META) != 0);
         }
     }
 
@@ -114,56 +146,82 @@ public class MediaAppWidgetProvider4x1 extends AppWidgetProvider {
      * Update all active widget instances by pushing changes 
      */
     void performUpdate(MediaPlaybackService service, int[] appWidgetIds) {
-        final Resources res = service.getResources();
-        final RemoteViews views = new RemoteViews(service.getPackageName(), R.layout.album_appwidget4x1);
+        update(service, appWidgetIds, true);
+    }
 
-        CharSequence titleName = service.getTrackName();
-        CharSequence artistName = service.getArtistName();
+    /**
+     * Looks up the track info and artwork, which only needs to be done
+     * when the track changed.
+     */
+    private void loadTrackInfo(MediaPlaybackService service) {
+        final Resources res = service.getResources();
+        mTitleName = service.getTrackName();
+        mArtistName = service.getArtistName();
         long albumId = service.getAlbumId();
         long songId = service.getAudioId();
-        CharSequence errorState = null;
+        mErrorState = null;
+        mArtworkUri = null;
 
         // Format title string with track number, or show SD card message
         String status = Environment.getExternalStorageState();
         if (status.equals(Environment.MEDIA_SHARED) ||
                 status.equals(Environment.MEDIA_UNMOUNTED)) {
             if (android.os.Environment.isExternalStorageRemovable()) {
-                errorState = res.getText(R.string.sdcard_busy_title);
+                mErrorState = res.getText(R.string.sdcard_busy_title);
             } else {
-                errorState = res.getText(R.string.sdcard_busy_title_nosdcard);
+                mErrorState = res.getText(R.string.sdcard_busy_title_nosdcard);
             }
         } else if (status.equals(Environment.MEDIA_REMOVED)) {
             if (android.os.Environment.isExternalStorageRemovable()) {
-                errorState = res.getText(R.string.sdcard_missing_title);
+                mErrorState = res.getText(R.string.sdcard_missing_title);
             } else {
-                errorState = res.getText(R.string.sdcard_missing_title_nosdcard);
+                mErrorState = res.getText(R.string.sdcard_missing_title_nosdcard);
             }
-        } else if (titleName == null) {
-            errorState = res.getText(R.string.emptyplaylist);
+        } else if (mTitleName == null) {
+            mErrorState = res.getText(R.string.emptyplaylist);
+        } else {
+            mArtworkUri = service.getWidgetArtUri(songId, albumId);
+        }
+        mTrackInfoValid = true;
+    }
+
+    /**
+     * Pushes the current state to the widgets. The platform replaces the
+     * widget's views wholesale with what it is sent, so the views are always
+     * complete, but the track info is only looked up again if it changed.
+     */
+    private void update(MediaPlaybackService service, int[] appWidgetIds, boolean metaChanged) {
+        final boolean playing = service.isPlaying();
+        if (appWidgetIds == null && !metaChanged && mTrackInfoValid && playing == mPlaying) {
+            // nothing the widget shows has changed
+            return;
+        }
+        mPlaying = playing;
+        if (metaChanged || !mTrackInfoValid) {
+            loadTrackInfo(service);
         }
 
-        if (errorState != null) {
+        final RemoteViews views = new RemoteViews(service.getPackageName(), R.layout.album_appwidget4x1);
+        if (mErrorState != null) {
             // Show error state to user
             views.setViewVisibility(R.id.title, View.GONE);
-            views.setTextViewText(R.id.artist, errorState);
+            views.setTextViewText(R.id.artist, mErrorState);
             views.setViewVisibility(R.id.albumart, View.GONE);
         } else {
             // No error, so show normal titles and artwork
             views.setViewVisibility(R.id.title, View.VISIBLE);
-            views.setTextViewText(R.id.title, titleName);
-            views.setTextViewText(R.id.artist, artistName);
+            views.setTextViewText(R.id.title, mTitleName);
+            views.setTextViewText(R.id.artist, mArtistName);
             views.setViewVisibility(R.id.albumart, View.VISIBLE);
             // Set album art
-            Uri uri = MusicUtils.getArtworkUri(service, songId, albumId);
-            if (uri != null) {
-                views.setImageViewUri(R.id.albumart, uri);
+            if (mArtworkUri != null) {
+                views.setImageViewUri(R.id.albumart, mArtworkUri);
             } else {
                 views.setImageViewResource(R.id.albumart, R.drawable.albumart_mp_unknown);
             }
         }
 
         // Set correct drawable for pause state
-        final boolean playing = service.isPlaying();
         if (playing) {
             views.setImageViewResource(R.id.control_play, R.drawable.btn_playback_ic_pause);
         } else {
@@ -197,33 +255,37 @@ public class MediaAppWidgetProvider4x1 extends AppWidgetProvider {
      */
     private void linkButtons(Context context, RemoteViews views, boolean playerActive) {
         // Connect up various buttons and touch events
-        Intent intent;
         PendingIntent pendingIntent;
 
-        final ComponentName serviceName = new ComponentName(context, MediaPlaybackService.class);
-
         if (playerActive) {
-            intent = new Intent(context, MediaPlaybackActivity.class);
-            pendingIntent = PendingIntent.getActivity(context,
-                    0 /* no requestCode */, intent, 0 /* no flags */);
-            views.setOnClickPendingIntent(R.id.album_appwidget, pendingIntent);
+            if (mPlayerIntent == null) {
+                Intent intent = new Intent(context, MediaPlaybackActivity.class);
+                mPlayerIntent = PendingIntent.getActivity(context,
+                        0 /* no requestCode */, intent, 0 /* no flags */);
+            }
+            pendingIntent = mPlayerIntent;
         } else {
-            intent = new Intent(context, MusicBrowserActivity.class);
-            pendingIntent = PendingIntent.getActivity(context,
-                    0 /* no requestCode */, intent, 0 /* no flags */);
-            views.setOnClickPendingIntent(R.id.album_appwidget, pendingIntent);
+            if (mBrowserIntent == null) {
+                Intent intent = new Intent(context, MusicBrowserActivity.class);
+                mBrowserIntent = PendingIntent.getActivity(context,
+                        0 /* no requestCode */, intent, 0 /* no flags */);
+            }
+            pendingIntent = mBrowserIntent;
         }
+        views.setOnClickPendingIntent(R.id.album_appwidget, pendingIntent);
 
-        intent = new Intent(MediaPlaybackService.TOGGLEPAUSE_ACTION);
-        intent.setComponent(serviceName);
-        pendingIntent = PendingIntent.getService(context,
-                0 /* no requestCode */, intent, 0 /* no flags */);
-        views.setOnClickPendingIntent(R.id.control_play, pendingIntent);
+        if (mTogglePauseIntent == null) {
+            mTogglePauseIntent = getServiceIntent(context, MediaPlaybackService.TOGGLEPAUSE_ACTION);
+            mNextIntent = getServiceIntent(context, MediaPlaybackService.NEXT_ACTION);
+        }
+        views.setOnClickPendingIntent(R.id.control_play, mTogglePauseIntent);
+        views.setOnClickPendingIntent(R.id.control_next, mNextIntent);
+    }
 
-        intent = new Intent(MediaPlaybackService.NEXT_ACTION);
-        intent.setComponent(serviceName);
-        pendingIntent = PendingIntent.getService(context,
+    private static PendingIntent getServiceIntent(Context context, String action) {
+        Intent intent = new Intent(action);
+        intent.setComponent(new ComponentName(context, MediaPlaybackService.class));
+        return PendingIntent.getService(context,
                 0 /* no requestCode */, intent, 0 /* no flags */);
-        views.setOnClickPendingIntent(R.id.control_next, pendingIntent);
     }
 }
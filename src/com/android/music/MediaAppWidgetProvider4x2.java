@@ -40,6 +40,30 @@ public class MediaAppWidgetProvider4x2 extends AppWidgetProvider {
 
     private static MediaAppWidgetProvider4x2 sInstance;
 
+    // ids of all instances of this widget, or null if they need to be looked up
+    private static volatile int[] sAppWidgetIds;
+
+    // what the widgets currently show, so that a play state change can
+    // reuse it instead of looking up the track and its artwork again
+    private boolean mTrackInfoValid;
+    private CharSequence mErrorState;
+    private CharSequence mArtistName;
+    private CharSequence mAlbumName;
+    private CharSequence mTrackName;
+    private Uri mArtworkUri;
+    private boolean mPlaying;
+    private int mRepeatMode;
+    private int mShuffleMode;
+
+    // created once and reused for every update
+    private PendingIntent mPlayerIntent;
+    private PendingIntent mBrowserIntent;
+    private PendingIntent mTogglePauseIntent;
+    private PendingIntent mNextIntent;
+    private PendingIntent mPrevIntent;
+    private PendingIntent mCycleRepeatIntent;
+    private PendingIntent mToggleShuffleIntent;
+
     static synchronized MediaAppWidgetProvider4x2 getInstance() {
         if (sInstance == null) {
             sInstance = new MediaAppWidgetProvider4x2();
@@ -49,6 +73,7 @@ public class MediaAppWidgetProvider4x2 extends AppWidgetProvider {
 
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        sAppWidgetIds = null;
         defaultAppWidget(context, appWidgetIds);
 
         // Send broadcast intent to any running MediaPlaybackService so it can
@@ -61,6 +86,16 @@ public class MediaAppWidgetProvider4x2 extends AppWidgetProvider {
         context.sendBroadcast(updateIntent);
     }
     
+    @Override
+    public void onDeleted(Context context, int[] appWidgetIds) {
+        sAppWidgetIds = null;
+    }
+
+    @Override
+    public void onDisabled(Context context) {
+        sAppWidgetIds = null;
+    }
+
     /**
      * Initialize given widgets to default state, where we launch Music on default click
      * and hide actions if service not running.
@@ -92,24 +127,26 @@ public class MediaAppWidgetProvider4x2 extends AppWidgetProvider {
     /**
      * Check against {@link AppWidgetManager} if there are any instances of this widget.
      */
-    private boolean hasInstances(Context context) {
-        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
-        int[] appWidgetIds = appWidgetManager.getAppWidgetIds(
-                new ComponentName(context, this.getClass()));
+    boolean hasInstances(Context context) {
+        int[] appWidgetIds = sAppWidgetIds;
+        if (appWidgetIds == null) {
+            AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+            appWidgetIds = appWidgetManager.getAppWidgetIds(
+                    new ComponentName(context, this.getClass()));
+            sAppWidgetIds = appWidgetIds;
+        }
         return (appWidgetIds.length > 0);
     }
 
     /**
      * Handle a change notification coming over from {@link MediaPlaybackService}
+     * @param flags the {@link ChangeNotifier} flags of what changed
      */
-    void notifyChange(MediaPlaybackService service, String what) {
-        if (hasInstances(service)) {
-            if (MediaPlaybackService.META_CHANGED.equals(what) ||
-                    MediaPlaybackService.PLAYSTATE_CHANGED.equals(what) ||
-                    MediaPlaybackService.REPEATMODE_CHANGED.equals(what) ||
-                    MediaPlaybackService.SHUFFLEMODE_CHANGED.equals(what)) {
-                performUpdate(service, null);
-            }
+    void notifyChange(MediaPlaybackService service, int flags) {
+        if ((flags & (ChangeNotifier.META | ChangeNotifier.PLAYSTATE |
+                ChangeNotifier.REPEATMODE | ChangeNotifier.SHUFFLEMODE)) != 0
+                && hasInstances(service)) {
+            update(service, null, (flags & ChangeNotifier.META) != 0);
         }
     }
 
@@ -117,59 +154,90 @@ public class MediaAppWidgetProvider4x2 extends AppWidgetProvider {
      * Update all active widget instances by pushing changes 
      */
     void performUpdate(MediaPlaybackService service, int[] appWidgetIds) {
-        final Resources res = service.getResources();
-        final RemoteViews views = new RemoteViews(service.getPackageName(), R.layout.album_appwidget4x2);
+        update(service, appWidgetIds, true);
+    }
 
-        CharSequence artistName = service.getArtistName();
-        CharSequence albumName = service.getAlbumName();
-        CharSequence trackName = service.getTrackName();
+    /**
+     * Looks up the track info and artwork, which only needs to be done
+     * when the track changed.
+     */
+    private void loadTrackInfo(MediaPlaybackService service) {
+        final Resources res = service.getResources();
+        mArtistName = service.getArtistName();
+        mAlbumName = service.getAlbumName();
+        mTrackName = service.getTrackName();
         long albumId = service.getAlbumId();
         long songId = service.getAudioId();
-        CharSequence errorState = null;
+        mErrorState = null;
+        mArtworkUri = null;
 
         // Format title string with track number, or show SD card message
         String status = Environment.getExternalStorageState();
         if (status.equals(Environment.MEDIA_SHARED) ||
                 status.equals(Environment.MEDIA_UNMOUNTED)) {
             if (android.os.Environment.isExternalStorageRemovable()) {
-                errorState = res.getText(R.string.sdcard_busy_title);
+                mErrorState = res.getText(R.string.sdcard_busy_title);
             } else {
-                errorState = res.getText(R.string.sdcard_busy_title_nosdcard);
+                mErrorState = res.getText(R.string.sdcard_busy_title_nosdcard);
             }
         } else if (status.equals(Environment.MEDIA_REMOVED)) {
             if (android.os.Environment.isExternalStorageRemovable()) {
-                errorState = res.getText(R.string.sdcard_missing_title);
+                mErrorState = res.getText(R.string.sdcard_missing_title);
             } else {
-                errorState = res.getText(R.string.sdcard_missing_title_nosdcard);
+                mErrorState = res.getText(R.string.sdcard_missing_title_nosdcard);
             }
-        } else if (trackName == null) {
-            errorState = res.getText(R.string.emptyplaylist);
+        } else if (mTrackName == null) {
+            mErrorState = res.getText(R.string.emptyplaylist);
+        } else {
+            mArtworkUri = service.getWidgetArtUri(songId, albumId);
+        }
+        mTrackInfoValid = true;
+    }
+
+    /**
+     * Pushes the current state to the widgets. The platform replaces the
+     * widget's views wholesale with what it is sent, so the views are always
+     * complete, but the track info is only looked up again if it changed.
+     */
+    private void update(MediaPlaybackService service, int[] appWidgetIds, boolean metaChanged) {
+        final boolean playing = service.isPlaying();
+        final int repeatMode = service.getRepeatMode();
+        final int shuffleMode = service.getShuffleMode();
+        if (appWidgetIds == null && !metaChanged && mTrackInfoValid && playing == mPlaying
+                && repeatMode == mRepeatMode && shuffleMode == mShuffleMode) {
+            // nothing the widget shows has changed
+            return;
+        }
+        mPlaying = playing;
+        mRepeatMode = repeatMode;
+        mShuffleMode = shuffleMode;
+        if (metaChanged || !mTrackInfoValid) {
+            loadTrackInfo(service);
         }
 
-        if (errorState != null) {
+        final RemoteViews views = new RemoteViews(service.getPackageName(), R.layout.album_appwidget4x2);
+        if (mErrorState != null) {
             // Show error state to user
             views.setViewVisibility(R.id.albumname, View.GONE);
             views.setViewVisibility(R.id.trackname, View.GONE);
-            views.setTextViewText(R.id.artistname, errorState);
+            views.setTextViewText(R.id.artistname, mErrorState);
             views.setImageViewResource(R.id.albumart, R.drawable.albumart_mp_unknown);
         } else {
             // No error, so show normal titles and artwork
             views.setViewVisibility(R.id.albumname, View.VISIBLE);
             views.setViewVisibility(R.id.trackname, View.VISIBLE);
-            views.setTextViewText(R.id.artistname, artistName);
-            views.setTextViewText(R.id.albumname, albumName);
-            views.setTextViewText(R.id.trackname, trackName);
+            views.setTextViewText(R.id.artistname, mArtistName);
+            views.setTextViewText(R.id.albumname, mAlbumName);
+            views.setTextViewText(R.id.trackname, mTrackName);
             // Set album art
-            Uri uri = MusicUtils.getArtworkUri(service, songId, albumId);
-            if (uri != null) {
-                views.setImageViewUri(R.id.albumart, uri);
+            if (mArtworkUri != null) {
+                views.setImageViewUri(R.id.albumart, mArtworkUri);
             } else {
                 views.setImageViewResource(R.id.albumart, R.drawable.albumart_mp_unknown);
-            }            
+            }
         }
 
         // Set correct drawable for pause state
-        final boolean playing = service.isPlaying();
         if (playing) {
             views.setImageViewResource(R.id.control_play, R.drawable.btn_playback_ic_pause);
         } else {
@@ -177,7 +245,7 @@ public class MediaAppWidgetProvider4x2 extends AppWidgetProvider {
         }
 
         //Set correct drawable for repeat state
-        switch (service.getRepeatMode()) {
+        switch (repeatMode) {
             case MediaPlaybackService.REPEAT_ALL:
                 views.setImageViewResource(R.id.control_repeat, R.drawable.ic_mp_repeat_all_btn);
                 break;
@@ -190,7 +258,7 @@ public class MediaAppWidgetProvider4x2 extends AppWidgetProvider {
         }
 
         //Set correct drawable for shuffle state
-        switch (service.getShuffleMode()) {
+        switch (shuffleMode) {
             case MediaPlaybackService.SHUFFLE_NONE:
                 views.setImageViewResource(R.id.control_shuffle, R.drawable.ic_mp_shuffle_off_btn);
                 break;
@@ -229,53 +297,47 @@ public class MediaAppWidgetProvider4x2 extends AppWidgetProvider {
      */
     private void linkButtons(Context context, RemoteViews views, boolean playerActive) {
         // Connect up various buttons and touch events
-        Intent intent;
         PendingIntent pendingIntent;
 
-        final ComponentName serviceName = new ComponentName(context, MediaPlaybackService.class);
-
         if (playerActive) {
-            intent = new Intent(context, MediaPlaybackActivity.class);
-            pendingIntent = PendingIntent.getActivity(context,
-                    0 /* no requestCode */, intent, 0 /* no flags */);
-            views.setOnClickPendingIntent(R.id.albumart, pendingIntent);
-            views.setOnClickPendingIntent(R.id.info, pendingIntent);
+            if (mPlayerIntent == null) {
+                Intent intent = new Intent(context, MediaPlaybackActivity.class);
+                mPlayerIntent = PendingIntent.getActivity(context,
+                        0 /* no requestCode */, intent, 0 /* no flags */);
+            }
+            pendingIntent = mPlayerIntent;
         } else {
-            intent = new Intent(context, MusicBrowserActivity.class);
-            pendingIntent = PendingIntent.getActivity(context,
-                    0 /* no requestCode */, intent, 0 /* no flags */);
-            views.setOnClickPendingIntent(R.id.albumart, pendingIntent);
-            views.setOnClickPendingIntent(R.id.info, pendingIntent);
+            if (mBrowserIntent == null) {
+                Intent intent = new Intent(context, MusicBrowserActivity.class);
+                mBrowserIntent = PendingIntent.getActivity(context,
+                        0 /* no requestCode */, intent, 0 /* no flags */);
+            }
+            pendingIntent = mBrowserIntent;
         }
+        views.setOnClickPendingIntent(R.id.albumart, pendingIntent);
+        views.setOnClickPendingIntent(R.id.info, pendingIntent);
 
-        intent = new Intent(MediaPlaybackService.TOGGLEPAUSE_ACTION);
-        intent.setComponent(serviceName);
-        pendingIntent = PendingIntent.getService(context,
-                0 /* no requestCode */, intent, 0 /* no flags */);
-        views.setOnClickPendingIntent(R.id.control_play, pendingIntent);
-
-        intent = new Intent(MediaPlaybackService.NEXT_ACTION);
-        intent.setComponent(serviceName);
-        pendingIntent = PendingIntent.getService(context,
-                0 /* no requestCode */, intent, 0 /* no flags */);
-        views.setOnClickPendingIntent(R.id.control_next, pendingIntent);
-
-        intent = new Intent(MediaPlaybackService.PREVIOUS_ACTION);
-        intent.setComponent(serviceName);
-        pendingIntent = PendingIntent.getService(context,
-                0 /* no requestCode */, intent, 0 /* no flags */);
-        views.setOnClickPendingIntent(R.id.control_prev, pendingIntent);
+        if (mTogglePauseIntent == null) {
+            mTogglePauseIntent = getServiceIntent(context, MediaPlaybackService.TOGGLEPAUSE_ACTION);
+            mNextIntent = getServiceIntent(context, MediaPlaybackService.NEXT_ACTION);
+        }
+        views.setOnClickPendingIntent(R.id.control_play, mTogglePauseIntent);
+        views.setOnClickPendingIntent(R.id.control_next, mNextIntent);
 
-        intent = new Intent(MediaPlaybackService.CYCLEREPEAT_ACTION);
-        intent.setComponent(serviceName);
-        pendingIntent = PendingIntent.getService(context,
-                0 /* no requestCode */, intent, 0 /* no flags */);
-        views.setOnClickPendingIntent(R.id.control_repeat, pendingIntent);
+        if (mPrevIntent == null) {
+            mPrevIntent = getServiceIntent(context, MediaPlaybackService.PREVIOUS_ACTION);
+            mCycleRepeatIntent = getServiceIntent(context, MediaPlaybackService.CYCLEREPEAT_ACTION);
+            mToggleShuffleIntent = getServiceIntent(context, MediaPlaybackService.TOGGLESHUFFLE_ACTION);
+        }
+        views.setOnClickPendingIntent(R.id.control_prev, mPrevIntent);
+        views.setOnClickPendingIntent(R.id.control_repeat, mCycleRepeatIntent);
+        views.setOnClickPendingIntent(R.id.control_shuffle, mToggleShuffleIntent);
+    }
 
-        intent = new Intent(MediaPlaybackService.TOGGLESHUFFLE_ACTION);
-        intent.setComponent(serviceName);
-        pendingIntent = PendingIntent.getService(context,
+    private static PendingIntent getServiceIntent(Context context, String action) {
+        Intent intent = new Intent(action);
+        intent.setComponent(new ComponentName(context, MediaPlaybackService.class));
+        return PendingIntent.getService(context,
                 0 /* no requestCode */, intent, 0 /* no flags */);
-        views.setOnClickPendingIntent(R.id.control_shuffle, pendingIntent);
     }
 }
@@ -16,7 +16,6 @@
 
 package com.android.music;
 
-import java.util.ArrayList;
 import com.android.music.MusicUtils.ServiceToken;
 
 import android.app.Activity;
@@ -35,11 +34,8 @@ import android.content.SharedPreferences;
 import android.content.res.Configuration;
 import android.database.Cursor;
 import android.gesture.Gesture;
-import android.gesture.GestureLibraries;
-import android.gesture.GestureLibrary;
 import android.gesture.GestureOverlayView;
 import android.gesture.GestureOverlayView.OnGesturePerformedListener;
-import android.gesture.Prediction;
 import android.graphics.Bitmap;
 import android.media.audiofx.AudioEffect;
 import android.media.AudioManager;
@@ -50,6 +46,7 @@ import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.Vibrator;
 import android.provider.MediaStore;
 import android.text.Layout;
@@ -93,7 +90,6 @@ public class MediaPlaybackActivity extends Activity implements MusicUtils.Defs,
     private ServiceToken mToken;
     private boolean mIntentDeRegistered = false;
     private GestureOverlayView mGestureOverlayView;
-    private GestureLibrary mGestureLibrary;
     private SharedPreferences mPreferences;
     private Vibrator mVibrator;
 
@@ -114,11 +110,13 @@ public class MediaPlaybackActivity extends Activity implements MusicUtils.Defs,
     }
 
     private void configureActivity() {
-        mAlbumArtWorker = new Worker("album art worker");
-        mAlbumArtHandler = new AlbumArtHandler(mAlbumArtWorker.getLooper());
+        if (mAlbumArtWorker == null) {
+            mAlbumArtWorker = new Worker("album art worker");
+            mAlbumArtHandler = new AlbumArtHandler(mAlbumArtWorker.getLooper());
+        }
 
         if (mPreferences.getBoolean(MusicSettingsActivity.KEY_ENABLE_GESTURES, false)) {
-            loadGestureLibrary();
+            GestureEngine.getInstance(this).preload();
             mGestureOverlayView = new GestureOverlayView(this);
             View inflate = getLayoutInflater().inflate(R.layout.audio_player, null);
             mGestureOverlayView.addView(inflate);
@@ -173,18 +171,6 @@ public class MediaPlaybackActivity extends Activity implements MusicUtils.Defs,
         mProgress.setMax(1000);
     }
 
-    private void loadGestureLibrary() {
-        if (mPreferences.getBoolean(MusicSettingsActivity.KEY_HAS_CUSTOM_GESTURES, false)) {
-            String fileName = EditGesturesActivity.LIBRARY_FILENAME;
-            mGestureLibrary = GestureLibraries.fromPrivateFile(this, fileName);
-        } else {
-            mGestureLibrary = GestureLibraries.fromRawResource(this, R.raw.gestures);
-        }
-        if (!mGestureLibrary.load()) {
-            finish();
-        }
-    }
-
     int mInitialX = -1;
     int mLastX = -1;
     int mTextWidth = 0;
@@ -410,7 +396,8 @@ public class MediaPlaybackActivity extends Activity implements MusicUtils.Defs,
             if (!fromuser || (mService == null)) return;
             mPosOverride = mDuration * progress / 1000;
             try {
-                mService.seek(mPosOverride);
+                long pos = mService.seek(mPosOverride);
+                setAnchor(pos, SystemClock.elapsedRealtime(), mAnchorPlaying);
             } catch (RemoteException ex) {
             }
 
@@ -496,13 +483,15 @@ public class MediaPlaybackActivity extends Activity implements MusicUtils.Defs,
     }
 
     public void onGesturePerformed(GestureOverlayView overlay, Gesture gesture) {
-        ArrayList<Prediction> predictions = mGestureLibrary.recognize(gesture);
-        //for (Prediction prediction : predictions) {
-        //    Log.d("Music","Gesture prediction: " + prediction.name + " score: " + prediction.score);
-        //}
-        Prediction bestPrediction = predictions.get(0);
-        if (bestPrediction.score > 2.0) {
-            switch (GestureAction.toGestureAction(bestPrediction.name)) {
+        GestureEngine.getInstance(this).recognize(gesture, mGestureCallback);
+    }
+
+    private GestureEngine.Callback mGestureCallback = new GestureEngine.Callback() {
+        public void onGestureRecognized(String name) {
+            if (isFinishing()) {
+                return;
+            }
+            switch (GestureAction.toGestureAction(name)) {
             case PAUSE:
                 doPauseResume();
                 break;
@@ -519,14 +508,14 @@ public class MediaPlaybackActivity extends Activity implements MusicUtils.Defs,
                 cycleRepeat();
                 break;
             case INVALID:
-                Log.e("MediaPlaybackActivity","Invalid gesture name: " + bestPrediction.name);
+                Log.e("MediaPlaybackActivity","Invalid gesture name: " + name);
                 break;
             }
             if (mPreferences.getBoolean(MusicSettingsActivity.KEY_ENABLE_HAPTIC_FEEDBACK, false)) {
                 mVibrator.vibrate(100);
             }
         }
-    }
+    };
 
     @Override
     public void onStop() {
@@ -539,7 +528,6 @@ public class MediaPlaybackActivity extends Activity implements MusicUtils.Defs,
 
         IntentFilter g = new IntentFilter();
         g.addAction(MusicSettingsActivity.ACTION_ENABLE_GESTURES_CHANGED);
-        g.addAction(MusicSettingsActivity.ACTION_GESTURES_CHANGED);
         registerReceiver(mGestureStatusListener, new IntentFilter(g));
 
         MusicUtils.unbindFromService(mToken);
@@ -566,6 +554,7 @@ public class MediaPlaybackActivity extends Activity implements MusicUtils.Defs,
         IntentFilter f = new IntentFilter();
         f.addAction(MediaPlaybackService.PLAYSTATE_CHANGED);
         f.addAction(MediaPlaybackService.META_CHANGED);
+        f.addAction(MediaPlaybackService.POSITION_CHANGED);
         registerReceiver(mStatusListener, new IntentFilter(f));
 
         IntentFilter s = new IntentFilter();
@@ -1281,6 +1270,12 @@ public class MediaPlaybackActivity extends Activity implements MusicUtils.Defs,
     private long mDuration;
     private int seekmethod;
     private boolean paused;
+    // last known position, and when and in which play state it was taken
+    private long mAnchorPos = -1;
+    private long mAnchorTime;
+    private boolean mAnchorPlaying;
+    private final char [] mTimeBuffer = new char[24];
+    private long mShownSecs = -1;
 
     private static final int REFRESH = 1;
     private static final int QUIT = 2;
@@ -1295,41 +1290,72 @@ public class MediaPlaybackActivity extends Activity implements MusicUtils.Defs,
         }
     }
 
+    /**
+     * Remembers where playback was at a given time, so the current position
+     * can be worked out without asking the service. Anchors older than the
+     * current one are ignored, since sticky broadcasts for different actions
+     * can arrive in any order.
+     */
+    private void setAnchor(long pos, long time, boolean playing) {
+        if (time < mAnchorTime) {
+            return;
+        }
+        mAnchorPos = pos;
+        mAnchorTime = time;
+        mAnchorPlaying = playing;
+    }
+
+    private long currentPosition() {
+        if (mAnchorPos < 0) {
+            return -1;
+        }
+        long pos = mAnchorPos;
+        if (mAnchorPlaying) {
+            pos += SystemClock.elapsedRealtime() - mAnchorTime;
+            if (mDuration > 0 && pos > mDuration) {
+                pos = mDuration;
+            }
+        }
+        return pos;
+    }
+
     private long refreshNow() {
         if(mService == null)
             return 500;
-        try {
-            long pos = mPosOverride < 0 ? mService.position() : mPosOverride;
-            long remaining = 1000 - (pos % 1000);
-            if ((pos >= 0) && (mDuration > 0)) {
-                mCurrentTime.setText(MusicUtils.makeTimeString(this, pos / 1000));
+        long pos = mPosOverride < 0 ? currentPosition() : mPosOverride;
+        long remaining = 1000 - (pos % 1000);
+        if ((pos >= 0) && (mDuration > 0)) {
+            long secs = pos / 1000;
+            if (secs != mShownSecs) {
+                int len = MusicUtils.formatTime(mTimeBuffer, secs);
+                mCurrentTime.setText(mTimeBuffer, 0, len);
+                mShownSecs = secs;
+            }
 
-                if (mService.isPlaying()) {
+            if (mAnchorPlaying) {
+                mCurrentTime.setVisibility(View.VISIBLE);
+            } else {
+                // blink the counter
+                // If the progress bar is still been dragged, then we do not want to blink the
+                // currentTime. It would cause flickering due to change in the visibility.
+                if (mFromTouch) {
                     mCurrentTime.setVisibility(View.VISIBLE);
                 } else {
-                    // blink the counter
-                    // If the progress bar is still been dragged, then we do not want to blink the
-                    // currentTime. It would cause flickering due to change in the visibility.
-                    if (mFromTouch) {
-                        mCurrentTime.setVisibility(View.VISIBLE);
-                    } else {
-                        int vis = mCurrentTime.getVisibility();
-                        mCurrentTime.setVisibility(vis == View.INVISIBLE ? View.VISIBLE : View.INVISIBLE);
-                    }
-                    remaining = 500;
+                    int vis = mCurrentTime.getVisibility();
+                    mCurrentTime.setVisibility(vis == View.INVISIBLE ? View.VISIBLE : View.INVISIBLE);
                 }
-
-                mProgress.setProgress((int) (1000 * pos / mDuration));
-            } else {
-                mCurrentTime.setText("--:--");
-                mProgress.setProgress(1000);
+                remaining = 500;
             }
-            // return the number of milliseconds until the next full second, so
-            // the counter can be updated at just the right time
-            return remaining;
-        } catch (RemoteException ex) {
+
+            mProgress.setProgress((int) (1000 * pos / mDuration));
+        } else {
+            mCurrentTime.setText("--:--");
+            mShownSecs = -1;
+            mProgress.setProgress(1000);
         }
-        return 500;
+        // return the number of milliseconds until the next full second, so
+        // the counter can be updated at just the right time
+        return remaining;
     }
     
     private final Handler mHandler = new Handler() {
@@ -1372,6 +1398,9 @@ public class MediaPlaybackActivity extends Activity implements MusicUtils.Defs,
         @Override
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
+            setAnchor(intent.getLongExtra("position", -1),
+                    intent.getLongExtra("positiontime", 0),
+                    intent.getBooleanExtra("playing", false));
             if (action.equals(MediaPlaybackService.META_CHANGED)) {
                 // redraw the artist/title info and
                 // set new max for progress bar
@@ -1380,6 +1409,9 @@ public class MediaPlaybackActivity extends Activity implements MusicUtils.Defs,
                 queueNextRefresh(1);
             } else if (action.equals(MediaPlaybackService.PLAYSTATE_CHANGED)) {
                 setPauseButtonImage();
+                queueNextRefresh(1);
+            } else if (action.equals(MediaPlaybackService.POSITION_CHANGED)) {
+                queueNextRefresh(1);
             }
         }
     };
@@ -1411,11 +1443,7 @@ public class MediaPlaybackActivity extends Activity implements MusicUtils.Defs,
         public void onReceive(Context context, Intent intent) {
             if (MusicSettingsActivity.ACTION_ENABLE_GESTURES_CHANGED.
                     equals(intent.getAction())) {
-                mAlbumArtWorker.quit();
                 configureActivity();
-            } else if (MusicSettingsActivity.ACTION_GESTURES_CHANGED.
-                    equals(intent.getAction())) {
-                loadGestureLibrary();
             }
         }
     };
@@ -1472,6 +1500,7 @@ public class MediaPlaybackActivity extends Activity implements MusicUtils.Defs,
             }
             mDuration = mService.duration();
             mTotalTime.setText(MusicUtils.makeTimeString(this, mDuration / 1000));
+            setAnchor(mService.position(), SystemClock.elapsedRealtime(), mService.isPlaying());
         } catch (RemoteException ex) {
             finish();
         }
@@ -1493,11 +1522,13 @@ public class MediaPlaybackActivity extends Activity implements MusicUtils.Defs,
                 Message numsg = mHandler.obtainMessage(ALBUM_ART_DECODED, null);
                 mHandler.removeMessages(ALBUM_ART_DECODED);
                 mHandler.sendMessageDelayed(numsg, 300);
+                long start = Metrics.start();
                 Bitmap bm = MusicUtils.getArtwork(MediaPlaybackActivity.this, songid, albumid);
                 if (bm == null) {
                     bm = MusicUtils.getArtwork(MediaPlaybackActivity.this, songid, -1);
                     albumid = -1;
                 }
+                Metrics.ART_DECODE.recordSince(start);
                 if (bm != null) {
                     numsg = mHandler.obtainMessage(ALBUM_ART_DECODED, bm);
                     mHandler.removeMessages(ALBUM_ART_DECODED);
@@ -1507,47 +1538,4 @@ public class MediaPlaybackActivity extends Activity implements MusicUtils.Defs,
             }
         }
     }
-    
-    private static class Worker implements Runnable {
-        private final Object mLock = new Object();
-        private Looper mLooper;
-        
-        /**
-         * Creates a worker thread with the given name. The thread
-         * then runs a {@link android.os.Looper}.
-         * @param name A name for the new thread
-         */
-        Worker(String name) {
-            Thread t = new Thread(null, this, name);
-            t.setPriority(Thread.MIN_PRIORITY);
-            t.start();
-            synchronized (mLock) {
-                while (mLooper == null) {
-                    try {
-                        mLock.wait();
-                    } catch (InterruptedException ex) {
-                    }
-                }
-            }
-        }
-        
-        public Looper getLooper() {
-            return mLooper;
-        }
-        
-        public void run() {
-            synchronized (mLock) {
-                Looper.prepare();
-                mLooper = Looper.myLooper();
-                mLock.notifyAll();
-            }
-            Looper.loop();
-        }
-        
-        public void quit() {
-            mLooper.quit();
-        }
-
-    }
 }
-
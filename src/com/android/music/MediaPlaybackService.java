@@ -22,21 +22,14 @@ import android.app.Service;
 import android.appwidget.AppWidgetManager;
 import android.content.ComponentName;
 import android.content.ContentResolver;
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.BroadcastReceiver;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
+import android.database.ContentObserver;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteException;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
-import android.preference.PreferenceManager;
 import android.media.audiofx.AudioEffect;
 import android.media.AudioManager;
 import android.media.AudioManager.OnAudioFocusChangeListener;
@@ -44,13 +37,12 @@ import android.media.MediaPlayer;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.Message;
 import android.os.PowerManager;
 import android.os.SystemClock;
 import android.os.PowerManager.WakeLock;
-import android.provider.BaseColumns;
 import android.provider.MediaStore;
-import android.provider.MediaStore.Audio.AudioColumns;
 import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
 import android.util.Log;
@@ -63,7 +55,7 @@ import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
-import java.util.Random;
+import java.util.Arrays;
 import java.util.Vector;
 
 import android.provider.Settings;
@@ -72,8 +64,7 @@ import android.provider.Settings;
  * Provides "background" audio playback capabilities, allowing the
  * user to switch between activities without stopping playback.
  */
-public class MediaPlaybackService extends Service implements
-		SensorEventListener, Shaker.Callback {
+public class MediaPlaybackService extends Service {
     /** used to specify whether enqueue() should start playing
      * the new list of files right away, next or once all the currently
      * queued files have been played
@@ -96,6 +87,7 @@ public class MediaPlaybackService extends Service implements
     public static final String QUEUE_CHANGED = "com.android.music.queuechanged";
     public static final String REPEATMODE_CHANGED = "com.android.music.repeatmodechanged";
     public static final String SHUFFLEMODE_CHANGED = "com.android.music.shufflemodechanged";
+    public static final String POSITION_CHANGED = "com.android.music.positionchanged";
 
     public static final String ALARM_ALERT_ACTION = "com.android.deskclock.ALARM_ALERT";
     public static final String ALARM_DONE_ACTION = "com.android.deskclock.ALARM_DONE";
@@ -118,22 +110,30 @@ public class MediaPlaybackService extends Service implements
     public static final String CYCLEREPEAT_ACTION = "com.android.music.musicservicecommand.cyclerepeat";
     public static final String TOGGLESHUFFLE_ACTION = "com.android.music.musicservicecommand.toggleshuffle";
     private static final String PLAYSTATUS_REQUEST = "com.android.music.playstatusrequest";
-    private static final String PLAYSTATUS_RESPONSE = "com.android.music.playstatusresponse";
+    static final String PLAYSTATUS_RESPONSE = "com.android.music.playstatusresponse";
 
     private static final int MAX_HISTORY_SIZE = 100;
 
+    // how long to wait for the media provider to find the saved track
+    private static final long RESTORE_TIMEOUT = 10000; // ms
+    private static final long RESTORE_RETRY_DELAY = 500; // ms
+
     private static final float VOLUME_FULL = 1.0f;
     private static final float VOLUME_MUTE = 0.1f;
 
+    // for a fade over the whole way between VOLUME_MUTE and VOLUME_FULL
     private static final int FADE_UP_DURATION = 300; // ms
     private static final int FADE_DOWN_DURATION = 150; // ms
-    private static final int FADE_STEP_DURATION = 10; // ms
-
-    // TODO: make this logarithmic somehow.
-    private static final float VOLUME_DOWN = (VOLUME_FULL - VOLUME_MUTE) * FADE_STEP_DURATION / FADE_DOWN_DURATION;
-    private static final float VOLUME_UP = (VOLUME_FULL - VOLUME_MUTE) * FADE_STEP_DURATION / FADE_UP_DURATION;
-
-    private MultiPlayer mPlayer;
+    // the crossfade message may come this much late before it is rescheduled
+    private static final long CROSSFADE_SLOP = 250; // ms
+
+    // replaced by crossfade() under the lock, read without it; methods
+    // that don't hold the lock read it once into a local
+    private volatile MultiPlayer mPlayer;
+    // while crossfading, the player of the previous track, fading out
+    private MultiPlayer mOutgoingPlayer;
+    // a player that isn't in use, kept for the next crossfade
+    private MultiPlayer mSparePlayer;
     private String mFileToPlay;
     private int mShuffleMode = SHUFFLE_NONE;
     private int mRepeatMode = REPEAT_NONE;
@@ -143,7 +143,11 @@ public class MediaPlaybackService extends Service implements
     private int mPlayListLen = 0;
     private Vector<Integer> mHistory = new Vector<Integer>(MAX_HISTORY_SIZE);
     private Cursor mCursor;
-    private int mPlayPos = -1;
+    // written with the lock held, read without it by getQueuePosition()
+    private volatile int mPlayPos = -1;
+    // the current track as the getters see it, replaced whenever mCursor
+    // changes
+    private volatile TrackInfo mTrack = TrackInfo.NONE;
     private static final String LOGTAG = "MediaPlaybackService";
     private final Shuffler mRand = new Shuffler();
     private int mOpenFailedCounter = 0;
@@ -159,11 +163,56 @@ public class MediaPlaybackService extends Service implements
             MediaStore.Audio.Media.ARTIST_ID,
             MediaStore.Audio.Media.ALBUM_ARTIST_ID,
             MediaStore.Audio.Media.IS_PODCAST, // index must match PODCASTCOLIDX below
-            MediaStore.Audio.Media.BOOKMARK    // index must match BOOKMARKCOLIDX below
+            MediaStore.Audio.Media.BOOKMARK,   // index must match BOOKMARKCOLIDX below
+            MediaStore.Audio.Media.DURATION    // index must match DURATIONCOLIDX below
     };
     private final static int IDCOLIDX = 0;
     private final static int PODCASTCOLIDX = 10;
     private final static int BOOKMARKCOLIDX = 11;
+    private final static int DURATIONCOLIDX = 12;
+
+    /**
+     * The current track's metadata, copied out of mCursor. The getters
+     * read it without taking the service lock, which is held across
+     * provider queries and MediaPlayer.prepare() while changing tracks.
+     */
+    private static final class TrackInfo {
+        static final TrackInfo NONE = new TrackInfo();
+
+        final long mAudioId;
+        final String mArtistName;
+        final long mArtistId;
+        final String mAlbumartistName;
+        final long mAlbumartistId;
+        final String mAlbumName;
+        final long mAlbumId;
+        final String mTrackName;
+
+        private TrackInfo() {
+            mAudioId = -1;
+            mArtistName = null;
+            mArtistId = -1;
+            mAlbumartistName = null;
+            mAlbumartistId = -1;
+            mAlbumName = null;
+            mAlbumId = -1;
+            mTrackName = null;
+        }
+
+        TrackInfo(Cursor c) {
+            mAudioId = c.getLong(IDCOLIDX);
+            mArtistName = c.getString(c.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST));
+            mArtistId = c.getLong(c.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST_ID));
+            mAlbumartistName = c.getString(
+                    c.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ARTIST));
+            mAlbumartistId = c.getLong(
+                    c.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ARTIST_ID));
+            mAlbumName = c.getString(c.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM));
+            mAlbumId = c.getLong(c.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ID));
+            mTrackName = c.getString(c.getColumnIndexOrThrow(MediaStore.Audio.Media.TITLE));
+        }
+    }
+
     private BroadcastReceiver mUnmountReceiver = null;
     private BroadcastReceiver mA2dpReceiver = null;
     private WakeLock mWakeLock;
@@ -173,29 +222,25 @@ public class MediaPlaybackService extends Service implements
     private boolean mQuietMode = false;
     private AudioManager mAudioManager;
     private boolean mQueueIsSaveable = true;
+    // the restore of the saved queue that is in progress, if any
+    private volatile QueueRestorer mRestorer;
+    private volatile boolean mQueueChangedWhileRestoring;
+    private boolean mPlayWhenRestored;
+    // where to seek the restored track to when it is first prepared, or -1
+    // if it has been prepared already. Written with the lock held.
+    private volatile long mPendingSeek = -1;
     // used to track what type of audio focus loss caused the playback to pause
     private boolean mPausedByTransientLossOfFocus = false;
 
-	// Flip action
-	public static int ROLL_LOVER = -25;
-	public static int ROLL_UPER = 25;
-	public static int PITCH_LOVER = -160;
-	public static int PITCH_UPER = 160;
-	// Sensitivity
-	public static int FLIP_SENS = 0;
-	public static double SHAKE_SENS = 0d;
-	public static Shaker shaker;
-	public static String shake_actions_db;
 	private IMediaPlaybackService mService = null;
+	// Shake
+	private ShakeControl mShakeControl;
 	// Flip
-	private SensorManager sensorMan = null;
-	private float PITCH;
-	private float ROLL;
-	private boolean IsWorked = false;
+	private FlipControl mFlipControl;
 
     private boolean mPausedByIncomingAlarm = false;
-    // used to track current volume
-    private float mCurrentVolume = 1.0f;
+    private VolumeRamp mVolumeRamp;
+    private VolumeRamp mOutgoingRamp;
 
     private SharedPreferences mPreferences;
     // We use this to distinguish between different cards when saving/restoring playlists.
@@ -204,9 +249,20 @@ public class MediaPlaybackService extends Service implements
     
     private MediaAppWidgetProvider4x1 mAppWidgetProvider4x1 = MediaAppWidgetProvider4x1.getInstance();
     private MediaAppWidgetProvider4x2 mAppWidgetProvider4x2 = MediaAppWidgetProvider4x2.getInstance();
+    private ChangeNotifier mNotifier;
+    private WidgetArtCache mWidgetArtCache;
+    private BookmarkWriter mBookmarks;
+    // mapped by the restore worker, or on first use; see getResumeStore()
+    private volatile ResumeStore mResumeStore;
+    private final Object mResumeStoreLock = new Object();
     
     // interval after which we stop the service when idle
     private static final int IDLE_DELAY = 60000;
+    // interval at which the bookmark is saved while a podcast plays
+    private static final int BOOKMARK_CHECKPOINT_INTERVAL = 30000;
+    // tracks at least this long resume where they were left off, like
+    // podcasts do
+    private static final long RESUME_MIN_DURATION = 20 * 60 * 1000;
 
     private boolean mStartPlayback = false;
 
@@ -216,7 +272,6 @@ public class MediaPlaybackService extends Service implements
         private static final int MESSAGE_RELEASE_WAKELOCK = 2;
         private static final int MESSAGE_SERVER_DIED = 3;
         private static final int MESSAGE_FOCUSCHANGE = 4;
-        private static final int MESSAGE_FADE = 7;
         private static final int MESSAGE_STOP = 8;
         private static final int MESSAGE_PAUSE = 9;
         private static final int MESSAGE_NEXT = 10;
@@ -225,9 +280,10 @@ public class MediaPlaybackService extends Service implements
         private static final int MESSAGE_SEEK = 12;
         // seek to position stored in targetqueuepos
         private static final int MESSAGE_SET_QUEUEPOS = 13;
+        private static final int MESSAGE_CROSSFADE = 14;
+        private static final int MESSAGE_CROSSFADE_DONE = 15;
+        private static final int MESSAGE_BOOKMARK_CHECKPOINT = 16;
 
-        // used to store target volume when fading
-        private float mTargetVolume = mCurrentVolume;
         // used to store target pos when fade-seeking
         private long mTargetPos = 0;
         // used to store target queue pos when fade-seeking
@@ -235,12 +291,7 @@ public class MediaPlaybackService extends Service implements
 
         @Override
         public void handleMessage(Message msg) {
-            MusicUtils.debugLog("mMediaplayerHandler.handleMessage " + msg.what);
-            Message andThen = null;
-            if (msg.obj instanceof Message) {
-                andThen = (Message) msg.obj;
-            }
-            boolean sendQueuedMessage = true;
+            trace(EventTrace.HANDLER_MESSAGE, msg.what);
 
             switch (msg.what) {
                 case MESSAGE_PAUSE:
@@ -261,25 +312,17 @@ public class MediaPlaybackService extends Service implements
                 case MESSAGE_SET_QUEUEPOS:
                     setQueuePosition(mTargetQueuePos);
                     break;
-                case MESSAGE_FADE:
-                    final float targetVolume = mTargetVolume;
-                    float currentVolume = mCurrentVolume;
-                    float newVolume;
-                    if (targetVolume > currentVolume) {
-                        newVolume = currentVolume + VOLUME_UP;
-                        if (newVolume > targetVolume)
-                            newVolume = targetVolume;
-                    }
-                    else { // targetVolume <= currentVolume;
-                        newVolume = currentVolume - VOLUME_DOWN;
-                        if (newVolume < targetVolume)
-                            newVolume = targetVolume;
-                    }
-                    mCurrentVolume = newVolume;
-                    mPlayer.setVolume(newVolume);
-                    if (newVolume != targetVolume) {
-                        sendMessageDelayed(obtainMessage(MESSAGE_FADE, msg.obj), 10);
-                        sendQueuedMessage = false;
+                case MESSAGE_CROSSFADE:
+                    crossfade();
+                    break;
+                case MESSAGE_CROSSFADE_DONE:
+                    finishCrossfade();
+                    break;
+                case MESSAGE_BOOKMARK_CHECKPOINT:
+                    if (isPlaying()) {
+                        saveBookmarkIfNeeded();
+                        mBookmarks.flush();
+                        scheduleBookmarkCheckpoint();
                     }
                     break;
                 case MESSAGE_SERVER_DIED:
@@ -326,7 +369,7 @@ public class MediaPlaybackService extends Service implements
                                     //Convert from decibels to volume level
                                     float duckVolume = (float) Math.pow(10.0, -focusLossAttenuation / 20.0);
                                     Log.v(LOGTAG, "New attentuated volume: " + duckVolume);
-                                    mPlayer.setVolume(duckVolume);
+                                    mVolumeRamp.set(duckVolume);
                                 } else {
                                     mPausedByTransientLossOfFocus = true;
                                     pause(); // don't move pause out because we have ducking
@@ -361,10 +404,6 @@ public class MediaPlaybackService extends Service implements
                 default:
                     break;
             }
-
-            if (sendQueuedMessage && andThen != null) {
-                sendMessage(andThen);
-            }
         }
     }
 
@@ -375,7 +414,7 @@ public class MediaPlaybackService extends Service implements
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
             String cmd = intent.getStringExtra("command");
-            MusicUtils.debugLog("mIntentReceiver.onReceive " + action + " / " + cmd);
+            trace(EventTrace.RECEIVER_COMMAND, EventTrace.commandFor(action, cmd));
             if (CMDNEXT.equals(cmd) || NEXT_ACTION.equals(action)) {
                 fadeDownAndNext();
             } else if (CMDPREVIOUS.equals(cmd) || PREVIOUS_ACTION.equals(action)) {
@@ -456,28 +495,28 @@ public class MediaPlaybackService extends Service implements
 
     @Override
     public void onCreate() {
+        long start = Metrics.start();
         super.onCreate();
+        setUpNotifier();
+        mBookmarks = new BookmarkWriter(getContentResolver());
+        mWidgetArtCache = new WidgetArtCache(this, new WidgetArtCache.Listener() {
+            public void onArtworkReady() {
+                mAppWidgetProvider4x1.notifyChange(MediaPlaybackService.this, ChangeNotifier.META);
+                mAppWidgetProvider4x2.notifyChange(MediaPlaybackService.this, ChangeNotifier.META);
+            }
+        });
+
+		// Flip action; it only listens to the sensor while playing. The
+		// shake control is set up once the queue has been restored.
+		mFlipControl = new FlipControl(this, new FlipControl.Callback() {
+			public void onFlipPause() {
+				pause();
+			}
 
-		SharedPreferences mPrefs = PreferenceManager
-				.getDefaultSharedPreferences(this);
-
-		Double shakeChange = new Double(mPrefs.getInt(
-				MusicSettingsActivity.SHAKE_SENSITIVITY,
-				(int) (MusicSettingsActivity.DEFAULT_SHAKE_SENS)));
-
-		SHAKE_SENS = shakeChange;
-
-		if (SHAKE_SENS == 0) {
-			new Shaker(this, 1.25, 500, this);
-		} else {
-			new Shaker(this, SHAKE_SENS + .25d, 500, this);
-		}
-
-		// Flip action
-		sensorMan = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
-		sensorMan.registerListener(this,
-				sensorMan.getDefaultSensor(Sensor.TYPE_ORIENTATION),
-				SensorManager.SENSOR_DELAY_UI);
+			public void onFlipResume() {
+				play();
+			}
+		});
 
         mAudioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
         mAudioManager.registerMediaButtonEventReceiver(new ComponentName(getPackageName(),
@@ -492,8 +531,20 @@ public class MediaPlaybackService extends Service implements
         // Needs to be done in this thread, since otherwise ApplicationContext.getPowerManager() crashes.
         mPlayer = new MultiPlayer();
         mPlayer.setHandler(mMediaplayerHandler);
+        mVolumeRamp = new VolumeRamp(mMediaplayerHandler, new VolumeRamp.Target() {
+            public void setVolume(float volume) {
+                mPlayer.setVolume(volume);
+            }
+        }, VOLUME_FULL);
+        mOutgoingRamp = new VolumeRamp(mMediaplayerHandler, new VolumeRamp.Target() {
+            public void setVolume(float volume) {
+                if (mOutgoingPlayer != null) {
+                    mOutgoingPlayer.setVolume(volume);
+                }
+            }
+        }, VOLUME_FULL);
 
-        reloadQueue();
+        restoreQueue();
 
         IntentFilter commandFilter = new IntentFilter();
         commandFilter.addAction(SERVICECMD);
@@ -517,11 +568,23 @@ public class MediaPlaybackService extends Service implements
         // system will relaunch it. Make sure it gets stopped again in that case.
         Message msg = mDelayedStopHandler.obtainMessage();
         mDelayedStopHandler.sendMessageDelayed(msg, IDLE_DELAY);
+        Metrics.SERVICE_CREATE.recordSince(start);
     }
 
     @Override
     public void onDestroy() {
-		sensorMan.unregisterListener(this);
+		mFlipControl.release();
+		if (mShakeControl != null) {
+			mShakeControl.release();
+		}
+        if (mRestorer != null) {
+            mRestorer.cancel();
+            mRestorer = null;
+        }
+        // send out whatever is still pending while the player is still around
+        mNotifier.flushNow();
+        saveBookmarkIfNeeded();
+        mBookmarks.quit();
         // Check that we're not being destroyed while something is still playing.
         if (isPlaying()) {
             Log.e(LOGTAG, "Service being destroyed while still playing.");
@@ -531,6 +594,11 @@ public class MediaPlaybackService extends Service implements
         i.putExtra(AudioEffect.EXTRA_AUDIO_SESSION, getAudioSessionId());
         i.putExtra(AudioEffect.EXTRA_PACKAGE_NAME, getPackageName());
         sendBroadcast(i);
+        finishCrossfade();
+        if (mSparePlayer != null) {
+            mSparePlayer.release();
+            mSparePlayer = null;
+        }
         mPlayer.release();
         mPlayer = null;
 
@@ -547,6 +615,7 @@ public class MediaPlaybackService extends Service implements
         if (mCursor != null) {
             mCursor.close();
             mCursor = null;
+            publishTrack();
         }
 
         unregisterReceiver(mIntentReceiver);
@@ -571,146 +640,342 @@ public class MediaPlaybackService extends Service implements
                 MusicSettingsActivity.DEFAULT_DUCK_ATTENUATION_DB));
     }
 
-    private final char hexdigits [] = new char [] {
-            '0', '1', '2', '3',
-            '4', '5', '6', '7',
-            '8', '9', 'a', 'b',
-            'c', 'd', 'e', 'f'
-    };
+    /**
+     * Returns how long consecutive tracks overlap, in milliseconds, or 0
+     * if crossfading is off.
+     */
+    private long getCrossfadeDuration() {
+        SharedPreferences prefs = getSharedPreferences(
+                MusicSettingsActivity.PREFERENCES_FILE, MODE_PRIVATE);
+        int seconds = Integer.valueOf(prefs.getString(
+                MusicSettingsActivity.KEY_CROSSFADE_SECONDS,
+                MusicSettingsActivity.DEFAULT_CROSSFADE_SECONDS));
+        return Math.max(0, Math.min(MusicSettingsActivity.MAX_CROSSFADE_SECONDS, seconds)) * 1000L;
+    }
 
     private void saveQueue(boolean full) {
         if (!mQueueIsSaveable) {
             return;
         }
 
+        long start = Metrics.start();
+        // Copy what is saved under the lock, since this runs on the main
+        // thread while binder calls change the queue, and encode it
+        // outside, so they don't wait for that.
+        long [] list = null;
+        Object [] history = null;
+        int pos;
+        long seekPos = -1;
+        int repeatMode;
+        int shuffleMode;
+        synchronized (this) {
+            if (full) {
+                list = Arrays.copyOf(mPlayList != null ? mPlayList : new long[0], mPlayListLen);
+                if (mShuffleMode != SHUFFLE_NONE) {
+                    history = mHistory.toArray();
+                }
+            }
+            pos = mPlayPos;
+            if (mPlayer.isInitialized() || mPendingSeek >= 0) {
+                seekPos = position();
+            }
+            repeatMode = mRepeatMode;
+            shuffleMode = mShuffleMode;
+        }
+
         Editor ed = mPreferences.edit();
-        //long start = System.currentTimeMillis();
         if (full) {
             StringBuilder q = new StringBuilder();
-            
-            // The current playlist is saved as a list of "reverse hexadecimal"
-            // numbers, which we can generate faster than normal decimal or
-            // hexadecimal numbers, which in turn allows us to save the playlist
-            // more often without worrying too much about performance.
+
             // (saving the full state takes about 40 ms under no-load conditions
             // on the phone)
-            int len = mPlayListLen;
-            for (int i = 0; i < len; i++) {
-                long n = mPlayList[i];
-                if (n < 0) {
-                    continue;
-                } else if (n == 0) {
-                    q.append("0;");
-                } else {
-                    while (n != 0) {
-                        int digit = (int)(n & 0xf);
-                        n >>>= 4;
-                        q.append(hexdigits[digit]);
-                    }
-                    q.append(";");
-                }
+            for (int i = 0; i < list.length; i++) {
+                QueueCodec.append(q, list[i]);
             }
-            //Log.i("@@@@ service", "created queue string in " + (System.currentTimeMillis() - start) + " ms");
             ed.putString("queue", q.toString());
             ed.putInt("cardid", mCardId);
-            if (mShuffleMode != SHUFFLE_NONE) {
+            if (history != null) {
                 // In shuffle mode we need to save the history too
-                len = mHistory.size();
                 q.setLength(0);
-                for (int i = 0; i < len; i++) {
-                    int n = mHistory.get(i);
-                    if (n == 0) {
-                        q.append("0;");
-                    } else {
-                        while (n != 0) {
-                            int digit = (n & 0xf);
-                            n >>>= 4;
-                            q.append(hexdigits[digit]);
-                        }
-                        q.append(";");
-                    }
+                for (int i = 0; i < history.length; i++) {
+                    QueueCodec.append(q, (Integer) history[i]);
                 }
                 ed.putString("history", q.toString());
             }
         }
-        ed.putInt("curpos", mPlayPos);
-        if (mPlayer.isInitialized()) {
-            ed.putLong("seekpos", mPlayer.position());
+        ed.putInt("curpos", pos);
+        if (seekPos >= 0) {
+            ed.putLong("seekpos", seekPos);
         }
-        ed.putInt("repeatmode", mRepeatMode);
-        ed.putInt("shufflemode", mShuffleMode);
+        ed.putInt("repeatmode", repeatMode);
+        ed.putInt("shufflemode", shuffleMode);
         SharedPreferencesCompat.apply(ed);
-
-        //Log.i("@@@@ service", "saved state in " + (System.currentTimeMillis() - start) + " ms");
+        (full ? Metrics.SAVE_QUEUE_FULL : Metrics.SAVE_QUEUE).recordSince(start);
     }
 
-    private void reloadQueue() {
-        String q = null;
+    /**
+     * The queue and modes as saveQueue() left them, read on a worker
+     * thread, with a cursor on the current track.
+     */
+    private static class SavedQueue {
+        long [] mList;
+        int mPos;
+        long mSeekPos;
+        int mRepeatMode;
+        int mShuffleMode;
+        final Vector<Integer> mHistory = new Vector<Integer>(MAX_HISTORY_SIZE);
+        long [] mAutoShuffleList;
+        Cursor mCursor;
+    }
 
-        int id = mCardId;
+    /**
+     * Reads the saved queue, or returns null if there is none, or it was
+     * saved for another card. Doesn't touch the service's state, so it
+     * can run on any thread.
+     */
+    private SavedQueue readSavedQueue(int cardId) {
+        int id = cardId;
         if (mPreferences.contains("cardid")) {
-            id = mPreferences.getInt("cardid", ~mCardId);
+            id = mPreferences.getInt("cardid", ~cardId);
         }
-        if (id == mCardId) {
+        if (id != cardId) {
             // Only restore the saved playlist if the card is still
             // the same one as when the playlist was saved
-            q = mPreferences.getString("queue", "");
-        }
-        int qlen = q != null ? q.length() : 0;
-        if (qlen > 1) {
-            //Log.i("@@@@ service", "loaded queue: " + q);
-            int plen = 0;
-            int n = 0;
-            int shift = 0;
-            for (int i = 0; i < qlen; i++) {
-                char c = q.charAt(i);
-                if (c == ';') {
-                    ensurePlayListCapacity(plen + 1);
-                    mPlayList[plen] = n;
-                    plen++;
-                    n = 0;
-                    shift = 0;
-                } else {
-                    if (c >= '0' && c <= '9') {
-                        n += ((c - '0') << shift);
-                    } else if (c >= 'a' && c <= 'f') {
-                        n += ((10 + c - 'a') << shift);
-                    } else {
-                        // bogus playlist data
-                        plen = 0;
+            return null;
+        }
+        SavedQueue saved = new SavedQueue();
+        saved.mList = QueueCodec.decode(mPreferences.getString("queue", ""));
+        if (saved.mList == null) {
+            return null;
+        }
+        saved.mPos = mPreferences.getInt("curpos", 0);
+        if (saved.mPos < 0 || saved.mPos >= saved.mList.length) {
+            // The saved playlist is bogus, discard it
+            return null;
+        }
+        saved.mSeekPos = mPreferences.getLong("seekpos", 0);
+
+        int repmode = mPreferences.getInt("repeatmode", REPEAT_NONE);
+        if (repmode != REPEAT_ALL && repmode != REPEAT_CURRENT) {
+            repmode = REPEAT_NONE;
+        }
+        saved.mRepeatMode = repmode;
+
+        int shufmode = mPreferences.getInt("shufflemode", SHUFFLE_NONE);
+        if (shufmode != SHUFFLE_AUTO && shufmode != SHUFFLE_NORMAL) {
+            shufmode = SHUFFLE_NONE;
+        }
+        if (shufmode != SHUFFLE_NONE) {
+            // in shuffle mode we need to restore the history too
+            long [] history = QueueCodec.decode(mPreferences.getString("history", ""));
+            if (history != null) {
+                for (long n : history) {
+                    if (n >= saved.mList.length) {
+                        // bogus history data
+                        saved.mHistory.clear();
                         break;
                     }
-                    shift += 4;
+                    saved.mHistory.add((int) n);
                 }
             }
-            mPlayListLen = plen;
+        }
+        saved.mShuffleMode = shufmode;
+        return saved;
+    }
 
-            int pos = mPreferences.getInt("curpos", 0);
-            if (pos < 0 || pos >= mPlayListLen) {
-                // The saved playlist is bogus, discard it
-                mPlayListLen = 0;
+    /**
+     * Restores the saved queue in the background, and applies it on the
+     * main thread once the current track has been found in the media
+     * provider. The track is looked up but not prepared; that waits for
+     * the first play() or seek().
+     */
+    private void restoreQueue() {
+        if (mRestorer != null) {
+            mRestorer.cancel();
+        }
+        mQueueIsSaveable = false;
+        mQueueChangedWhileRestoring = false;
+        mRestorer = new QueueRestorer(mCardId);
+    }
+
+    /**
+     * Reads the saved queue on its own worker thread. When a card has just
+     * been inserted the media provider may not know the current track yet,
+     * so instead of sleeping and trying once more, this waits for the
+     * provider to change and tries again each time, for up to
+     * RESTORE_TIMEOUT.
+     */
+    private class QueueRestorer implements Runnable {
+        private final int mSavedCardId;
+        private final long mStart = Metrics.start();
+        private final Worker mWorker = new Worker("restore queue");
+        private final Handler mWorkerHandler = new Handler(mWorker.getLooper());
+        private final ContentObserver mObserver = new ContentObserver(mWorkerHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                // the scanner changes things in bursts
+                mWorkerHandler.removeCallbacks(QueueRestorer.this);
+                mWorkerHandler.postDelayed(QueueRestorer.this, RESTORE_RETRY_DELAY);
+            }
+        };
+        private final Runnable mGiveUp = new Runnable() {
+            public void run() {
+                Log.w(LOGTAG, "media provider didn't come up, not restoring the queue");
+                finish(null);
+            }
+        };
+        // only touched on the worker thread
+        private SavedQueue mSaved;
+        private boolean mWaiting;
+        private boolean mDone;
+
+        QueueRestorer(int cardId) {
+            mSavedCardId = cardId;
+            mWorkerHandler.post(this);
+        }
+
+        public void run() {
+            if (mDone) {
                 return;
             }
-            mPlayPos = pos;
+            if (mSaved == null) {
+                // map it here rather than on the main thread at the first
+                // long track
+                getResumeStore();
+                mSaved = readSavedQueue(mSavedCardId);
+                if (mSaved == null) {
+                    finish(null);
+                    return;
+                }
+            }
+            Cursor c = null;
+            try {
+                c = getContentResolver().query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                        mCursorCols, "_id=" + mSaved.mList[mSaved.mPos], null, null);
+            } catch (UnsupportedOperationException ex) {
+            }
+            if (c != null && c.moveToFirst()) {
+                mSaved.mCursor = c;
+                if (mSaved.mShuffleMode == SHUFFLE_AUTO) {
+                    mSaved.mAutoShuffleList = loadAutoShuffleList();
+                }
+                finish(mSaved);
+                return;
+            }
+            if (c != null) {
+                c.close();
+            }
+            if (!mWaiting) {
+                mWaiting = true;
+                getContentResolver().registerContentObserver(
+                        MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, mObserver);
+                mWorkerHandler.postDelayed(mGiveUp, RESTORE_TIMEOUT);
+            }
+        }
+
+        private void finish(final SavedQueue saved) {
+            mDone = true;
+            if (mWaiting) {
+                getContentResolver().unregisterContentObserver(mObserver);
+                mWorkerHandler.removeCallbacksAndMessages(null);
+            }
+            mWorker.quit();
+            mMediaplayerHandler.post(new Runnable() {
+                public void run() {
+                    applySavedQueue(QueueRestorer.this, saved);
+                }
+            });
+        }
+
+        /**
+         * Stops waiting. Called on the main thread; the result of a restore
+         * that finishes anyway is dropped by applySavedQueue().
+         */
+        void cancel() {
+            mWorkerHandler.post(new Runnable() {
+                public void run() {
+                    if (!mDone) {
+                        mDone = true;
+                        if (mWaiting) {
+                            getContentResolver().unregisterContentObserver(mObserver);
+                            mWorkerHandler.removeCallbacksAndMessages(null);
+                        }
+                        mWorker.quit();
+                    }
+                }
+            });
+        }
+    }
+
+    private void applySavedQueue(QueueRestorer restorer, SavedQueue saved) {
+        if (restorer != mRestorer) {
+            // cancelled, or the service is gone
+            if (saved != null) {
+                saved.mCursor.close();
+            }
+            return;
+        }
+        mRestorer = null;
+        synchronized (this) {
+            if (saved != null && mQueueChangedWhileRestoring) {
+                // somebody gave us something else to play in the meantime
+                saved.mCursor.close();
+            } else if (saved != null) {
+                stop(false);
+                ensurePlayListCapacity(saved.mList.length);
+                System.arraycopy(saved.mList, 0, mPlayList, 0, saved.mList.length);
+                mPlayListLen = saved.mList.length;
+                mPlayPos = saved.mPos;
+                mRepeatMode = saved.mRepeatMode;
+                mHistory.clear();
+                mHistory.addAll(saved.mHistory);
+                mShuffleMode = saved.mShuffleMode;
+                if (mShuffleMode == SHUFFLE_AUTO) {
+                    mAutoShuffleList = saved.mAutoShuffleList;
+                    if (mAutoShuffleList == null) {
+                        mShuffleMode = SHUFFLE_NONE;
+                    }
+                }
+                mCursor = saved.mCursor;
+                publishTrack();
+                mFileToPlay = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI + "/"
+                        + mPlayList[mPlayPos];
+                mPendingSeek = Math.max(0, saved.mSeekPos);
+            } else if (!mQueueChangedWhileRestoring) {
+                // couldn't restore the saved state
+                mPlayListLen = 0;
+            }
+            mQueueIsSaveable = true;
+        }
+        notifyChange(QUEUE_CHANGED);
+        notifyChange(META_CHANGED);
+        Metrics.SERVICE_READY.recordSince(restorer.mStart);
 
-            // When reloadQueue is called in response to a card-insertion,
-            // we might not be able to query the media provider right away.
-            // To deal with this, try querying for the current file, and if
-            // that fails, wait a while and try again. If that too fails,
-            // assume there is a problem and don't restore the state.
-            Cursor crsr = MusicUtils.query(this,
-                        MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                        new String [] {"_id"}, "_id=" + mPlayList[mPlayPos] , null, null);
-            if (crsr == null || crsr.getCount() == 0) {
-                // wait a bit and try again
-                SystemClock.sleep(3000);
-                crsr = getContentResolver().query(
-                        MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                        mCursorCols, "_id=" + mPlayList[mPlayPos] , null, null);
-            }
-            if (crsr != null) {
-                crsr.close();
+        // the rest of the startup work, now that the queue is in place
+        if (mShakeControl == null) {
+            mShakeControl = new ShakeControl(this, new ShakeControl.Callback() {
+                public void onShake(ShakeControl.Action action, long [] list) {
+                    doShakeAction(action, list);
+                }
+            });
+        }
+        if (mPlayWhenRestored) {
+            mPlayWhenRestored = false;
+            play();
+        }
+    }
+
+    /**
+     * Opens and prepares the restored track, if that was put off, and
+     * seeks to where it was.
+     */
+    private void prepareIfDeferred() {
+        synchronized (this) {
+            if (mPendingSeek < 0) {
+                return;
             }
+            long seekpos = mPendingSeek;
+            mPendingSeek = -1;
 
             // Make sure we don't auto-skip to the next song, since that
             // also starts playback. What could happen in that case is:
@@ -724,71 +989,15 @@ public class MediaPlaybackService extends Service implements
             //   own, potentially at some random inconvenient time.
             mOpenFailedCounter = 20;
             mQuietMode = true;
-            openCurrent();
+            open(mFileToPlay);
             mQuietMode = false;
             if (!mPlayer.isInitialized()) {
-                // couldn't restore the saved state
-                mPlayListLen = 0;
                 return;
             }
-
-            long seekpos = mPreferences.getLong("seekpos", 0);
-            seek(seekpos >= 0 && seekpos < duration() ? seekpos : 0);
+            mPlayer.seek(seekpos < mPlayer.duration() ? seekpos : 0);
             Log.d(LOGTAG, "restored queue, currently at position "
                     + position() + "/" + duration()
                     + " (requested " + seekpos + ")");
-
-            int repmode = mPreferences.getInt("repeatmode", REPEAT_NONE);
-            if (repmode != REPEAT_ALL && repmode != REPEAT_CURRENT) {
-                repmode = REPEAT_NONE;
-            }
-            mRepeatMode = repmode;
-
-            int shufmode = mPreferences.getInt("shufflemode", SHUFFLE_NONE);
-            if (shufmode != SHUFFLE_AUTO && shufmode != SHUFFLE_NORMAL) {
-                shufmode = SHUFFLE_NONE;
-            }
-            if (shufmode != SHUFFLE_NONE) {
-                // in shuffle mode we need to restore the history too
-                q = mPreferences.getString("history", "");
-                qlen = q != null ? q.length() : 0;
-                if (qlen > 1) {
-                    plen = 0;
-                    n = 0;
-                    shift = 0;
-                    mHistory.clear();
-                    for (int i = 0; i < qlen; i++) {
-                        char c = q.charAt(i);
-                        if (c == ';') {
-                            if (n >= mPlayListLen) {
-                                // bogus history data
-                                mHistory.clear();
-                                break;
-                            }
-                            mHistory.add(n);
-                            n = 0;
-                            shift = 0;
-                        } else {
-                            if (c >= '0' && c <= '9') {
-                                n += ((c - '0') << shift);
-                            } else if (c >= 'a' && c <= 'f') {
-                                n += ((10 + c - 'a') << shift);
-                            } else {
-                                // bogus history data
-                                mHistory.clear();
-                                break;
-                            }
-                            shift += 4;
-                        }
-                    }
-                }
-            }
-            if (shufmode == SHUFFLE_AUTO) {
-                if (! makeAutoShuffleList()) {
-                    shufmode = SHUFFLE_NONE;
-                }
-            }
-            mShuffleMode = shufmode;
         }
     }
 
@@ -813,7 +1022,7 @@ public class MediaPlaybackService extends Service implements
         if (intent != null) {
             String action = intent.getAction();
             String cmd = intent.getStringExtra("command");
-            MusicUtils.debugLog("onStartCommand " + action + " / " + cmd);
+            trace(EventTrace.START_COMMAND, EventTrace.commandFor(action, cmd));
 
             if (CMDNEXT.equals(cmd) || NEXT_ACTION.equals(action)) {
                 fadeDownAndNext();
@@ -926,10 +1135,7 @@ public class MediaPlaybackService extends Service implements
                     } else if (action.equals(Intent.ACTION_MEDIA_MOUNTED)) {
                         mMediaMountedCount++;
                         mCardId = MusicUtils.getCardId(MediaPlaybackService.this);
-                        reloadQueue();
-                        mQueueIsSaveable = true;
-                        notifyChange(QUEUE_CHANGED);
-                        notifyChange(META_CHANGED);
+                        restoreQueue();
                     }
                 }
             };
@@ -977,49 +1183,130 @@ public class MediaPlaybackService extends Service implements
      * or that the play-state changed (paused/resumed).
      */
     private void notifyChange(String what) {
-        
-        Intent i = new Intent(what);
-        i.putExtra("id", Long.valueOf(getAudioId()));
-        i.putExtra("artist", getArtistName());
-        i.putExtra("album_artist", getAlbumartistName());
-        i.putExtra("album",getAlbumName());
-        i.putExtra("track", getTrackName());
-        i.putExtra("playing", isPlaying());
-        i.putExtra("songid", getAudioId());
-        i.putExtra("albumid", getAlbumId());
-        i.putExtra("duration", duration());
-        i.putExtra("position", position());
-        if (mPlayList != null)
-            i.putExtra("ListSize", Long.valueOf(mPlayList.length));
-        else
-            i.putExtra("ListSize", Long.valueOf(mPlayListLen));
-        sendStickyBroadcast(i);
-
-        if (what.equals(QUEUE_CHANGED)) {
-            saveQueue(true);
-        } else {
-            saveQueue(false);
+        if (mRestorer != null && QUEUE_CHANGED.equals(what)) {
+            mQueueChangedWhileRestoring = true;
         }
+        int flag = ChangeNotifier.flagFor(what);
+        if (flag == 0) {
+            // would be dropped by the notifier without a trace
+            Log.e(LOGTAG, "unknown change: " + what);
+            return;
+        }
+        mNotifier.post(flag);
+    }
+
+    private void setUpNotifier() {
+        mNotifier = new ChangeNotifier(new ChangeNotifier.Source() {
+            public ChangeNotifier.State getState() {
+                ChangeNotifier.State state = new ChangeNotifier.State();
+                // one read, so the fields all describe the same track
+                TrackInfo track = mTrack;
+                state.mAudioId = hasCurrentTrack() ? track.mAudioId : -1;
+                state.mArtistName = track.mArtistName;
+                state.mAlbumartistName = track.mAlbumartistName;
+                state.mAlbumName = track.mAlbumName;
+                state.mTrackName = track.mTrackName;
+                state.mPlaying = isPlaying();
+                state.mAlbumId = track.mAlbumId;
+                state.mDuration = duration();
+                state.mPosition = position();
+                state.mPositionTime = SystemClock.elapsedRealtime();
+                long [] list = mPlayList;
+                state.mListSize = list != null ? list.length : mPlayListLen;
+                return state;
+            }
+        }, Looper.getMainLooper());
+
+        // other apps only need to know the latest state, but they do
+        // need to see every kind of change
+        mNotifier.addSink(new ChangeNotifier.Sink() {
+            public void onChange(int flags, ChangeNotifier.State state) {
+                for (String what : ChangeNotifier.actionsFor(flags)) {
+                    Intent i = new Intent(what);
+                    i.putExtra("id", Long.valueOf(state.mAudioId));
+                    i.putExtra("artist", state.mArtistName);
+                    i.putExtra("album_artist", state.mAlbumartistName);
+                    i.putExtra("album", state.mAlbumName);
+                    i.putExtra("track", state.mTrackName);
+                    i.putExtra("playing", state.mPlaying);
+                    i.putExtra("songid", state.mAudioId);
+                    i.putExtra("albumid", state.mAlbumId);
+                    i.putExtra("duration", state.mDuration);
+                    i.putExtra("position", state.mPosition);
+                    // lets clients extrapolate the position instead of polling for it
+                    i.putExtra("positiontime", state.mPositionTime);
+                    i.putExtra("ListSize", Long.valueOf(state.mListSize));
+                    sendStickyBroadcast(i);
+                }
+            }
+        }, "broadcasts", 100);
+
+        mNotifier.addSink(new ChangeNotifier.Sink() {
+            public void onChange(int flags, ChangeNotifier.State state) {
+                if ((flags & ChangeNotifier.QUEUE) != 0) {
+                    saveQueue(true);
+                } else if ((flags & ~ChangeNotifier.POSITION) != 0) {
+                    saveQueue(false);
+                }
+            }
+        }, "saved state", 250);
+
+        // the flip sensor is only needed while playing
+        mNotifier.addSink(new ChangeNotifier.Sink() {
+            public void onChange(int flags, ChangeNotifier.State state) {
+                if ((flags & (ChangeNotifier.META | ChangeNotifier.PLAYSTATE)) != 0) {
+                    mFlipControl.setPlaying(state.mPlaying);
+                }
+            }
+        }, "flip control", 0);
 
         // Share this notification directly with our widgets
-        mAppWidgetProvider4x1.notifyChange(this, what);
-        mAppWidgetProvider4x2.notifyChange(this, what);
+        mNotifier.addSink(new ChangeNotifier.Sink() {
+            public void onChange(int flags, ChangeNotifier.State state) {
+                mAppWidgetProvider4x1.notifyChange(MediaPlaybackService.this, flags);
+                mAppWidgetProvider4x2.notifyChange(MediaPlaybackService.this, flags);
+                if ((flags & ChangeNotifier.META) != 0) {
+                    prefetchNextWidgetArt();
+                }
+            }
+        }, "widgets", 250);
     }
 
-    private void ensurePlayListCapacity(int size) {
-        if (mPlayList == null || size > mPlayList.length) {
-            // reallocate at 2x requested size so we don't
-            // need to grow and copy the array for every
-            // insert
-            long [] newlist = new long[size * 2];
-            int len = mPlayList != null ? mPlayList.length : mPlayListLen;
-            for (int i = 0; i < len; i++) {
-                newlist[i] = mPlayList[i];
+    /**
+     * Returns the uri the widgets should show the artwork of the given
+     * track from, or null if it has none.
+     */
+    Uri getWidgetArtUri(long songId, long albumId) {
+        Uri uri = mWidgetArtCache.getUri(songId, albumId);
+        if (uri == null && mWidgetArtCache.isPending(songId, albumId)) {
+            // use the full size art until the scaled one is ready
+            uri = MusicUtils.getArtworkUri(this, songId, albumId);
+        }
+        return uri;
+    }
+
+    private void prefetchNextWidgetArt() {
+        if (!mAppWidgetProvider4x1.hasInstances(this) && !mAppWidgetProvider4x2.hasInstances(this)) {
+            return;
+        }
+        long next = -1;
+        synchronized (this) {
+            // with shuffle on, there's no telling what comes next
+            if (mShuffleMode != SHUFFLE_NORMAL && mPlayListLen > 0) {
+                if (mPlayPos + 1 < mPlayListLen) {
+                    next = mPlayList[mPlayPos + 1];
+                } else if (mRepeatMode == REPEAT_ALL) {
+                    next = mPlayList[0];
+                }
             }
-            mPlayList = newlist;
         }
-        // FIXME: shrink the array when the needed size is much smaller
-        // than the allocated size
+        if (next >= 0) {
+            mWidgetArtCache.prefetch(next);
+        }
+    }
+
+    private void ensurePlayListCapacity(int size) {
+        mPlayList = QueueOps.ensureCapacity(mPlayList, mPlayListLen, size);
     }
 
     // insert the list of songs at the specified position in the playlist
@@ -1033,21 +1320,12 @@ public class MediaPlaybackService extends Service implements
         if (position > mPlayListLen) {
             position = mPlayListLen;
         }
-        
-        // move part of list after insertion point
-        int tailsize = mPlayListLen - position;
-        for (int i = tailsize ; i > 0 ; i--) {
-            mPlayList[position + i] = mPlayList[position + i - addlen]; 
-        }
-        
-        // copy list into playlist
-        for (int i = 0; i < addlen; i++) {
-            mPlayList[position + i] = list[i];
-        }
+        QueueOps.insert(mPlayList, mPlayListLen, list, position);
         mPlayListLen += addlen;
         if (mPlayListLen == 0) {
             mCursor.close();
             mCursor = null;
+            publishTrack();
             notifyChange(META_CHANGED);
         }
     }
@@ -1144,29 +1422,7 @@ public class MediaPlaybackService extends Service implements
             if (index2 >= mPlayListLen) {
                 index2 = mPlayListLen - 1;
             }
-            if (index1 < index2) {
-                long tmp = mPlayList[index1];
-                for (int i = index1; i < index2; i++) {
-                    mPlayList[i] = mPlayList[i+1];
-                }
-                mPlayList[index2] = tmp;
-                if (mPlayPos == index1) {
-                    mPlayPos = index2;
-                } else if (mPlayPos >= index1 && mPlayPos <= index2) {
-                        mPlayPos--;
-                }
-            } else if (index2 < index1) {
-                long tmp = mPlayList[index1];
-                for (int i = index1; i > index2; i--) {
-                    mPlayList[i] = mPlayList[i-1];
-                }
-                mPlayList[index2] = tmp;
-                if (mPlayPos == index1) {
-                    mPlayPos = index2;
-                } else if (mPlayPos >= index2 && mPlayPos <= index1) {
-                        mPlayPos++;
-                }
-            }
+            mPlayPos = QueueOps.move(mPlayList, index1, index2, mPlayPos);
             notifyChange(QUEUE_CHANGED);
         }
     }
@@ -1187,10 +1443,12 @@ public class MediaPlaybackService extends Service implements
     }
 
     private void openCurrent() {
+        trace(EventTrace.OPEN, 0);
         synchronized (this) {
             if (mCursor != null) {
                 mCursor.close();
                 mCursor = null;
+                publishTrack();
             }
 
             if (mPlayListLen == 0) {
@@ -1204,11 +1462,22 @@ public class MediaPlaybackService extends Service implements
                     MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
                     mCursorCols, "_id=" + id , null, null);
             if (mCursor != null) {
-                mCursor.moveToFirst();
+                if (mCursor.moveToFirst()) {
+                    publishTrack();
+                } else {
+                    // gone from the media store; open() fails below and
+                    // moves on
+                    mTrack = TrackInfo.NONE;
+                }
                 open(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI + "/" + id);
                 // go to bookmark if needed
+                long bookmark = 0;
                 if (isPodcast()) {
-                    long bookmark = getBookmark();
+                    bookmark = getBookmark();
+                } else if (isLongForm()) {
+                    bookmark = getResumeStore().get(mCursor.getLong(IDCOLIDX));
+                }
+                if (bookmark > 0) {
                     // Start playing a little bit before the bookmark,
                     // so it's easier to get back in to the narrative.
                     seek(bookmark - 5000);
@@ -1248,11 +1517,12 @@ public class MediaPlaybackService extends Service implements
                 try {
                     mCursor = resolver.query(uri, mCursorCols, where, selectionArgs, null);
                     if  (mCursor != null) {
-                        if (mCursor.getCount() == 0) {
+                        if (!mCursor.moveToFirst()) {
                             mCursor.close();
                             mCursor = null;
+                            publishTrack();
                         } else {
-                            mCursor.moveToNext();
+                            publishTrack();
                             ensurePlayListCapacity(1);
                             mPlayListLen = 1;
                             mPlayList[0] = mCursor.getLong(IDCOLIDX);
@@ -1263,8 +1533,11 @@ public class MediaPlaybackService extends Service implements
                 }
             }
             mFileToPlay = path;
+            long start = Metrics.start();
             mPlayer.setDataSource(mFileToPlay);
+            Metrics.OPEN.recordSince(start);
             if (! mPlayer.isInitialized()) {
+                Metrics.OPEN_FAILURES.increment();
                 stop(true);
                 if (mOpenFailedCounter++ < 10 &&  mPlayListLen > 1) {
                     // beware: this ends up being recursive because next() calls open() again.
@@ -1288,6 +1561,7 @@ public class MediaPlaybackService extends Service implements
      * Starts playback of a previously opened file.
      */
     public void play() {
+        trace(EventTrace.PLAY, 0);
         TelephonyManager telephonyManager =
             (TelephonyManager) getSystemService(Context.TELEPHONY_SERVICE);
         if (telephonyManager.getCallState() == TelephonyManager.CALL_STATE_OFFHOOK) {
@@ -1301,15 +1575,25 @@ public class MediaPlaybackService extends Service implements
 
         telephonyManager.listen(mPhoneStateListener, PhoneStateListener.LISTEN_CALL_STATE);
 
-        if (mPlayer.isInitialized()) {
+        if (mRestorer != null && mPlayListLen <= 0) {
+            // the saved queue will be played when it has been restored
+            mPlayWhenRestored = true;
+            return;
+        }
+        prepareIfDeferred();
+
+        MultiPlayer player = mPlayer;
+        if (player.isInitialized()) {
             // if we are at the end of the song, go to the next song first
-            long duration = mPlayer.duration();
+            long duration = player.duration();
             if (mRepeatMode != REPEAT_CURRENT && duration > 2000 &&
-                mPlayer.position() >= duration - 2000) {
+                player.position() >= duration - 2000) {
                 next(true);
+                // a crossfade may have swapped the players meanwhile
+                player = mPlayer;
             }
 
-            mPlayer.start();
+            player.start();
             // make sure we fade in, in case a previous fadein was stopped because
             // of another focus loss
             fadeUp();
@@ -1388,6 +1672,8 @@ public class MediaPlaybackService extends Service implements
                 notifyChange(PLAYSTATE_CHANGED);
             }
             mPausedByIncomingAlarm = false;
+            scheduleCrossfade();
+            scheduleBookmarkCheckpoint();
         } else if (mPlayListLen <= 0) {
             // This is mostly so that if you press 'play' on a bluetooth headset
             // without every having played anything before, it will still play
@@ -1397,13 +1683,21 @@ public class MediaPlaybackService extends Service implements
     }
 
     private void stop(boolean remove_status_icon) {
-        if (mPlayer.isInitialized()) {
-            mPlayer.stop();
+        mPendingSeek = -1;
+        mMediaplayerHandler.removeMessages(MediaplayerHandler.MESSAGE_CROSSFADE);
+        mMediaplayerHandler.removeMessages(MediaplayerHandler.MESSAGE_BOOKMARK_CHECKPOINT);
+        if (remove_status_icon) {
+            finishCrossfade();
+        }
+        MultiPlayer player = mPlayer;
+        if (player.isInitialized()) {
+            player.stop();
         }
         mFileToPlay = null;
         if (mCursor != null) {
             mCursor.close();
             mCursor = null;
+            publishTrack();
         }
         if (remove_status_icon) {
             gotoIdleState();
@@ -1419,6 +1713,9 @@ public class MediaPlaybackService extends Service implements
      * Stops playback.
      */
     public void stop() {
+        trace(EventTrace.STOP, 0);
+        saveBookmarkIfNeeded();
+        mBookmarks.flush();
         stop(true);
     }
 
@@ -1426,22 +1723,30 @@ public class MediaPlaybackService extends Service implements
      * Pauses playback (call play() to resume)
      */
     public void pause() {
+        trace(EventTrace.PAUSE, 0);
         synchronized(this) {
             fadeDown();
+            mMediaplayerHandler.removeMessages(MediaplayerHandler.MESSAGE_CROSSFADE);
+            finishCrossfade();
             if (isPlaying()) {
                 mPlayer.pause();
                 gotoIdleState();
                 mIsSupposedToBePlaying = false;
                 notifyChange(PLAYSTATE_CHANGED);
+                mMediaplayerHandler.removeMessages(
+                        MediaplayerHandler.MESSAGE_BOOKMARK_CHECKPOINT);
                 saveBookmarkIfNeeded();
+                mBookmarks.flush();
             }
         }
     }
 
     private void fade(float newVolume, Message andThen) {
-        mMediaplayerHandler.removeMessages(MediaplayerHandler.MESSAGE_FADE);
-        mMediaplayerHandler.mTargetVolume = newVolume;
-        mMediaplayerHandler.obtainMessage(MediaplayerHandler.MESSAGE_FADE, andThen).sendToTarget();
+        // as before, a fade takes time in proportion to how far it goes
+        float volume = mVolumeRamp.getVolume();
+        float distance = Math.abs(newVolume - volume) / (VOLUME_FULL - VOLUME_MUTE);
+        int duration = newVolume > volume ? FADE_UP_DURATION : FADE_DOWN_DURATION;
+        mVolumeRamp.start(newVolume, (long) (duration * distance), VolumeRamp.LOG, andThen);
     }
 
     private void fade(float newVolume) {
@@ -1516,6 +1821,7 @@ public class MediaPlaybackService extends Service implements
      */
 
     public void prev() {
+        trace(EventTrace.PREV, 0);
         synchronized (this) {
             if (position() > 2000) {
                 seek(0);
@@ -1547,6 +1853,8 @@ public class MediaPlaybackService extends Service implements
     }
 
     public void next(boolean force) {
+        trace(EventTrace.NEXT, force ? 1 : 0);
+        long start = Metrics.start();
         synchronized (this) {
             if (mPlayListLen <= 0) {
                 Log.d(LOGTAG, "No play queue");
@@ -1566,54 +1874,18 @@ public class MediaPlaybackService extends Service implements
                     mHistory.removeElementAt(0);
                 }
 
-                int numTracks = mPlayListLen;
-                int[] tracks = new int[numTracks];
-                for (int i=0;i < numTracks; i++) {
-                    tracks[i] = i;
-                }
-
-                int numHistory = mHistory.size();
-                int numUnplayed = numTracks;
-                for (int i=0;i < numHistory; i++) {
-                    int idx = mHistory.get(i).intValue();
-                    if (idx < numTracks && tracks[idx] >= 0) {
-                        numUnplayed--;
-                        tracks[idx] = -1;
-                    }
-                }
-
-                // 'numUnplayed' now indicates how many tracks have not yet
-                // been played, and 'tracks' contains the indices of those
-                // tracks.
-                if (numUnplayed <=0) {
-                    // everything's already been played
-                    if (mRepeatMode == REPEAT_ALL || force) {
-                        //pick from full set
-                        numUnplayed = numTracks;
-                        for (int i=0;i < numTracks; i++) {
-                            tracks[i] = i;
-                        }
-                    } else {
-                        // all done
-                        gotoIdleState();
-                        if (mIsSupposedToBePlaying) {
-                            mIsSupposedToBePlaying = false;
-                            notifyChange(PLAYSTATE_CHANGED);
-                        }
-                        return;
-                    }
-                }
-                int skip = mRand.nextInt(numUnplayed);
-                int cnt = -1;
-                while (true) {
-                    while (tracks[++cnt] < 0)
-                        ;
-                    skip--;
-                    if (skip < 0) {
-                        break;
+                int pos = mRand.pickUnplayed(mPlayListLen, mHistory,
+                        mRepeatMode == REPEAT_ALL || force);
+                if (pos < 0) {
+                    // all done
+                    gotoIdleState();
+                    if (mIsSupposedToBePlaying) {
+                        mIsSupposedToBePlaying = false;
+                        notifyChange(PLAYSTATE_CHANGED);
                     }
+                    return;
                 }
-                mPlayPos = cnt;
+                mPlayPos = pos;
             } else if (mShuffleMode == SHUFFLE_AUTO) {
                 doAutoShuffleUpdate();
                 mPlayPos++;
@@ -1639,6 +1911,10 @@ public class MediaPlaybackService extends Service implements
             play();
             notifyChange(META_CHANGED);
         }
+        Metrics.NEXT.recordSince(start);
+        if (force) {
+            Metrics.SKIPS.increment();
+        }
     }
 
     public void cycleRepeat() {
@@ -1667,6 +1943,102 @@ public class MediaPlaybackService extends Service implements
         }
     }
 
+    /**
+     * Returns whether next(false) would move on to another track, rather
+     * than stop at the end of the queue.
+     */
+    private boolean hasNext() {
+        if (mPlayListLen <= 0) {
+            return false;
+        }
+        if (mShuffleMode == SHUFFLE_AUTO || mRepeatMode == REPEAT_ALL) {
+            return true;
+        }
+        if (mShuffleMode == SHUFFLE_NORMAL) {
+            // next() adds the current track to the history first
+            for (int i = 0; i < mPlayListLen; i++) {
+                if (i != mPlayPos && !mHistory.contains(i)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return mPlayPos < mPlayListLen - 1;
+    }
+
+    /**
+     * Arranges for the crossfade into the next track to start when the
+     * current one has as much left as the tracks should overlap.
+     */
+    private void scheduleCrossfade() {
+        mMediaplayerHandler.removeMessages(MediaplayerHandler.MESSAGE_CROSSFADE);
+        long overlap = getCrossfadeDuration();
+        MultiPlayer player = mPlayer;
+        if (overlap == 0 || !mIsSupposedToBePlaying || !player.isInitialized()) {
+            return;
+        }
+        long remaining = player.duration() - player.position();
+        mMediaplayerHandler.sendEmptyMessageDelayed(MediaplayerHandler.MESSAGE_CROSSFADE,
+                Math.max(0, remaining - overlap));
+    }
+
+    /**
+     * Starts the next track on a second player, and ramps the two in
+     * opposite directions over what is left of the current one. The
+     * players share an audio session, so effects carry over, and each
+     * holds its own wake lock while it plays, so there is no gap between
+     * them. Audio focus belongs to the service and isn't affected.
+     */
+    private void crossfade() {
+        synchronized (this) {
+            long overlap = getCrossfadeDuration();
+            if (overlap == 0 || !isPlaying() || !mPlayer.isInitialized()
+                    || mOutgoingPlayer != null) {
+                return;
+            }
+            long remaining = mPlayer.duration() - mPlayer.position();
+            if (remaining > overlap + CROSSFADE_SLOP) {
+                // came early, after the track was held up
+                scheduleCrossfade();
+                return;
+            }
+            // podcasts end where they end, and save their bookmark as usual
+            if (mRepeatMode == REPEAT_CURRENT || isPodcast() || !hasNext()) {
+                return;
+            }
+
+            MultiPlayer player = mSparePlayer != null ? mSparePlayer : new MultiPlayer();
+            mSparePlayer = null;
+            player.setHandler(mMediaplayerHandler);
+            player.setAudioSessionId(mPlayer.getAudioSessionId());
+            mOutgoingPlayer = mPlayer;
+            mPlayer = player;
+
+            long now = SystemClock.uptimeMillis();
+            float volume = mVolumeRamp.getVolume();
+            mVolumeRamp.set(0f);
+            mOutgoingRamp.set(volume);
+            mOutgoingRamp.startAt(now, volume, 0f, remaining, VolumeRamp.EQUAL_POWER,
+                    mMediaplayerHandler.obtainMessage(MediaplayerHandler.MESSAGE_CROSSFADE_DONE));
+            // opens the next track, and seeks to its bookmark if it has one
+            next(false);
+            mVolumeRamp.startAt(now, 0f, VOLUME_FULL, remaining, VolumeRamp.EQUAL_POWER, null);
+        }
+    }
+
+    /**
+     * Stops the player that is fading out, if any, and keeps it for the
+     * next crossfade.
+     */
+    private void finishCrossfade() {
+        mOutgoingRamp.cancel();
+        if (mOutgoingPlayer != null) {
+            mOutgoingPlayer.stop();
+            mSparePlayer = mOutgoingPlayer;
+            mOutgoingPlayer = null;
+        }
+    }
+
     private void gotoIdleState() {
         mDelayedStopHandler.removeCallbacksAndMessages(null);
         Message msg = mDelayedStopHandler.obtainMessage();
@@ -1674,9 +2046,31 @@ public class MediaPlaybackService extends Service implements
         stopForeground(true);
     }
 
+    private void scheduleBookmarkCheckpoint() {
+        mMediaplayerHandler.removeMessages(MediaplayerHandler.MESSAGE_BOOKMARK_CHECKPOINT);
+        if (isPodcast() || isLongForm()) {
+            mMediaplayerHandler.sendEmptyMessageDelayed(
+                    MediaplayerHandler.MESSAGE_BOOKMARK_CHECKPOINT, BOOKMARK_CHECKPOINT_INTERVAL);
+        }
+    }
+
+    /**
+     * Remembers the position in the current podcast. This doesn't touch
+     * the provider, the bookmark is written the next time mBookmarks is
+     * flushed: on pause, stop, every BOOKMARK_CHECKPOINT_INTERVAL while
+     * playing, and when the service goes away. Other long tracks keep
+     * their position in mResumeStore.
+     */
     private void saveBookmarkIfNeeded() {
-        try {
-            if (isPodcast()) {
+        synchronized (this) {
+            if (isLongForm() && !isPodcast()) {
+                long pos = position();
+                if (pos < 15000 || (pos + 10000) > duration()) {
+                    // near the start or end there's nothing to resume
+                    pos = 0;
+                }
+                getResumeStore().put(mCursor.getLong(IDCOLIDX), pos);
+            } else if (isPodcast()) {
                 long pos = position();
                 long bookmark = getBookmark();
                 long duration = duration();
@@ -1690,15 +2084,8 @@ public class MediaPlaybackService extends Service implements
                     // if we're near the start or end, clear the bookmark
                     pos = 0;
                 }
-
-                // write 'pos' to the bookmark field
-                ContentValues values = new ContentValues();
-                values.put(MediaStore.Audio.Media.BOOKMARK, pos);
-                Uri uri = ContentUris.withAppendedId(
-                        MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, mCursor.getLong(IDCOLIDX));
-                getContentResolver().update(uri, values, null, null);
+                mBookmarks.put(mCursor.getLong(IDCOLIDX), pos);
             }
-        } catch (SQLiteException ex) {
         }
     }
 
@@ -1717,15 +2104,7 @@ public class MediaPlaybackService extends Service implements
         for (int i = 0; i < to_add; i++) {
             // pick something at random from the list
 
-            int lookback = mHistory.size();
-            int idx = -1;
-            while(true) {
-                idx = mRand.nextInt(mAutoShuffleList.length);
-                if (!wasRecentlyUsed(idx, lookback)) {
-                    break;
-                }
-                lookback /= 2;
-            }
+            int idx = mRand.pickNotRecent(mAutoShuffleList.length, mHistory);
             mHistory.add(idx);
             if (mHistory.size() > MAX_HISTORY_SIZE) {
                 mHistory.remove(0);
@@ -1739,47 +2118,19 @@ public class MediaPlaybackService extends Service implements
         }
     }
 
-    // check that the specified idx is not in the history (but only look at at
-    // most lookbacksize entries in the history)
-    private boolean wasRecentlyUsed(int idx, int lookbacksize) {
-
-        // early exit to prevent infinite loops in case idx == mPlayPos
-        if (lookbacksize == 0) {
+    private boolean makeAutoShuffleList() {
+        long [] list = loadAutoShuffleList();
+        if (list == null) {
             return false;
         }
-
-        int histsize = mHistory.size();
-        if (histsize < lookbacksize) {
-            Log.d(LOGTAG, "lookback too big");
-            lookbacksize = histsize;
-        }
-        int maxidx = histsize - 1;
-        for (int i = 0; i < lookbacksize; i++) {
-            long entry = mHistory.get(maxidx - i);
-            if (entry == idx) {
-                return true;
-            }
-        }
-        return false;
+        mAutoShuffleList = list;
+        return true;
     }
 
-    // A simple variation of Random that makes sure that the
-    // value it returns is not equal to the value it returned
-    // previously, unless the interval is 1.
-    private static class Shuffler {
-        private int mPrevious;
-        private Random mRandom = new Random();
-        public int nextInt(int interval) {
-            int ret;
-            do {
-                ret = mRandom.nextInt(interval);
-            } while (ret == mPrevious && interval > 1);
-            mPrevious = ret;
-            return ret;
-        }
-    };
-
-    private boolean makeAutoShuffleList() {
+    /**
+     * Returns the ids of all music, or null if there is none.
+     */
+    private long [] loadAutoShuffleList() {
         ContentResolver res = getContentResolver();
         Cursor c = null;
         try {
@@ -1787,7 +2138,7 @@ public class MediaPlaybackService extends Service implements
                     new String[] {MediaStore.Audio.Media._ID}, MediaStore.Audio.Media.IS_MUSIC + "=1",
                     null, null);
             if (c == null || c.getCount() == 0) {
-                return false;
+                return null;
             }
             int len = c.getCount();
             long [] list = new long[len];
@@ -1795,15 +2146,14 @@ public class MediaPlaybackService extends Service implements
                 c.moveToNext();
                 list[i] = c.getLong(0);
             }
-            mAutoShuffleList = list;
-            return true;
+            return list;
         } catch (RuntimeException ex) {
         } finally {
             if (c != null) {
                 c.close();
             }
         }
-        return false;
+        return null;
     }
 
     /**
@@ -1835,37 +2185,40 @@ public class MediaPlaybackService extends Service implements
             } else if (mPlayPos > last) {
                 mPlayPos -= (last - first + 1);
             }
-            int num = mPlayListLen - last - 1;
-            for (int i = 0; i < num; i++) {
-                mPlayList[first + i] = mPlayList[last + 1 + i];
-            }
-            mPlayListLen -= last - first + 1;
+            mPlayListLen = QueueOps.removeRange(mPlayList, mPlayListLen, first, last);
             
             if (gotonext) {
-                if (mPlayListLen == 0) {
-                    stop(true);
-                    mPlayPos = -1;
-                    if (mCursor != null) {
-                        mCursor.close();
-                        mCursor = null;
-                    }
-                } else {
-                    if (mPlayPos >= mPlayListLen) {
-                        mPlayPos = 0;
-                    }
-                    boolean wasPlaying = isPlaying();
-                    stop(false);
-                    openCurrent();
-                    if (wasPlaying) {
-                        play();
-                    }
-                }
-                notifyChange(META_CHANGED);
+                openAfterRemoval();
             }
             return last - first + 1;
         }
     }
 
+    // Called with mPlayPos pointing at the entry that followed the
+    // removed current track.
+    private void openAfterRemoval() {
+        if (mPlayListLen == 0) {
+            stop(true);
+            mPlayPos = -1;
+            if (mCursor != null) {
+                mCursor.close();
+                mCursor = null;
+                publishTrack();
+            }
+        } else {
+            if (mPlayPos >= mPlayListLen) {
+                mPlayPos = 0;
+            }
+            boolean wasPlaying = isPlaying();
+            stop(false);
+            openCurrent();
+            if (wasPlaying) {
+                play();
+            }
+        }
+        notifyChange(META_CHANGED);
+    }
+
     /**
      * Removes all instances of the track with the given id
      * from the playlist.
@@ -1873,21 +2226,87 @@ public class MediaPlaybackService extends Service implements
      * @return how many instances of the track were removed
      */
     public int removeTrack(long id) {
-        int numremoved = 0;
-        synchronized (this) {
-            for (int i = 0; i < mPlayListLen; i++) {
-                if (mPlayList[i] == id) {
-                    numremoved += removeTracksInternal(i, i);
-                    i--;
-                }
-            }
-        }
+        return removeTracksById(new long [] { id });
+    }
+
+    /**
+     * Removes all instances of the tracks with the given ids from the
+     * playlist. The queue is compacted in a single pass, so this is
+     * much cheaper than calling removeTrack() for each id.
+     * @param ids The ids to be removed
+     * @return how many entries were removed from the playlist
+     */
+    public int removeTracksById(long [] ids) {
+        int numremoved = removeTracksInternal(ids);
         if (numremoved > 0) {
             notifyChange(QUEUE_CHANGED);
         }
         return numremoved;
     }
 
+    private int removeTracksInternal(long [] ids) {
+        synchronized (this) {
+            if (ids == null || ids.length == 0 || mPlayListLen == 0) {
+                return 0;
+            }
+            LongHashSet remove = new LongHashSet(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                remove.add(ids[i]);
+            }
+
+            // old queue index -> new queue index, or -1 if removed.
+            // Only needed to fix up the shuffle history.
+            int [] remap = mHistory.isEmpty() ? null : new int[mPlayListLen];
+            int oldpos = mPlayPos;
+            boolean gotonext = false;
+            int len = mPlayListLen;
+            int kept = 0;
+            for (int i = 0; i < len; i++) {
+                long id = mPlayList[i];
+                if (i == oldpos) {
+                    // either the new position of the current track, or the
+                    // position of the track that followed it
+                    mPlayPos = kept;
+                }
+                if (remove.contains(id)) {
+                    if (i == oldpos) {
+                        gotonext = true;
+                    }
+                    if (remap != null) {
+                        remap[i] = -1;
+                    }
+                } else {
+                    if (remap != null) {
+                        remap[i] = kept;
+                    }
+                    mPlayList[kept++] = id;
+                }
+            }
+            int numremoved = len - kept;
+            if (numremoved == 0) {
+                return 0;
+            }
+            mPlayListLen = kept;
+
+            if (remap != null) {
+                int histsize = mHistory.size();
+                Vector<Integer> history = new Vector<Integer>(MAX_HISTORY_SIZE);
+                for (int i = 0; i < histsize; i++) {
+                    int idx = mHistory.get(i);
+                    if (idx < len && remap[idx] >= 0) {
+                        history.add(remap[idx]);
+                    }
+                }
+                mHistory = history;
+            }
+
+            if (gotonext) {
+                openAfterRemoval();
+            }
+            return numremoved;
+        }
+    }
+
     public void setShuffleMode(int shufflemode) {
         synchronized(this) {
             if (mShuffleMode == shufflemode && mPlayListLen > 0) {
@@ -1946,22 +2365,23 @@ public class MediaPlaybackService extends Service implements
      * no file is currently playing.
      */
     public long getAudioId() {
-        synchronized (this) {
-            if (mPlayPos >= 0 && mPlayer.isInitialized()) {
-                return mPlayList[mPlayPos];
-            }
+        if (hasCurrentTrack()) {
+            return mTrack.mAudioId;
         }
         return -1;
     }
 
+    // true once a track is prepared, or restored and waiting to be
+    private boolean hasCurrentTrack() {
+        return mPlayer.isInitialized() || mPendingSeek >= 0;
+    }
+
     /**
      * Returns the position in the queue 
      * @return the position in the queue
      */
     public int getQueuePosition() {
-        synchronized(this) {
-            return mPlayPos;
-        }
+        return mPlayPos;
     }
 
     /**
@@ -1982,74 +2402,73 @@ public class MediaPlaybackService extends Service implements
     }
 
     public String getArtistName() {
-        synchronized(this) {
-            if (mCursor == null) {
-                return null;
-            }
-            return mCursor.getString(mCursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST));
-        }
+        return mTrack.mArtistName;
     }
 
     public long getArtistId() {
-        synchronized (this) {
-            if (mCursor == null) {
-                return -1;
-            }
-            return mCursor.getLong(mCursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST_ID));
-        }
+        return mTrack.mArtistId;
     }
 
     public String getAlbumartistName() {
-        synchronized(this) {
-            if (mCursor == null) {
-                return null;
-            }
-            return mCursor.getString(mCursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ARTIST));
-        }
+        return mTrack.mAlbumartistName;
     }
 
     public long getAlbumartistId() {
-        synchronized (this) {
-            if (mCursor == null) {
-                return -1;
-            }
-            return mCursor.getLong(mCursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ARTIST_ID));
-        }
+        return mTrack.mAlbumartistId;
     }
 
     public String getAlbumName() {
-        synchronized (this) {
-            if (mCursor == null) {
-                return null;
-            }
-            return mCursor.getString(mCursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM));
-        }
+        return mTrack.mAlbumName;
     }
 
     public long getAlbumId() {
+        return mTrack.mAlbumId;
+    }
+
+    public String getTrackName() {
+        return mTrack.mTrackName;
+    }
+
+    // call with the lock held, whenever mCursor changes
+    private void publishTrack() {
+        mTrack = mCursor == null ? TrackInfo.NONE : new TrackInfo(mCursor);
+    }
+
+    private boolean isPodcast() {
         synchronized (this) {
             if (mCursor == null) {
-                return -1;
+                return false;
             }
-            return mCursor.getLong(mCursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM_ID));
+            return (mCursor.getInt(PODCASTCOLIDX) > 0);
         }
     }
 
-    public String getTrackName() {
-        synchronized (this) {
-            if (mCursor == null) {
-                return null;
+    private ResumeStore getResumeStore() {
+        ResumeStore store = mResumeStore;
+        if (store == null) {
+            synchronized (mResumeStoreLock) {
+                store = mResumeStore;
+                if (store == null) {
+                    File file = new File(getFilesDir(), "resume_positions");
+                    try {
+                        store = ResumeStore.open(file);
+                    } catch (IOException ex) {
+                        Log.w(LOGTAG, "couldn't map " + file, ex);
+                        store = ResumeStore.inMemory();
+                    }
+                    mResumeStore = store;
+                }
             }
-            return mCursor.getString(mCursor.getColumnIndexOrThrow(MediaStore.Audio.Media.TITLE));
         }
+        return store;
     }
 
-    private boolean isPodcast() {
+    private boolean isLongForm() {
         synchronized (this) {
             if (mCursor == null) {
                 return false;
             }
-            return (mCursor.getInt(PODCASTCOLIDX) > 0);
+            return mCursor.getLong(DURATIONCOLIDX) >= RESUME_MIN_DURATION;
         }
     }
 
@@ -2058,7 +2477,8 @@ public class MediaPlaybackService extends Service implements
             if (mCursor == null) {
                 return 0;
             }
-            return mCursor.getLong(BOOKMARKCOLIDX);
+            // the cursor may predate the last bookmark we set
+            return mBookmarks.get(mCursor.getLong(IDCOLIDX), mCursor.getLong(BOOKMARKCOLIDX));
         }
     }
 
@@ -2067,8 +2487,14 @@ public class MediaPlaybackService extends Service implements
      * Currently this method returns -1 for the duration of MIDI files.
      */
     public long duration() {
-        if (mPlayer.isInitialized()) {
-            return mPlayer.duration();
+        MultiPlayer player = mPlayer;
+        if (player.isInitialized()) {
+            return player.duration();
+        }
+        synchronized (this) {
+            if (mPendingSeek >= 0 && mCursor != null) {
+                return mCursor.getLong(DURATIONCOLIDX);
+            }
         }
         return -1;
     }
@@ -2077,8 +2503,14 @@ public class MediaPlaybackService extends Service implements
      * Returns the current playback position in milliseconds
      */
     public long position() {
-        if (mPlayer.isInitialized()) {
-            return mPlayer.position();
+        MultiPlayer player = mPlayer;
+        if (player.isInitialized()) {
+            return player.position();
+        }
+        synchronized (this) {
+            if (mPendingSeek >= 0) {
+                return mPendingSeek;
+            }
         }
         return -1;
     }
@@ -2089,11 +2521,23 @@ public class MediaPlaybackService extends Service implements
      * @param pos The position to seek to, in milliseconds
      */
     public long seek(long pos) {
-        if (mPlayer.isInitialized()) {
+        synchronized (this) {
+            if (mPendingSeek >= 0) {
+                // no need to prepare the track just to move around in it
+                mPendingSeek = Math.max(0, pos);
+                notifyChange(POSITION_CHANGED);
+                return mPendingSeek;
+            }
+        }
+        MultiPlayer player = mPlayer;
+        if (player.isInitialized()) {
             if (pos < 0) pos = 0;
-            if (pos > mPlayer.duration()) pos = mPlayer.duration();
-            long result = mPlayer.seek(pos);
+            long duration = player.duration();
+            if (pos > duration) pos = duration;
+            long result = player.seek(pos);
             fadeUp();
+            scheduleCrossfade();
+            notifyChange(POSITION_CHANGED);
             return result;
         }
         return -1;
@@ -2126,7 +2570,7 @@ public class MediaPlaybackService extends Service implements
     private class MultiPlayer {
         private MediaPlayer mMediaPlayer = new MediaPlayer();
         private Handler mHandler;
-        private boolean mIsInitialized = false;
+        private volatile boolean mIsInitialized = false;
 
         public MultiPlayer() {
             mMediaPlayer.setWakeMode(MediaPlaybackService.this, PowerManager.PARTIAL_WAKE_LOCK);
@@ -2166,7 +2610,7 @@ public class MediaPlaybackService extends Service implements
         }
 
         public void start() {
-            MusicUtils.debugLog(new Exception("MultiPlayer.start called"));
+            trace(EventTrace.PLAYER_START, 0);
             mMediaPlayer.start();
         }
 
@@ -2193,6 +2637,10 @@ public class MediaPlaybackService extends Service implements
 
         MediaPlayer.OnCompletionListener listener = new MediaPlayer.OnCompletionListener() {
             public void onCompletion(MediaPlayer mp) {
+                if (MultiPlayer.this != mPlayer) {
+                    // fading out; finishCrossfade() stops it
+                    return;
+                }
                 // Acquire a temporary wakelock, since when we return from
                 // this callback the MediaPlayer will release its wakelock
                 // and allow the device to go to sleep.
@@ -2215,7 +2663,9 @@ public class MediaPlaybackService extends Service implements
                     // service is still being restarted
                     mMediaPlayer = new MediaPlayer(); 
                     mMediaPlayer.setWakeMode(MediaPlaybackService.this, PowerManager.PARTIAL_WAKE_LOCK);
-                    mHandler.sendMessageDelayed(mHandler.obtainMessage(MediaplayerHandler.MESSAGE_SERVER_DIED), 2000);
+                    if (MultiPlayer.this == mPlayer) {
+                        mHandler.sendMessageDelayed(mHandler.obtainMessage(MediaplayerHandler.MESSAGE_SERVER_DIED), 2000);
+                    }
                     return true;
                 default:
                     Log.d("MultiPlayer", "Error: " + what + "," + extra);
@@ -2240,7 +2690,6 @@ public class MediaPlaybackService extends Service implements
 
         public void setVolume(float vol) {
             mMediaPlayer.setVolume(vol, vol);
-            mCurrentVolume = vol;
         }
 
         public void setAudioSessionId(int sessionId) {
@@ -2362,6 +2811,9 @@ public class MediaPlaybackService extends Service implements
         public int removeTrack(long id) {
             return mService.get().removeTrack(id);
         }
+        public int removeTracksById(long [] ids) {
+            return mService.get().removeTracksById(ids);
+        }
         public void setRepeatMode(int repeatmode) {
             mService.get().setRepeatMode(repeatmode);
         }
@@ -2374,10 +2826,18 @@ public class MediaPlaybackService extends Service implements
         public int getAudioSessionId() {
             return mService.get().getAudioSessionId();
         }
+        public long [] getMetric(String name) {
+            return Metrics.get(name);
+        }
     }
 
     @Override
     protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        if (args != null && args.length > 0 && "--trace-json".equals(args[0])) {
+            // dumpsys activity service MediaPlaybackService --trace-json > trace.json
+            EventTrace.dumpJson(writer);
+            return;
+        }
         writer.println("" + mPlayListLen + " items in queue, currently at index " + mPlayPos);
         writer.println("Currently loaded:");
         writer.println(getArtistName());
@@ -2388,70 +2848,23 @@ public class MediaPlaybackService extends Service implements
         writer.println("playing: " + mIsSupposedToBePlaying);
         writer.println("actual: " + mPlayer.mMediaPlayer.isPlaying());
         writer.println("shuffle mode: " + mShuffleMode);
-        MusicUtils.debugDump(writer);
+        mNotifier.dump(writer);
+        Metrics.dump(writer);
+        EventTrace.dump(writer);
     }
 
-    private final IBinder mBinder = new ServiceStub(this);
-
-	@Override
-	public void onAccuracyChanged(Sensor sensor, int accuracy) {
-		// TODO Auto-generated method stub
-
-	}
-
-	public void onSensorChanged(SensorEvent event) {
-
-		SharedPreferences preferences = getSharedPreferences(
-				MusicSettingsActivity.PREFERENCES_FILE, MODE_PRIVATE);
-		mPreferences.getBoolean(MusicSettingsActivity.KEY_FLIP, false);
-
-		SharedPreferences mPrefs = PreferenceManager
-				.getDefaultSharedPreferences(this);
-
-		int flipChange = new Integer(mPrefs.getInt(
-				MusicSettingsActivity.FLIP_SENSITIVITY,
-				MusicSettingsActivity.DEFAULT_FLIP_SENS));
-
-		FLIP_SENS = flipChange;
-
-		float vals[] = event.values;
-		PITCH = vals[1];// Pitch
-		ROLL = vals[2];// Roll
-
-		int nPITCH_UPER = PITCH_UPER;
-		int nPITCH_LOVER = PITCH_LOVER;
-		int nROLL_UPER = ROLL_UPER;
-		int nROLL_LOVER = ROLL_LOVER;
-
-		if (FLIP_SENS != 0) {
-			nPITCH_UPER = PITCH_UPER - FLIP_SENS;
-			nPITCH_LOVER = PITCH_LOVER + FLIP_SENS;
-			nROLL_UPER = ROLL_UPER + FLIP_SENS;
-			nROLL_LOVER = ROLL_LOVER - FLIP_SENS;
-		}
-		if (preferences.getBoolean(MusicSettingsActivity.KEY_FLIP, false)) {
-			if (PITCH > nPITCH_UPER || PITCH < nPITCH_LOVER) {
-				if (ROLL < nROLL_UPER && ROLL > nROLL_LOVER) {
-					if (isPlaying()) {
-						pause();
-						IsWorked = true;
-					}
-				} else if (PITCH > nPITCH_UPER || PITCH < nPITCH_LOVER) {
-					if (IsWorked) {
-						if (!isPlaying()) {
-							play();
-							IsWorked = false;
-						}
-					}
-				}
-			}
-		}
-	}
-
-	public static void setSensivity(int sensivity) {
-		FLIP_SENS = sensivity - 0;
+    /**
+     * Records an event along with the current track, see {@link EventTrace}.
+     * Reads the queue without locking, so it can be called from anywhere.
+     */
+    private void trace(int event, int arg) {
+        long [] list = mPlayList;
+        int pos = mPlayPos;
+        long id = list != null && pos >= 0 && pos < list.length ? list[pos] : -1;
+        EventTrace.record(event, arg, id, pos);
+    }
 
-	}
+    private final IBinder mBinder = new ServiceStub(this);
 
 	private void doPauseResume() {
 		if (isPlaying()) {
@@ -2474,52 +2887,29 @@ public class MediaPlaybackService extends Service implements
 		}
 	}
 
-	@Override
-	public void shakingStarted() {
-		SharedPreferences preferences = getSharedPreferences(
-				MusicSettingsActivity.PREFERENCES_FILE, MODE_PRIVATE);
-		shake_actions_db = preferences.getString("shake_actions_db", "1");
-		if (shake_actions_db.equals("1")) {
-			doPauseResume();
-		}
-		shake_actions_db = preferences.getString("shake_actions_db", "2");
-		if (shake_actions_db.equals("2")) {
-			doNext();
-		}
-		shake_actions_db = preferences.getString("shake_actions_db", "3");
-		if (shake_actions_db.equals("3")) {
-			doPrev();
-		}
-		shake_actions_db = preferences.getString("shake_actions_db", "4");
-		if (shake_actions_db.equals("4")) {
-			Cursor cursor;
-			cursor = MusicUtils.query(this,
-					MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-					new String[] { BaseColumns._ID }, AudioColumns.IS_MUSIC
-							+ "=1", null,
-					MediaStore.Audio.Media.DEFAULT_SORT_ORDER);
-			if (cursor != null) {
-				MusicUtils.shuffleAll(this, cursor);
-				cursor.close();
-			}
-		}
-		shake_actions_db = preferences.getString("shake_actions_db", "5");
-		if (shake_actions_db.equals("5")) {
-			int shuffle = getShuffleMode();
-			if (shuffle == SHUFFLE_AUTO) {
-				setShuffleMode(SHUFFLE_NONE);
-			} else {
-				setShuffleMode(SHUFFLE_AUTO);
-			}
-		}
-		shake_actions_db = preferences.getString("shake_actions_db", "0");
-		if (shake_actions_db.equals("0")) {
-			// Nothing - this needs to stay last
+	private void doShakeAction(ShakeControl.Action action, long [] list) {
+		switch (action) {
+			case PAUSE:
+				doPauseResume();
+				break;
+			case NEXT:
+				doNext();
+				break;
+			case PREV:
+				doPrev();
+				break;
+			case SHUFFLE:
+				setShuffleMode(SHUFFLE_NORMAL);
+				open(list, -1);
+				play();
+				break;
+			case PARTY_SHUFFLE:
+				if (getShuffleMode() == SHUFFLE_AUTO) {
+					setShuffleMode(SHUFFLE_NONE);
+				} else {
+					setShuffleMode(SHUFFLE_AUTO);
+				}
+				break;
 		}
 	}
-
-	@Override
-	public void shakingStopped() {
-
-	}
 }
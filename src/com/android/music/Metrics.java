@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms and counters for the playback paths, for the
+ * service's dump and for {@link IMediaPlaybackService#getMetric}.
+ * Recording is lock-free, so it can be done from any thread.
+ */
+final class Metrics {
+    // guarded by sMetrics, and declared first so it exists when the
+    // histograms below register themselves
+    private static final ArrayList<Object> sMetrics = new ArrayList<Object>();
+
+    // The names of the things that are measured everywhere. Others, like
+    // the change notifier's sinks, register their own.
+    static final Histogram OPEN = histogram("open/prepare");
+    static final Histogram NEXT = histogram("next");
+    static final Histogram SAVE_QUEUE = histogram("save queue");
+    static final Histogram SAVE_QUEUE_FULL = histogram("save queue (full)");
+    static final Histogram ART_DECODE = histogram("art decode");
+    static final Histogram WIDGET_ART = histogram("widget art");
+    static final Histogram SERVICE_CREATE = histogram("service create");
+    static final Histogram SERVICE_READY = histogram("service ready");
+    static final Counter SKIPS = counter("skips");
+    static final Counter OPEN_FAILURES = counter("open failures");
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the histogram with the given name, creating it if needed.
+     */
+    static Histogram histogram(String name) {
+        synchronized (sMetrics) {
+            Object m = find(name);
+            if (m == null) {
+                m = new Histogram(name);
+                sMetrics.add(m);
+            }
+            return (Histogram) m;
+        }
+    }
+
+    /**
+     * Returns the counter with the given name, creating it if needed.
+     */
+    static Counter counter(String name) {
+        synchronized (sMetrics) {
+            Object m = find(name);
+            if (m == null) {
+                m = new Counter(name);
+                sMetrics.add(m);
+            }
+            return (Counter) m;
+        }
+    }
+
+    private static Object find(String name) {
+        for (int i = 0; i < sMetrics.size(); i++) {
+            Object m = sMetrics.get(i);
+            String n = m instanceof Histogram ? ((Histogram) m).mName : ((Counter) m).mName;
+            if (n.equals(name)) {
+                return m;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the current time, to be passed to Histogram.recordSince() later.
+     */
+    static long start() {
+        return System.nanoTime();
+    }
+
+    static class Counter {
+        final String mName;
+        private final AtomicLong mValue = new AtomicLong();
+
+        private Counter(String name) {
+            mName = name;
+        }
+
+        void increment() {
+            mValue.incrementAndGet();
+        }
+
+        long get() {
+            return mValue.get();
+        }
+    }
+
+    /**
+     * A histogram of durations in microseconds. Values below 16 get a
+     * bucket each, above that every power of two is split into 8
+     * buckets, so every value is known to within 12.5%, from a
+     * microsecond to over a day, in a few hundred buckets.
+     */
+    static class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private static final int LINEAR = 2 * SUB_BUCKETS;
+        private static final int MAX_EXPONENT = 40;
+        private static final int BUCKETS = LINEAR + (MAX_EXPONENT - SUB_BITS) * SUB_BUCKETS;
+
+        final String mName;
+        private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        private Histogram(String name) {
+            mName = name;
+        }
+
+        static int bucketFor(long value) {
+            if (value < LINEAR) {
+                return (int) Math.max(0, value);
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            int bucket = LINEAR + (exponent - SUB_BITS - 1) * SUB_BUCKETS + sub;
+            return Math.min(bucket, BUCKETS - 1);
+        }
+
+        /**
+         * Returns the largest value that falls into the given bucket.
+         */
+        static long highestValueIn(int bucket) {
+            if (bucket < LINEAR) {
+                return bucket;
+            }
+            int exponent = (bucket - LINEAR) / SUB_BUCKETS + SUB_BITS + 1;
+            int sub = (bucket - LINEAR) % SUB_BUCKETS;
+            long low = (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+            return low + (1L << (exponent - SUB_BITS)) - 1;
+        }
+
+        /**
+         * Records a duration in microseconds.
+         */
+        void record(long micros) {
+            mCounts.incrementAndGet(bucketFor(micros));
+            mCount.incrementAndGet();
+            mSum.addAndGet(micros);
+            long max;
+            while (micros > (max = mMax.get())) {
+                if (mMax.compareAndSet(max, micros)) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Records the time since the given result of Metrics.start().
+         */
+        void recordSince(long start) {
+            record((System.nanoTime() - start) / 1000);
+        }
+
+        long getCount() {
+            return mCount.get();
+        }
+
+        long getMax() {
+            return mMax.get();
+        }
+
+        long getMean() {
+            long count = mCount.get();
+            return count == 0 ? 0 : mSum.get() / count;
+        }
+
+        /**
+         * Returns the value below which the given fraction of the recorded
+         * values fall, rounded up to the end of its bucket.
+         */
+        long getPercentile(double fraction) {
+            long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+            long wanted = Math.max(1, (long) Math.ceil(count * fraction));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += mCounts.get(i);
+                if (seen >= wanted) {
+                    return Math.min(highestValueIn(i), mMax.get());
+                }
+            }
+            return mMax.get();
+        }
+    }
+
+    /**
+     * Returns { count, mean, 50th, 90th, 99th percentile, max } in
+     * microseconds for a histogram, { value } for a counter, or null if
+     * there is nothing by that name.
+     */
+    static long [] get(String name) {
+        Object m;
+        synchronized (sMetrics) {
+            m = find(name);
+        }
+        if (m instanceof Histogram) {
+            Histogram h = (Histogram) m;
+            return new long [] { h.getCount(), h.getMean(), h.getPercentile(0.5),
+                    h.getPercentile(0.9), h.getPercentile(0.99), h.getMax() };
+        } else if (m instanceof Counter) {
+            return new long [] { ((Counter) m).get() };
+        }
+        return null;
+    }
+
+    static void dump(PrintWriter writer) {
+        Object [] metrics;
+        synchronized (sMetrics) {
+            metrics = sMetrics.toArray();
+        }
+        writer.println("latencies (us): count, mean, p50, p90, p99, max");
+        for (Object m : metrics) {
+            if (m instanceof Histogram) {
+                Histogram h = (Histogram) m;
+                writer.println("  " + h.mName + ": " + h.getCount() + ", " + h.getMean()
+                        + ", " + h.getPercentile(0.5) + ", " + h.getPercentile(0.9)
+                        + ", " + h.getPercentile(0.99) + ", " + h.getMax());
+            }
+        }
+        writer.println("counters:");
+        for (Object m : metrics) {
+            if (m instanceof Counter) {
+                writer.println("  " + ((Counter) m).mName + ": " + ((Counter) m).get());
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music;
+
+/**
+ * Turns a stream of sensor samples into gestures. Implementations only
+ * do arithmetic and don't depend on the framework, so recorded traces
+ * can be replayed through them off the device.
+ */
+public interface MotionDetector {
+    /**
+     * Returned by onSample() when nothing was detected.
+     */
+    int NONE = 0;
+
+    /**
+     * Forgets all samples seen so far.
+     */
+    void reset();
+
+    /**
+     * @param time sample time in milliseconds
+     * @param values the sample, laid out as in SensorEvent.values
+     * @return one of the detector's results, or NONE
+     */
+    int onSample(long time, float [] values);
+}
@@ -30,6 +30,7 @@ public class MusicSettingsActivity extends PreferenceActivity implements
 
     static final String KEY_ENABLE_FOCUS_LOSS_DUCKING = "enable_focus_loss_ducking";
     static final String KEY_DUCK_ATTENUATION_DB = "duck_attenuation_db";
+    static final String KEY_CROSSFADE_SECONDS = "crossfade_seconds";
     static final String KEY_ENABLE_GESTURES = "enable_gestures";
     static final String KEY_ENABLE_HAPTIC_FEEDBACK = "enable_haptic_feedback";
     static final String KEY_HAS_CUSTOM_GESTURES = "has_custom_gestures";
@@ -47,13 +48,15 @@ public class MusicSettingsActivity extends PreferenceActivity implements
     public static final String KEY_TICK = "cbStatusTicker";
 
     static final String DEFAULT_DUCK_ATTENUATION_DB = "8";
+    static final String DEFAULT_CROSSFADE_SECONDS = "0";
+    static final int MAX_CROSSFADE_SECONDS = 12;
 
     static final String ACTION_ENABLE_GESTURES_CHANGED = "com.android.music.enablegestureschanged";
-    static final String ACTION_GESTURES_CHANGED = "com.android.music.gestureschanged";
 
     static final String PREFERENCES_FILE = "settings";
 
     public static final String KEY_FLIP = "cbFlip";
+    static final String KEY_SHAKE_ACTION = "shake_actions_db";
 	// Shake and Flip sensitivity
 	static final double DEFAULT_SHAKE_SENS = 2;
 	static final int DEFAULT_FLIP_SENS = 10;
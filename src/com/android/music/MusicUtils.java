@@ -17,6 +17,7 @@
 package com.android.music;
 
 import android.app.Activity;
+import android.app.ProgressDialog;
 import android.content.ActivityNotFoundException;
 import android.content.ComponentName;
 import android.content.ContentResolver;
@@ -24,6 +25,7 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.ContextWrapper;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.SharedPreferences;
@@ -48,7 +50,6 @@ import android.os.RemoteException;
 import android.provider.MediaStore;
 import android.provider.Settings;
 import android.text.TextUtils;
-import android.text.format.Time;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -64,7 +65,6 @@ import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintWriter;
 import java.util.Arrays;
 import java.util.Formatter;
 import java.util.HashMap;
@@ -483,71 +483,108 @@ public class MusicUtils {
         return;
     }
     
-    public static void deleteTracks(Context context, long [] list) {
-        
-        String [] cols = new String [] { MediaStore.Audio.Media._ID, 
-                MediaStore.Audio.Media.DATA, MediaStore.Audio.Media.ALBUM_ID };
-        StringBuilder where = new StringBuilder();
-        where.append(MediaStore.Audio.Media._ID + " IN (");
-        for (int i = 0; i < list.length; i++) {
-            where.append(list[i]);
-            if (i < list.length - 1) {
-                where.append(",");
+    // edits of fewer tracks than this are over too soon to show their progress
+    private static final int EDIT_PROGRESS_MIN = 500;
+
+    /**
+     * Shows the progress of a long library edit in a dialog, which can
+     * cancel it until the edit is committed, and hands the result to
+     * onDone().
+     */
+    private static abstract class EditProgress implements LibraryEditor.Listener {
+        private ProgressDialog mDialog;
+        private Activity mActivity;
+
+        /**
+         * Shows the dialog, if the edit is big enough and the context is
+         * an activity to show it in.
+         */
+        void show(Context context, int message, int total, final LibraryEditor.Job job) {
+            if (total < EDIT_PROGRESS_MIN || !(context instanceof Activity)
+                    || ((Activity) context).isFinishing()) {
+                return;
             }
+            mActivity = (Activity) context;
+            final Context appcontext = context.getApplicationContext();
+            mDialog = new ProgressDialog(context);
+            mDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            mDialog.setMessage(context.getText(message));
+            mDialog.setMax(total);
+            mDialog.setButton(DialogInterface.BUTTON_NEGATIVE, context.getText(R.string.cancel),
+                    new DialogInterface.OnClickListener() {
+                public void onClick(DialogInterface dialog, int which) {
+                    cancel(appcontext, job);
+                }
+            });
+            mDialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
+                public void onCancel(DialogInterface dialog) {
+                    cancel(appcontext, job);
+                }
+            });
+            mDialog.show();
         }
-        where.append(")");
-        Cursor c = query(context, MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, cols,
-                where.toString(), null, null);
 
-        if (c != null) {
+        private void cancel(Context context, LibraryEditor.Job job) {
+            if (!job.cancel()) {
+                // committed before onCommitted() got here
+                Toast.makeText(context, R.string.edit_not_cancelled, Toast.LENGTH_SHORT).show();
+            }
+        }
 
-            // step 1: remove selected tracks from the current playlist, as well
-            // as from the album art cache
-            try {
-                c.moveToFirst();
-                while (! c.isAfterLast()) {
-                    // remove from current playlist
-                    long id = c.getLong(0);
-                    sService.removeTrack(id);
-                    // remove from album art cache
-                    long artIndex = c.getLong(2);
-                    synchronized(sArtCache) {
-                        sArtCache.remove(artIndex);
-                    }
-                    c.moveToNext();
-                }
-            } catch (RemoteException ex) {
+        public void onCommitted() {
+            if (mDialog != null) {
+                mDialog.setCancelable(false);
+                mDialog.getButton(DialogInterface.BUTTON_NEGATIVE).setEnabled(false);
             }
+        }
 
-            // step 2: remove selected tracks from the database
-            context.getContentResolver().delete(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, where.toString(), null);
+        public void onProgress(int done, int total) {
+            if (mDialog != null) {
+                mDialog.setProgress(done);
+            }
+        }
 
-            // step 3: remove files from card
-            c.moveToFirst();
-            while (! c.isAfterLast()) {
-                String name = c.getString(1);
-                File f = new File(name);
-                try {  // File.delete can throw a security exception
-                    if (!f.delete()) {
-                        // I'm not sure if we'd ever get here (deletion would
-                        // have to fail, but no exception thrown)
-                        Log.e("MusicUtils", "Failed to delete file " + name);
-                    }
-                    c.moveToNext();
-                } catch (SecurityException ex) {
-                    c.moveToNext();
+        public void onComplete(int count) {
+            if (mDialog != null) {
+                if (mDialog.isShowing() && !mActivity.isFinishing()) {
+                    mDialog.dismiss();
                 }
+                mDialog = null;
+                mActivity = null;
             }
-            c.close();
+            onDone(count);
         }
 
-        String message = context.getResources().getQuantityString(
-                R.plurals.NNNtracksdeleted, list.length, Integer.valueOf(list.length));
-        
-        Toast.makeText(context, message, Toast.LENGTH_SHORT).show();
-        // We deleted a number of tracks, which could affect any number of things
-        // in the media content domain, so update everything.
-        context.getContentResolver().notifyChange(Uri.parse("content://media"), null);
+        abstract void onDone(int count);
+    }
+
+    /**
+     * Deletes the given tracks in the background, showing the progress if
+     * there are a lot of them.
+     * @param whenDone run on the main thread once the delete has finished
+     * or was cancelled, or null
+     */
+    public static void deleteTracks(Context context, long [] list, final Runnable whenDone) {
+        final Context appcontext = context.getApplicationContext();
+        EditProgress progress = new EditProgress() {
+            void onDone(int count) {
+                if (whenDone != null) {
+                    whenDone.run();
+                }
+                if (count < 0) {
+                    return;
+                }
+                String message = appcontext.getResources().getQuantityString(
+                        R.plurals.NNNtracksdeleted, count, Integer.valueOf(count));
+
+                Toast.makeText(appcontext, message, Toast.LENGTH_SHORT).show();
+                // We deleted a number of tracks, which could affect any number of things
+                // in the media content domain, so update everything.
+                appcontext.getContentResolver().notifyChange(Uri.parse("content://media"), null);
+            }
+        };
+        progress.show(context, R.string.deleting_tracks, list.length,
+                LibraryEditor.getInstance(context).deleteTracks(list, progress));
     }
 
     public static void sendTracks(Context context, long [] list) {
@@ -603,60 +640,30 @@ public class MusicUtils {
         }
     }
 
-    private static ContentValues[] sContentValuesCache = null;
-
     /**
-     * @param ids The source array containing all the ids to be added to the playlist
-     * @param offset Where in the 'ids' array we start reading
-     * @param len How many items to copy during this pass
-     * @param base The play order offset to use for this pass
+     * Appends the given tracks to a playlist. The provider work is done
+     * on a background thread, with its progress shown if there are a lot
+     * of tracks, and a toast is shown once it has finished.
      */
-    private static void makeInsertItems(long[] ids, int offset, int len, int base) {
-        // adjust 'len' if would extend beyond the end of the source array
-        if (offset + len > ids.length) {
-            len = ids.length - offset;
-        }
-        // allocate the ContentValues array, or reallocate if it is the wrong size
-        if (sContentValuesCache == null || sContentValuesCache.length != len) {
-            sContentValuesCache = new ContentValues[len];
-        }
-        // fill in the ContentValues array with the right values for this pass
-        for (int i = 0; i < len; i++) {
-            if (sContentValuesCache[i] == null) {
-                sContentValuesCache[i] = new ContentValues();
-            }
-
-            sContentValuesCache[i].put(MediaStore.Audio.Playlists.Members.PLAY_ORDER, base + offset + i);
-            sContentValuesCache[i].put(MediaStore.Audio.Playlists.Members.AUDIO_ID, ids[offset + i]);
-        }
-    }
-    
     public static void addToPlaylist(Context context, long [] ids, long playlistid) {
         if (ids == null) {
             // this shouldn't happen (the menuitems shouldn't be visible
             // unless the selected item represents something playable
             Log.e("MusicBase", "ListSelection null");
         } else {
-            int size = ids.length;
-            ContentResolver resolver = context.getContentResolver();
-            // need to determine the number of items currently in the playlist,
-            // so the play_order field can be maintained.
-            String[] cols = new String[] {
-                    "count(*)"
+            final Context appcontext = context.getApplicationContext();
+            EditProgress progress = new EditProgress() {
+                void onDone(int numinserted) {
+                    if (numinserted < 0) {
+                        return;
+                    }
+                    String message = appcontext.getResources().getQuantityString(
+                            R.plurals.NNNtrackstoplaylist, numinserted, numinserted);
+                    Toast.makeText(appcontext, message, Toast.LENGTH_SHORT).show();
+                }
             };
-            Uri uri = MediaStore.Audio.Playlists.Members.getContentUri("external", playlistid);
-            Cursor cur = resolver.query(uri, cols, null, null, null);
-            cur.moveToFirst();
-            int base = cur.getInt(0);
-            cur.close();
-            int numinserted = 0;
-            for (int i = 0; i < size; i += 1000) {
-                makeInsertItems(ids, i, 1000, base);
-                numinserted += resolver.bulkInsert(uri, sContentValuesCache);
-            }
-            String message = context.getResources().getQuantityString(
-                    R.plurals.NNNtrackstoplaylist, numinserted, numinserted);
-            Toast.makeText(context, message, Toast.LENGTH_SHORT).show();
+            progress.show(context, R.string.adding_to_playlist, ids.length,
+                    LibraryEditor.getInstance(context).addToPlaylist(ids, playlistid, progress));
             //mLastPlaylistSelected = playlistid;
         }
     }
@@ -836,6 +843,43 @@ public class MusicUtils {
 
         return sFormatter.format(durationformat, timeArgs).toString();
     }
+
+    /**
+     * Writes the time in the same format as makeTimeString() into the
+     * given buffer, without allocating anything. The buffer needs to hold
+     * at least 24 chars.
+     * @return the number of chars written
+     */
+    static int formatTime(char [] buf, long secs) {
+        if (secs < 0) {
+            secs = 0;
+        }
+        int len;
+        if (secs < 3600) {
+            len = appendNumber(buf, 0, secs / 60, 1);
+        } else {
+            len = appendNumber(buf, 0, secs / 3600, 1);
+            buf[len++] = ':';
+            len = appendNumber(buf, len, (secs / 60) % 60, 2);
+        }
+        buf[len++] = ':';
+        return appendNumber(buf, len, secs % 60, 2);
+    }
+
+    private static int appendNumber(char [] buf, int pos, long value, int mindigits) {
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            digits++;
+        }
+        if (digits < mindigits) {
+            digits = mindigits;
+        }
+        for (int i = pos + digits - 1; i >= pos; i--) {
+            buf[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return pos + digits;
+    }
     
     public static void shuffleAll(Context context, Cursor cursor) {
         playAll(context, cursor, 0, true);
@@ -891,11 +935,15 @@ public class MusicUtils {
             sService.play();
         } catch (RemoteException ex) {
         } finally {
-            Intent intent = new Intent("com.android.music.PLAYBACK_VIEWER")
-                .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK|Intent.FLAG_ACTIVITY_CLEAR_TOP);
-            context.startActivity(intent);
+            showPlaybackViewer(context);
         }
     }
+
+    static void showPlaybackViewer(Context context) {
+        Intent intent = new Intent("com.android.music.PLAYBACK_VIEWER")
+            .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK|Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        context.startActivity(intent);
+    }
     
     public static void clearQueue() {
         try {
@@ -958,6 +1006,12 @@ public class MusicUtils {
         }
     }
 
+    static void removeFromArtCache(long albumid) {
+        synchronized(sArtCache) {
+            sArtCache.remove(albumid);
+        }
+    }
+
     public static void clearAlbumArtCache() {
         synchronized(sArtCache) {
             sArtCache.clear();
@@ -1459,50 +1513,4 @@ public class MusicUtils {
         }
         return id;
     }
-
-    static class LogEntry {
-        Object item;
-        long time;
-
-        LogEntry(Object o) {
-            item = o;
-            time = System.currentTimeMillis();
-        }
-
-        void dump(PrintWriter out) {
-            sTime.set(time);
-            out.print(sTime.toString() + " : ");
-            if (item instanceof Exception) {
-                ((Exception)item).printStackTrace(out);
-            } else {
-                out.println(item);
-            }
-        }
-    }
-
-    private static LogEntry[] sMusicLog = new LogEntry[100];
-    private static int sLogPtr = 0;
-    private static Time sTime = new Time();
-
-    static void debugLog(Object o) {
-
-        sMusicLog[sLogPtr] = new LogEntry(o);
-        sLogPtr++;
-        if (sLogPtr >= sMusicLog.length) {
-            sLogPtr = 0;
-        }
-    }
-
-    static void debugDump(PrintWriter out) {
-        for (int i = 0; i < sMusicLog.length; i++) {
-            int idx = (sLogPtr + i);
-            if (idx >= sMusicLog.length) {
-                idx -= sMusicLog.length;
-            }
-            LogEntry entry = sMusicLog[idx];
-            if (entry != null) {
-                entry.dump(out);
-            }
-        }
-    }
 }
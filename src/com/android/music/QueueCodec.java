@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.music;
+
+/**
+ * The format the play queue and the shuffle history are saved in: every
+ * entry as "reverse hexadecimal" digits, lowest digit first, followed by
+ * a ';'. We can generate that faster than normal decimal or hexadecimal
+ * numbers, which in turn allows us to save the playlist more often
+ * without worrying too much about performance.
+ */
+final class QueueCodec {
+    private static final char HEXDIGITS [] = new char [] {
+            '0', '1', '2', '3',
+            '4', '5', '6', '7',
+            '8', '9', 'a', 'b',
+            'c', 'd', 'e', 'f'
+    };
+
+    private QueueCodec() {
+    }
+
+    /**
+     * Appends an entry. Negative ones, which aren't valid ids, are left
+     * out.
+     */
+    static void append(StringBuilder q, long n) {
+        if (n < 0) {
+            return;
+        } else if (n == 0) {
+            q.append("0;");
+        } else {
+            while (n != 0) {
+                int digit = (int)(n & 0xf);
+                n >>>= 4;
+                q.append(HEXDIGITS[digit]);
+            }
+            q.append(";");
+        }
+    }
+
+    /**
+     * Parses a list of entries, or returns null if there is none or it
+     * is bogus.
+     */
+    static long [] decode(String q) {
+        int qlen = q != null ? q.length() : 0;
+        if (qlen <= 1) {
+            return null;
+        }
+        int count = 0;
+        for (int i = 0; i < qlen; i++) {
+            if (q.charAt(i) == ';') {
+                count++;
+            }
+        }
+        long [] list = new long[count];
+        int plen = 0;
+        long n = 0;
+        int shift = 0;
+        for (int i = 0; i < qlen; i++) {
+            char c = q.charAt(i);
+            if (c == ';') {
+                list[plen] = n;
+                plen++;
+                n = 0;
+                shift = 0;
+            } else {
+                if (c >= '0' && c <= '9') {
+                    n += ((long) (c - '0') << shift);
+                } else if (c >= 'a' && c <= 'f') {
+                    n += ((long) (10 + c - 'a') << shift);
+                } else {
+                    // bogus data
+                    return null;
+                }
+                shift += 4;
+            }
+        }
+        return list;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.music;
+
+/**
+ * Edits of the play queue, which is kept as the first entries of a long
+ * array. The service holds the lock and keeps track of its position in
+ * the queue; these only move the ids around.
+ */
+final class QueueOps {
+    private QueueOps() {
+    }
+
+    /**
+     * Returns an array with room for at least the given number of entries
+     * and the first 'len' entries of 'list', which is 'list' itself if it
+     * is big enough already.
+     */
+    static long [] ensureCapacity(long [] list, int len, int size) {
+        if (list != null && size <= list.length) {
+            return list;
+        }
+        // reallocate at 2x requested size so we don't
+        // need to grow and copy the array for every
+        // insert
+        long [] newlist = new long[size * 2];
+        if (list != null) {
+            System.arraycopy(list, 0, newlist, 0, len);
+        }
+        return newlist;
+        // FIXME: shrink the array when the needed size is much smaller
+        // than the allocated size
+    }
+
+    /**
+     * Inserts 'add' at 'position' into a queue of 'len' entries. The array
+     * must have room for them.
+     */
+    static void insert(long [] list, int len, long [] add, int position) {
+        // move part of list after insertion point
+        System.arraycopy(list, position, list, position + add.length, len - position);
+        // copy list into playlist
+        System.arraycopy(add, 0, list, position, add.length);
+    }
+
+    /**
+     * Moves the entry at 'from' to 'to', shifting the ones in between.
+     * @param pos a position in the queue
+     * @return where the entry that was at 'pos' is now
+     */
+    static int move(long [] list, int from, int to, int pos) {
+        if (from < to) {
+            long tmp = list[from];
+            System.arraycopy(list, from + 1, list, from, to - from);
+            list[to] = tmp;
+            if (pos == from) {
+                pos = to;
+            } else if (pos >= from && pos <= to) {
+                pos--;
+            }
+        } else if (to < from) {
+            long tmp = list[from];
+            System.arraycopy(list, to, list, to + 1, from - to);
+            list[to] = tmp;
+            if (pos == from) {
+                pos = to;
+            } else if (pos >= to && pos <= from) {
+                pos++;
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Removes the entries from 'first' to 'last', inclusive, from a queue
+     * of 'len' entries.
+     * @return the new length
+     */
+    static int removeRange(long [] list, int len, int first, int last) {
+        System.arraycopy(list, last + 1, list, first, len - last - 1);
+        return len - (last - first + 1);
+    }
+}
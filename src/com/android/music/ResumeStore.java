@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.music;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+/**
+ * Remembers where long tracks that aren't podcasts, like audiobooks and
+ * mixes, were left off, for the most recently used few hundred of them.
+ * <p>
+ * The positions live in a small memory-mapped file of fixed slots, so
+ * reading and updating one is a memory access: no I/O is done and
+ * nothing is queried when a track is opened or skipped. Opening a track
+ * only marks its slot as recently used, in the mapped page, and the
+ * kernel writes the file back on its own, even if the process is killed.
+ */
+final class ResumeStore {
+    static final int MAX_ENTRIES = 256;
+
+    // header: magic, unused, use counter
+    private static final int MAGIC = 0x52534d31;
+    private static final int CLOCK_OFFSET = 8;
+    private static final int HEADER_SIZE = 16;
+    // slot: audio id (0 for a free slot), position in ms, last use
+    private static final int SLOT_SIZE = 24;
+    private static final int SIZE = HEADER_SIZE + MAX_ENTRIES * SLOT_SIZE;
+
+    private final ByteBuffer mBuffer;
+    // audio id -> slot
+    private final HashMap<Long, Integer> mSlots = new HashMap<Long, Integer>();
+    private long mClock;
+
+    /**
+     * Opens the store in the given file, creating it if needed.
+     */
+    static ResumeStore open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // the mapping stays valid after the file is closed
+            return new ResumeStore(raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SIZE));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns a store that only keeps positions in memory, for when the
+     * file can't be mapped.
+     */
+    static ResumeStore inMemory() {
+        return new ResumeStore(ByteBuffer.allocate(SIZE));
+    }
+
+    ResumeStore(ByteBuffer buffer) {
+        mBuffer = buffer;
+        if (buffer.getInt(0) != MAGIC) {
+            // new, or not ours
+            for (int i = 0; i < SIZE; i += 8) {
+                buffer.putLong(i, 0);
+            }
+            buffer.putInt(0, MAGIC);
+        }
+        mClock = buffer.getLong(CLOCK_OFFSET);
+        for (int slot = 0; slot < MAX_ENTRIES; slot++) {
+            long id = buffer.getLong(offset(slot));
+            if (id != 0) {
+                mSlots.put(id, slot);
+            }
+        }
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private void touch(int slot) {
+        mBuffer.putLong(offset(slot) + 16, ++mClock);
+        mBuffer.putLong(CLOCK_OFFSET, mClock);
+    }
+
+    /**
+     * Returns the position to resume the given track at, or 0.
+     */
+    synchronized long get(long audioId) {
+        Integer slot = mSlots.get(audioId);
+        if (slot == null) {
+            return 0;
+        }
+        touch(slot);
+        return mBuffer.getLong(offset(slot) + 8);
+    }
+
+    /**
+     * Sets the position to resume a track at; 0 forgets it. When the
+     * store is full, the least recently used track makes room.
+     */
+    synchronized void put(long audioId, long position) {
+        if (audioId <= 0) {
+            return;
+        }
+        Integer slot = mSlots.get(audioId);
+        if (position <= 0) {
+            if (slot != null) {
+                mSlots.remove(audioId);
+                mBuffer.putLong(offset(slot), 0);
+            }
+            return;
+        }
+        if (slot == null) {
+            slot = freeSlot();
+            mSlots.put(audioId, slot);
+            // the id goes in last, so that if the process dies in between,
+            // the file never pairs it with the previous occupant's position
+            mBuffer.putLong(offset(slot), 0);
+            mBuffer.putLong(offset(slot) + 8, position);
+            touch(slot);
+            mBuffer.putLong(offset(slot), audioId);
+            return;
+        }
+        mBuffer.putLong(offset(slot) + 8, position);
+        touch(slot);
+    }
+
+    /**
+     * Returns an unused slot, emptying the least recently used one if
+     * there is none.
+     */
+    private int freeSlot() {
+        int oldest = 0;
+        long oldestUse = Long.MAX_VALUE;
+        for (int slot = 0; slot < MAX_ENTRIES; slot++) {
+            int offset = offset(slot);
+            if (mBuffer.getLong(offset) == 0) {
+                return slot;
+            }
+            long use = mBuffer.getLong(offset + 16);
+            if (use < oldestUse) {
+                oldestUse = use;
+                oldest = slot;
+            }
+        }
+        mSlots.remove(mBuffer.getLong(offset(oldest)));
+        return oldest;
+    }
+}
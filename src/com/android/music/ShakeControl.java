@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.preference.PreferenceManager;
+import android.provider.MediaStore;
+import android.util.Log;
+
+/**
+ * Runs the configured action when the phone is shaken. The accelerometer
+ * is only listened to while an action is configured, and its samples are
+ * handled on a thread of their own. When the action is to shuffle all
+ * music, the list of tracks is kept ready, so a shake doesn't have to
+ * wait for the media database.
+ */
+class ShakeControl implements SharedPreferences.OnSharedPreferenceChangeListener {
+    private static final String TAG = "ShakeControl";
+    // same as the ListPreference default in settings.xml: no action
+    private static final String DEFAULT_ACTION = "0";
+
+    /**
+     * The values of the shake action setting, in order.
+     */
+    enum Action {
+        NONE, PAUSE, NEXT, PREV, SHUFFLE, PARTY_SHUFFLE;
+
+        static Action fromPref(String value) {
+            try {
+                int i = Integer.parseInt(value);
+                Action [] actions = values();
+                return i >= 0 && i < actions.length ? actions[i] : NONE;
+            } catch (NumberFormatException ex) {
+                return NONE;
+            }
+        }
+    }
+
+    /**
+     * Called on the main thread.
+     */
+    public interface Callback {
+        /**
+         * @param list all music, for Action.SHUFFLE, otherwise null
+         */
+        void onShake(Action action, long [] list);
+    }
+
+    private static final int LOAD_LIST = 1;
+    private static final int SET_THRESHOLD = 2;
+    private static final int QUIT = 3;
+    // the scanner sends lots of change notifications, wait for them to settle
+    private static final long LOAD_DELAY = 1000;
+
+    private final Context mContext;
+    private final Callback mCallback;
+    private final SensorManager mSensorManager;
+    private final Sensor mSensor;
+    private final SharedPreferences mSettings;
+    private final SharedPreferences mDefaultPrefs;
+    private final Worker mWorker;
+    private final Handler mWorkerHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ContentObserver mObserver;
+    // only touched on the worker thread
+    private final ShakeDetector mDetector = new ShakeDetector();
+
+    private volatile Action mAction;
+    // all music, loaded on the worker while the action is SHUFFLE
+    private volatile long [] mList;
+    private boolean mRegistered;
+
+    ShakeControl(Context context, Callback callback) {
+        mContext = context;
+        mCallback = callback;
+        mSensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        mSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        mWorker = new Worker("shake");
+        mWorkerHandler = new Handler(mWorker.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                switch (msg.what) {
+                    case LOAD_LIST:
+                        mList = mAction == Action.SHUFFLE ? loadList() : null;
+                        break;
+                    case SET_THRESHOLD:
+                        mDetector.setThreshold(getThreshold(msg.arg1));
+                        break;
+                    case QUIT:
+                        mWorker.quit();
+                        break;
+                }
+            }
+        };
+        mObserver = new ContentObserver(mWorkerHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                mList = null;
+                mWorkerHandler.removeMessages(LOAD_LIST);
+                mWorkerHandler.sendEmptyMessageDelayed(LOAD_LIST, LOAD_DELAY);
+            }
+        };
+        context.getContentResolver().registerContentObserver(
+                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, mObserver);
+
+        mSettings = context.getSharedPreferences(
+                MusicSettingsActivity.PREFERENCES_FILE, Context.MODE_PRIVATE);
+        mDefaultPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mSettings.registerOnSharedPreferenceChangeListener(this);
+        mDefaultPrefs.registerOnSharedPreferenceChangeListener(this);
+        setThreshold(mDefaultPrefs.getInt(MusicSettingsActivity.SHAKE_SENSITIVITY,
+                (int) MusicSettingsActivity.DEFAULT_SHAKE_SENS));
+        setAction(mSettings.getString(MusicSettingsActivity.KEY_SHAKE_ACTION, DEFAULT_ACTION));
+    }
+
+    void release() {
+        mSettings.unregisterOnSharedPreferenceChangeListener(this);
+        mDefaultPrefs.unregisterOnSharedPreferenceChangeListener(this);
+        mContext.getContentResolver().unregisterContentObserver(mObserver);
+        if (mRegistered) {
+            mSensorManager.unregisterListener(mListener);
+            mRegistered = false;
+        }
+        // let the worker finish what it's doing first
+        mWorkerHandler.sendEmptyMessage(QUIT);
+    }
+
+    public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+        if (MusicSettingsActivity.KEY_SHAKE_ACTION.equals(key) && prefs == mSettings) {
+            setAction(prefs.getString(key, DEFAULT_ACTION));
+        } else if (MusicSettingsActivity.SHAKE_SENSITIVITY.equals(key) && prefs == mDefaultPrefs) {
+            setThreshold(prefs.getInt(key, (int) MusicSettingsActivity.DEFAULT_SHAKE_SENS));
+        }
+    }
+
+    private static double getThreshold(int sensitivity) {
+        // the phone lying still already measures 1g
+        return sensitivity == 0 ? ShakeDetector.THRESHOLD : sensitivity + .25d;
+    }
+
+    private void setThreshold(int sensitivity) {
+        mWorkerHandler.obtainMessage(SET_THRESHOLD, sensitivity, 0).sendToTarget();
+    }
+
+    private void setAction(String value) {
+        mAction = Action.fromPref(value);
+        mWorkerHandler.sendEmptyMessage(LOAD_LIST);
+
+        boolean wanted = mAction != Action.NONE && mSensor != null;
+        if (wanted == mRegistered) {
+            return;
+        }
+        if (wanted) {
+            mSensorManager.registerListener(mListener, mSensor,
+                    SensorManager.SENSOR_DELAY_UI, mWorkerHandler);
+        } else {
+            mSensorManager.unregisterListener(mListener);
+        }
+        mRegistered = wanted;
+    }
+
+    private long [] loadList() {
+        Cursor c = null;
+        try {
+            c = MusicUtils.query(mContext, MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                    new String [] { MediaStore.Audio.Media._ID },
+                    MediaStore.Audio.Media.IS_MUSIC + "=1", null,
+                    MediaStore.Audio.Media.DEFAULT_SORT_ORDER);
+            if (c == null) {
+                return null;
+            }
+            long [] list = new long[c.getCount()];
+            for (int i = 0; c.moveToNext(); i++) {
+                list[i] = c.getLong(0);
+            }
+            return list;
+        } catch (SQLiteException ex) {
+            Log.e(TAG, "couldn't load music list", ex);
+        } catch (UnsupportedOperationException ex) {
+            // most likely the card just got unmounted
+            Log.e(TAG, "couldn't load music list", ex);
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+        return null;
+    }
+
+    private final SensorEventListener mListener = new SensorEventListener() {
+        public void onSensorChanged(SensorEvent event) {
+            // event timestamps are in nanoseconds
+            int result = mDetector.onSample(event.timestamp / 1000000, event.values);
+            if (result != ShakeDetector.SHAKE_STARTED) {
+                return;
+            }
+            final Action action = mAction;
+            long [] list = null;
+            if (action == Action.SHUFFLE) {
+                list = mList;
+                if (list == null) {
+                    // not loaded yet, or the database changed since
+                    list = mList = loadList();
+                }
+                if (list == null || list.length == 0) {
+                    return;
+                }
+            }
+            final long [] shakeList = list;
+            mMainHandler.post(new Runnable() {
+                public void run() {
+                    mCallback.onShake(action, shakeList);
+                }
+            });
+        }
+
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+    };
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music;
+
+/**
+ * Decides from accelerometer samples when the phone is being shaken.
+ * A sample whose acceleration is above the threshold is a hit. A shake
+ * starts once enough hits fall within a short window, so a single bump,
+ * like putting the phone down on a table, isn't taken for one. It ends
+ * once there haven't been any hits for a while.
+ * This class only does arithmetic, so it can run off the device too.
+ */
+public final class ShakeDetector implements MotionDetector {
+    public static final int SHAKE_STARTED = 1;
+    public static final int SHAKE_STOPPED = 2;
+
+    // same as SensorManager.GRAVITY_EARTH, which isn't available off the device
+    public static final float GRAVITY = 9.80665f;
+
+    // defaults, in units of g and milliseconds
+    public static final double THRESHOLD = 1.25;
+    static final long WINDOW = 400;
+    static final int MIN_HITS = 2;
+    static final long GAP = 500;
+
+    private static final int MAX_HITS = 16;
+
+    private double mThresholdSquared;
+    private long mWindow = WINDOW;
+    private int mMinHits = MIN_HITS;
+    private long mGap = GAP;
+
+    // times of the most recent hits, a ring of mMinHits entries
+    private final long [] mHits = new long[MAX_HITS];
+    private int mHitCount;
+    private int mNextHit;
+    private boolean mShaking;
+    private long mLastHit;
+
+    public ShakeDetector() {
+        setThreshold(THRESHOLD);
+    }
+
+    /**
+     * Sets the acceleration a sample needs to count as a hit, in units of g.
+     * The phone lying still measures 1g.
+     */
+    public void setThreshold(double threshold) {
+        double t = threshold * GRAVITY;
+        mThresholdSquared = t * t;
+    }
+
+    /**
+     * Sets how many hits have to fall within how many milliseconds for a
+     * shake to start.
+     */
+    public void setWindow(int minHits, long window) {
+        mMinHits = Math.max(1, Math.min(minHits, MAX_HITS));
+        mWindow = window;
+        reset();
+    }
+
+    /**
+     * Sets how many milliseconds without hits end a shake.
+     */
+    public void setGap(long gap) {
+        mGap = gap;
+    }
+
+    /**
+     * Forgets all samples seen so far, e.g. after the sensor was turned off.
+     */
+    public void reset() {
+        mHitCount = 0;
+        mNextHit = 0;
+        mShaking = false;
+    }
+
+    public boolean isShaking() {
+        return mShaking;
+    }
+
+    /**
+     * Takes a sample from the accelerometer.
+     */
+    public int onSample(long time, float [] values) {
+        return onSample(time, values[0], values[1], values[2]);
+    }
+
+    /**
+     * @param time sample time in milliseconds
+     * @param x acceleration along the x axis, in m/s^2
+     * @param y acceleration along the y axis, in m/s^2
+     * @param z acceleration along the z axis, in m/s^2
+     * @return SHAKE_STARTED or SHAKE_STOPPED when the state changes with
+     * this sample, otherwise NONE
+     */
+    public int onSample(long time, float x, float y, float z) {
+        double energy = (double) x * x + (double) y * y + (double) z * z;
+        if (energy > mThresholdSquared) {
+            mLastHit = time;
+            if (mShaking) {
+                return NONE;
+            }
+            mHits[mNextHit] = time;
+            mNextHit = (mNextHit + 1) % mMinHits;
+            if (mHitCount < mMinHits) {
+                mHitCount++;
+            }
+            // mNextHit now points at the oldest of the last mMinHits hits
+            if (mHitCount == mMinHits && time - mHits[mNextHit] <= mWindow) {
+                mShaking = true;
+                return SHAKE_STARTED;
+            }
+            return NONE;
+        }
+        if (mShaking && time - mLastHit > mGap) {
+            reset();
+            return SHAKE_STOPPED;
+        }
+        return NONE;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.music;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Picks tracks for the shuffle modes.
+ * <p>
+ * nextInt() is a simple variation of Random that makes sure that the
+ * value it returns is not equal to the value it returned previously,
+ * unless the interval is 1.
+ */
+final class Shuffler {
+    private int mPrevious;
+    private final Random mRandom;
+
+    Shuffler() {
+        this(new Random());
+    }
+
+    Shuffler(Random random) {
+        mRandom = random;
+    }
+
+    int nextInt(int interval) {
+        int ret;
+        do {
+            ret = mRandom.nextInt(interval);
+        } while (ret == mPrevious && interval > 1);
+        mPrevious = ret;
+        return ret;
+    }
+
+    /**
+     * Picks a random position in a queue of the given length that isn't
+     * in the history, for SHUFFLE_NORMAL.
+     * @param again whether to start over when everything has been played
+     * @return the position, or -1 if everything has been played and
+     * 'again' is false
+     */
+    int pickUnplayed(int numTracks, List<Integer> history, boolean again) {
+        int[] tracks = new int[numTracks];
+        for (int i=0;i < numTracks; i++) {
+            tracks[i] = i;
+        }
+
+        int numHistory = history.size();
+        int numUnplayed = numTracks;
+        for (int i=0;i < numHistory; i++) {
+            int idx = history.get(i).intValue();
+            if (idx < numTracks && tracks[idx] >= 0) {
+                numUnplayed--;
+                tracks[idx] = -1;
+            }
+        }
+
+        // 'numUnplayed' now indicates how many tracks have not yet
+        // been played, and 'tracks' contains the indices of those
+        // tracks.
+        if (numUnplayed <=0) {
+            // everything's already been played
+            if (!again) {
+                return -1;
+            }
+            //pick from full set
+            numUnplayed = numTracks;
+            for (int i=0;i < numTracks; i++) {
+                tracks[i] = i;
+            }
+        }
+        int skip = nextInt(numUnplayed);
+        int cnt = -1;
+        while (true) {
+            while (tracks[++cnt] < 0)
+                ;
+            skip--;
+            if (skip < 0) {
+                break;
+            }
+        }
+        return cnt;
+    }
+
+    /**
+     * Picks an index into a list of the given length that isn't among the
+     * most recent entries of the history, for SHUFFLE_AUTO. It looks at
+     * less of the history after every miss, so it always ends.
+     */
+    int pickNotRecent(int length, List<Integer> history) {
+        int lookback = history.size();
+        while (true) {
+            int idx = nextInt(length);
+            if (!wasRecentlyUsed(history, idx, lookback)) {
+                return idx;
+            }
+            lookback /= 2;
+        }
+    }
+
+    // check that the specified idx is not in the history (but only look at at
+    // most lookbacksize entries in the history)
+    static boolean wasRecentlyUsed(List<Integer> history, int idx, int lookbacksize) {
+
+        // early exit to prevent infinite loops in case idx == mPlayPos
+        if (lookbacksize == 0) {
+            return false;
+        }
+
+        int histsize = history.size();
+        if (histsize < lookbacksize) {
+            lookbacksize = histsize;
+        }
+        int maxidx = histsize - 1;
+        for (int i = 0; i < lookbacksize; i++) {
+            long entry = history.get(maxidx - i);
+            if (entry == idx) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
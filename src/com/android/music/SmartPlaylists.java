@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteException;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Plays the built-in smart playlists (recently added, podcasts and the
+ * favorite folder). The track lists are only computed when one of them
+ * is played, on a background thread, and are kept until the media
+ * database changes. Long lists are handed to the playback service in
+ * chunks, so playback starts as soon as the first few tracks are known.
+ */
+class SmartPlaylists {
+    private static final String TAG = "SmartPlaylists";
+
+    // number of tracks the service gets before playback starts
+    private static final int FIRST_CHUNK = 50;
+    // number of tracks enqueued at a time after that
+    private static final int CHUNK = 500;
+    // the recently added window moves with the clock, so don't reuse old results forever
+    private static final long MAX_AGE = 60 * 60 * 1000;
+
+    /**
+     * The query that selects the tracks of a smart playlist.
+     */
+    static class Definition {
+        final String mKey;
+        final String mSelection;
+        // if set, the tracks can be taken from the folder index instead
+        final String mFolder;
+
+        private Definition(String key, String selection, String folder) {
+            mKey = key;
+            mSelection = selection;
+            mFolder = folder;
+        }
+    }
+
+    static Definition recentlyAdded(Context context) {
+        int weeks = MusicUtils.getIntPref(context, "numweeks", 2);
+        int X = weeks * (3600 * 24 * 7);
+        return new Definition("recentlyadded:" + weeks,
+                MediaStore.MediaColumns.DATE_ADDED + ">" + (System.currentTimeMillis() / 1000 - X),
+                null);
+    }
+
+    static Definition podcasts() {
+        return new Definition("podcasts", MediaStore.Audio.Media.IS_PODCAST + "=1", null);
+    }
+
+    static Definition favoriteFolder(Context context) {
+        return folder(MusicUtils.getStringPref(context, "favoritefolder", "/mnt/sdcard"));
+    }
+
+    /**
+     * Returns the music below the given folder, folder by folder, the way
+     * the folder index lists it.
+     */
+    static Definition folder(String folder) {
+        return new Definition("folder:" + folder,
+                FolderIndex.SELECTION + " AND " + folderSelection(folder), folder);
+    }
+
+    /**
+     * Returns a selection matching every file below the given folder.
+     * This is a range on the path rather than a LIKE, so the provider
+     * can use the index on the _data column: every path in the folder
+     * sorts between "folder/" and "folder0", '0' being the character
+     * after '/'.
+     */
+    static String folderSelection(String folder) {
+        // the root becomes "", so it matches every absolute path
+        while (folder.endsWith("/")) {
+            folder = folder.substring(0, folder.length() - 1);
+        }
+        return MediaStore.MediaColumns.DATA + ">=" + DatabaseUtils.sqlEscapeString(folder + "/")
+                + " AND " + MediaStore.MediaColumns.DATA + "<"
+                + DatabaseUtils.sqlEscapeString(folder + "0");
+    }
+
+    private static class Result {
+        long [] mList;
+        long mTime;
+    }
+
+    private static SmartPlaylists sInstance;
+
+    static synchronized SmartPlaylists getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SmartPlaylists(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final Context mContext;
+    private final Handler mWorkerHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // only touched on the worker thread
+    private final HashMap<String, Result> mCache = new HashMap<String, Result>();
+    // incremented for every play request, so a newer request stops an older stream
+    private volatile int mPlayToken;
+
+    private SmartPlaylists(Context context) {
+        mContext = context;
+        Worker worker = new Worker("smart playlists");
+        mWorkerHandler = new Handler(worker.getLooper());
+        // the observer runs on the worker too, so it can never clear the
+        // cache in the middle of a query
+        context.getContentResolver().registerContentObserver(
+                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true,
+                new ContentObserver(mWorkerHandler) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        mCache.clear();
+                    }
+                });
+    }
+
+    /**
+     * Replaces the play queue with the tracks of the given smart playlist
+     * and brings up the playback screen.
+     */
+    void play(final Definition def) {
+        // grab the service now, the caller may unbind before the worker gets to it
+        final IMediaPlaybackService service = MusicUtils.sService;
+        final int token = ++mPlayToken;
+        mWorkerHandler.post(new Runnable() {
+            public void run() {
+                try {
+                    doPlay(service, def, token);
+                } catch (RemoteException ex) {
+                } catch (SQLiteException ex) {
+                    Log.e(TAG, "couldn't play " + def.mKey, ex);
+                } catch (UnsupportedOperationException ex) {
+                    // most likely the card just got unmounted
+                    Log.e(TAG, "couldn't play " + def.mKey, ex);
+                }
+            }
+        });
+    }
+
+    private void doPlay(IMediaPlaybackService service, Definition def, int token)
+            throws RemoteException {
+        if (def.mFolder != null) {
+            FolderIndex index = FolderIndex.getInstance(mContext);
+            long [] list = index.getIds(def.mFolder);
+            if (list == null) {
+                // not built yet, but the tracks should come in the same order
+                list = index.queryIds(def.mFolder);
+            }
+            if (list != null) {
+                playList(service, list);
+                return;
+            }
+        }
+        Result cached = mCache.get(def.mKey);
+        if (cached != null && SystemClock.elapsedRealtime() - cached.mTime < MAX_AGE) {
+            playList(service, cached.mList);
+            return;
+        }
+
+        final String[] ccols = new String[] { MediaStore.Audio.Media._ID };
+        Cursor cursor = MusicUtils.query(mContext, MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                ccols, def.mSelection, null, MediaStore.Audio.Media.DEFAULT_SORT_ORDER);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            int len = cursor.getCount();
+            long [] list = new long[len];
+            if (len <= FIRST_CHUNK || service == null) {
+                for (int i = 0; i < len; i++) {
+                    cursor.moveToNext();
+                    list[i] = cursor.getLong(0);
+                }
+                playList(service, list);
+            } else {
+                int read = 0;
+                long [] first = null;
+                while (read < len) {
+                    if (token != mPlayToken) {
+                        // another playlist was started in the meantime
+                        return;
+                    }
+                    if (first != null && !startsWith(service.getQueue(), first)) {
+                        // something else was played in the meantime
+                        return;
+                    }
+                    int n = Math.min(read == 0 ? FIRST_CHUNK : CHUNK, len - read);
+                    for (int i = read; i < read + n; i++) {
+                        cursor.moveToNext();
+                        list[i] = cursor.getLong(0);
+                    }
+                    long [] chunk = Arrays.copyOfRange(list, read, read + n);
+                    if (read == 0) {
+                        first = chunk;
+                        service.open(chunk, 0);
+                        service.play();
+                        postShowViewer();
+                    } else {
+                        service.enqueue(chunk, MediaPlaybackService.LAST);
+                    }
+                    read += n;
+                }
+            }
+            Result r = new Result();
+            r.mList = list;
+            r.mTime = SystemClock.elapsedRealtime();
+            mCache.put(def.mKey, r);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static boolean startsWith(long [] queue, long [] prefix) {
+        if (queue == null || queue.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (queue[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void playList(IMediaPlaybackService service, final long [] list)
+            throws RemoteException {
+        if (list.length == 0 || service == null) {
+            // let playAll complain about it
+            mMainHandler.post(new Runnable() {
+                public void run() {
+                    MusicUtils.playAll(mContext, list, 0);
+                }
+            });
+            return;
+        }
+        if (service.getQueuePosition() != 0 || service.getAudioId() != list[0]
+                || !Arrays.equals(list, service.getQueue())) {
+            service.open(list, 0);
+        }
+        service.play();
+        postShowViewer();
+    }
+
+    private void postShowViewer() {
+        mMainHandler.post(new Runnable() {
+            public void run() {
+                MusicUtils.showPlaybackViewer(mContext);
+            }
+        });
+    }
+}
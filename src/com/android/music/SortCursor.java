@@ -31,11 +31,7 @@ public class SortCursor extends AbstractCursor
     private Cursor mCursor; // updated in onMove
     private Cursor[] mCursors;
     private int [] mSortColumns;
-    private final int ROWCACHESIZE = 64;
-    private int mRowNumCache[] = new int[ROWCACHESIZE];
-    private int mCursorCache[] = new int[ROWCACHESIZE];
-    private int mCurRowNumCache[][];
-    private int mLastCacheHit = -1;
+    private final SortedMerge mMerge;
 
     private DataSetObserver mObserver = new DataSetObserver() {
 
@@ -69,22 +65,41 @@ public class SortCursor extends AbstractCursor
             // We don't catch the exception
             mSortColumns[i] = mCursors[i].getColumnIndexOrThrow(sortcolumn);
         }
-        mCursor = null;
-        String smallest = "";
-        for (int j = 0 ; j < length; j++) {
-            if (mCursors[j] == null || mCursors[j].isAfterLast())
-                continue;
-            String current = mCursors[j].getString(mSortColumns[j]);
-            if (mCursor == null || current.compareToIgnoreCase(smallest) < 0) {
-                smallest = current;
-                mCursor = mCursors[j];
+        mMerge = new SortedMerge(new SortedMerge.Inputs() {
+            public int count() {
+                return mCursors.length;
             }
-        }
 
-        for (int i = mRowNumCache.length - 1; i >= 0; i--) {
-            mRowNumCache[i] = -2;
-        }
-        mCurRowNumCache = new int[ROWCACHESIZE][length];
+            public boolean has(int input) {
+                return mCursors[input] != null;
+            }
+
+            public boolean isAfterLast(int input) {
+                return mCursors[input].isAfterLast();
+            }
+
+            public String key(int input) {
+                return mCursors[input].getString(mSortColumns[input]);
+            }
+
+            public void moveToFirst(int input) {
+                mCursors[input].moveToFirst();
+            }
+
+            public void moveToNext(int input) {
+                mCursors[input].moveToNext();
+            }
+
+            public void moveToPosition(int input, int position) {
+                mCursors[input].moveToPosition(position);
+            }
+
+            public int getPosition(int input) {
+                return mCursors[input].getPosition();
+            }
+        });
+        int first = mMerge.smallest();
+        mCursor = first < 0 ? null : mCursors[first];
     }
 
     @Override
@@ -106,78 +121,13 @@ public class SortCursor extends AbstractCursor
         if (oldPosition == newPosition)
             return true;
 
-        /* Find the right cursor
-         * Because the client of this cursor (the listadapter/view) tends
-         * to jump around in the cursor somewhat, a simple cache strategy
-         * is used to avoid having to search all cursors from the start.
-         * TODO: investigate strategies for optimizing random access and
-         * reverse-order access.
-         */
-
-        int cache_entry = newPosition % ROWCACHESIZE;
-
-        if (mRowNumCache[cache_entry] == newPosition) {
-            int which = mCursorCache[cache_entry];
-            mCursor = mCursors[which];
-            if (mCursor == null) {
-                Log.w(TAG, "onMove: cache results in a null cursor.");
-                return false;
-            }
-            mCursor.moveToPosition(mCurRowNumCache[cache_entry][which]);
-            mLastCacheHit = cache_entry;
-            return true;
-        }
-
-        mCursor = null;
-        int length = mCursors.length;
-
-        if (mLastCacheHit >= 0) {
-            for (int i = 0; i < length; i++) {
-                if (mCursors[i] == null) continue;
-                mCursors[i].moveToPosition(mCurRowNumCache[mLastCacheHit][i]);
-            }
-        }
-
-        if (newPosition < oldPosition || oldPosition == -1) {
-            for (int i = 0 ; i < length; i++) {
-                if (mCursors[i] == null) continue;
-                mCursors[i].moveToFirst();
-            }
-            oldPosition = 0;
-        }
-        if (oldPosition < 0) {
-            oldPosition = 0;
-        }
-
-        // search forward to the new position
-        int smallestIdx = -1;
-        for(int i = oldPosition; i <= newPosition; i++) {
-            String smallest = "";
-            smallestIdx = -1;
-            for (int j = 0 ; j < length; j++) {
-                if (mCursors[j] == null || mCursors[j].isAfterLast()) {
-                    continue;
-                }
-                String current = mCursors[j].getString(mSortColumns[j]);
-                if (smallestIdx < 0 || current.compareToIgnoreCase(smallest) < 0) {
-                    smallest = current;
-                    smallestIdx = j;
-                }
-            }
-            if (i == newPosition) break;
-            if (mCursors[smallestIdx] != null) {
-                mCursors[smallestIdx].moveToNext();
-            }
-        }
-        mCursor = mCursors[smallestIdx];
-        mRowNumCache[cache_entry] = newPosition;
-        mCursorCache[cache_entry] = smallestIdx;
-        for (int i = 0; i < length; i++) {
-            if (mCursors[i] != null) {
-                mCurRowNumCache[cache_entry][i] = mCursors[i].getPosition();
-            }
+        int which = mMerge.move(oldPosition, newPosition);
+        if (which < 0) {
+            Log.w(TAG, "onMove: no cursor for position " + newPosition);
+            mCursor = null;
+            return false;
         }
-        mLastCacheHit = -1;
+        mCursor = mCursors[which];
         return true;
     }
 
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.music;
+
+/**
+ * Finds the rows of a merge of several sorted inputs, for SortCursor. The
+ * inputs are positioned so that the one holding a given row of the merge
+ * is on it. Because the client of the cursor (the listadapter/view) tends
+ * to jump around somewhat, a simple cache strategy is used to avoid
+ * having to search all inputs from the start.
+ * TODO: investigate strategies for optimizing random access and
+ * reverse-order access.
+ */
+final class SortedMerge {
+    /**
+     * The sorted inputs, each with a position like a cursor's.
+     */
+    interface Inputs {
+        int count();
+        // false for an input that isn't there, which is skipped
+        boolean has(int input);
+        boolean isAfterLast(int input);
+        String key(int input);
+        void moveToFirst(int input);
+        void moveToNext(int input);
+        void moveToPosition(int input, int position);
+        int getPosition(int input);
+    }
+
+    private static final int ROWCACHESIZE = 64;
+
+    private final Inputs mInputs;
+    private final int mRowNumCache[] = new int[ROWCACHESIZE];
+    private final int mInputCache[] = new int[ROWCACHESIZE];
+    private final int mCurRowNumCache[][];
+    private int mLastCacheHit = -1;
+
+    SortedMerge(Inputs inputs) {
+        mInputs = inputs;
+        for (int i = mRowNumCache.length - 1; i >= 0; i--) {
+            mRowNumCache[i] = -2;
+        }
+        mCurRowNumCache = new int[ROWCACHESIZE][inputs.count()];
+    }
+
+    /**
+     * Returns the input with the smallest key at its current position, or
+     * -1 if all are past their end.
+     */
+    int smallest() {
+        int length = mInputs.count();
+        String smallest = "";
+        int smallestIdx = -1;
+        for (int j = 0 ; j < length; j++) {
+            if (!mInputs.has(j) || mInputs.isAfterLast(j)) {
+                continue;
+            }
+            String current = mInputs.key(j);
+            if (smallestIdx < 0 || current.compareToIgnoreCase(smallest) < 0) {
+                smallest = current;
+                smallestIdx = j;
+            }
+        }
+        return smallestIdx;
+    }
+
+    /**
+     * Moves from one row of the merge to another.
+     * @return the input that now holds the new row, or -1 if there is
+     * none
+     */
+    int move(int oldPosition, int newPosition) {
+        int cache_entry = newPosition % ROWCACHESIZE;
+        int length = mInputs.count();
+
+        if (mRowNumCache[cache_entry] == newPosition) {
+            int which = mInputCache[cache_entry];
+            if (!mInputs.has(which)) {
+                return -1;
+            }
+            mInputs.moveToPosition(which, mCurRowNumCache[cache_entry][which]);
+            mLastCacheHit = cache_entry;
+            return which;
+        }
+
+        if (mLastCacheHit >= 0) {
+            for (int i = 0; i < length; i++) {
+                if (!mInputs.has(i)) continue;
+                mInputs.moveToPosition(i, mCurRowNumCache[mLastCacheHit][i]);
+            }
+        }
+
+        if (newPosition < oldPosition || oldPosition == -1) {
+            for (int i = 0 ; i < length; i++) {
+                if (!mInputs.has(i)) continue;
+                mInputs.moveToFirst(i);
+            }
+            oldPosition = 0;
+        }
+        if (oldPosition < 0) {
+            oldPosition = 0;
+        }
+
+        // search forward to the new position
+        int smallestIdx = -1;
+        for (int i = oldPosition; i <= newPosition; i++) {
+            smallestIdx = smallest();
+            if (smallestIdx < 0) {
+                // past the end of every input
+                mLastCacheHit = -1;
+                return -1;
+            }
+            if (i == newPosition) break;
+            mInputs.moveToNext(smallestIdx);
+        }
+        mRowNumCache[cache_entry] = newPosition;
+        mInputCache[cache_entry] = smallestIdx;
+        for (int i = 0; i < length; i++) {
+            if (mInputs.has(i)) {
+                mCurRowNumCache[cache_entry][i] = mInputs.getPosition(i);
+            }
+        }
+        mLastCacheHit = -1;
+        return smallestIdx;
+    }
+}
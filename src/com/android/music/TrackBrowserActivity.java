@@ -1115,8 +1115,7 @@ public class TrackBrowserActivity extends ListActivity
                     uri = uri.buildUpon().appendQueryParameter("filter", Uri.encode(filter)).build();
                 }
                 String folder = MusicUtils.getStringPref(this, "favoritefolder", "/mnt/sdcard");
-                where.append(" AND " + MediaStore.MediaColumns.DATA + " LIKE ");
-                where.append("'" + folder + "%'");
+                where.append(" AND " + SmartPlaylists.folderSelection(folder));
                 ret = queryhandler.doQuery(uri,
                         mCursorCols, where.toString(), null,
                         MediaStore.Audio.Media.DEFAULT_SORT_ORDER, async);
@@ -1211,15 +1210,23 @@ public class TrackBrowserActivity extends ListActivity
             // in the database, and remove those that aren't. This way we
             // don't get any blank items in the list.
             try {
-                int removed = 0;
+                long [] missing = null;
+                int nummissing = 0;
                 for (int i = mNowPlaying.length - 1; i >= 0; i--) {
                     long trackid = mNowPlaying[i];
                     int crsridx = Arrays.binarySearch(mCursorIdxs, trackid);
                     if (crsridx < 0) {
                         //Log.i("@@@@@", "item no longer exists in db: " + trackid);
-                        removed += mService.removeTrack(trackid);
+                        if (missing == null) {
+                            missing = new long[mNowPlaying.length];
+                        }
+                        missing[nummissing++] = trackid;
                     }
                 }
+                int removed = 0;
+                if (nummissing > 0) {
+                    removed = mService.removeTracksById(Arrays.copyOf(missing, nummissing));
+                }
                 if (removed > 0) {
                     mNowPlaying = mService.getQueue();
                     mSize = mNowPlaying.length;
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music;
+
+import android.os.Handler;
+import android.os.Message;
+import android.os.SystemClock;
+
+/**
+ * Moves the volume of one player from one level to another over a given
+ * time. The volume at each step is computed from the time since the ramp
+ * started, not from the previous step, so late steps don't stretch the
+ * ramp. Steps are run on the given handler, and don't allocate.
+ */
+class VolumeRamp {
+    static final int LINEAR = 0;
+    // sin/cos gains, so two players ramped in opposite directions add up
+    // to constant power
+    static final int EQUAL_POWER = 1;
+    // a straight line in decibels, which is what the ear hears as even
+    static final int LOG = 2;
+
+    // steps are spaced so a ramp takes about this many of them, but
+    // never closer than MIN_PERIOD or further apart than MAX_PERIOD
+    private static final int STEPS = 20;
+    private static final long MIN_PERIOD = 10; // ms
+    private static final long MAX_PERIOD = 40; // ms
+    // changes smaller than this aren't worth a call into the media server
+    private static final float MIN_CHANGE = 0.005f;
+    // LOG ramps treat anything quieter than this (-60dB) as silence
+    private static final float LOG_FLOOR = 0.001f;
+
+    /**
+     * Receives the volume; called on the handler's thread.
+     */
+    interface Target {
+        void setVolume(float volume);
+    }
+
+    private final Handler mHandler;
+    private final Target mTarget;
+    private final Runnable mStep = new Runnable() {
+        public void run() {
+            step();
+        }
+    };
+
+    // guarded by 'this'
+    private float mFrom;
+    private float mTo;
+    private int mCurve;
+    private long mStartTime;
+    private long mDuration;
+    private long mPeriod;
+    private float mVolume;
+    private float mApplied = -1;
+    private Message mAndThen;
+    private boolean mRunning;
+
+    VolumeRamp(Handler handler, Target target, float volume) {
+        mHandler = handler;
+        mTarget = target;
+        mVolume = volume;
+    }
+
+    /**
+     * Ramps from the current volume to the given one. A ramp that is
+     * still running is cancelled, along with its message.
+     * @param andThen sent to its target when the ramp is done, or null
+     */
+    synchronized void start(float to, long duration, int curve, Message andThen) {
+        startAt(SystemClock.uptimeMillis(), mVolume, to, duration, curve, andThen);
+    }
+
+    /**
+     * Ramps from one volume to another, as if it had started at the given
+     * uptime. Ramps that are started at the same time on different players
+     * stay in step with each other.
+     */
+    synchronized void startAt(long startTime, float from, float to, long duration, int curve,
+            Message andThen) {
+        mHandler.removeCallbacks(mStep);
+        mFrom = from;
+        mTo = to;
+        mCurve = curve;
+        mStartTime = startTime;
+        mDuration = Math.max(0, duration);
+        mPeriod = Math.max(MIN_PERIOD, Math.min(MAX_PERIOD, mDuration / STEPS));
+        mAndThen = andThen;
+        mRunning = true;
+        mHandler.post(mStep);
+    }
+
+    /**
+     * Stops the ramp where it is, without sending its message.
+     */
+    synchronized void cancel() {
+        mHandler.removeCallbacks(mStep);
+        mAndThen = null;
+        mRunning = false;
+    }
+
+    /**
+     * Sets the volume right away, cancelling any ramp.
+     */
+    synchronized void set(float volume) {
+        cancel();
+        mVolume = volume;
+        // always, in case the target has changed under us
+        mApplied = volume;
+        mTarget.setVolume(volume);
+    }
+
+    synchronized float getVolume() {
+        return mVolume;
+    }
+
+    synchronized boolean isRunning() {
+        return mRunning;
+    }
+
+    private void step() {
+        Message andThen = null;
+        synchronized (this) {
+            if (!mRunning) {
+                return;
+            }
+            long elapsed = SystemClock.uptimeMillis() - mStartTime;
+            if (elapsed >= mDuration) {
+                mVolume = mTo;
+                apply(mTo);
+                mRunning = false;
+                andThen = mAndThen;
+                mAndThen = null;
+            } else {
+                mVolume = volumeAt(mCurve, mFrom, mTo, (float) elapsed / mDuration);
+                if (Math.abs(mVolume - mApplied) >= MIN_CHANGE) {
+                    apply(mVolume);
+                }
+                mHandler.postDelayed(mStep, mPeriod);
+            }
+        }
+        if (andThen != null) {
+            andThen.sendToTarget();
+        }
+    }
+
+    private void apply(float volume) {
+        if (volume != mApplied) {
+            mApplied = volume;
+            mTarget.setVolume(volume);
+        }
+    }
+
+    /**
+     * Returns the volume of a ramp from 'from' to 'to' after the given
+     * fraction (0 to 1) of its time.
+     */
+    static float volumeAt(int curve, float from, float to, float fraction) {
+        switch (curve) {
+            case EQUAL_POWER:
+                double angle = fraction * Math.PI / 2;
+                if (to > from) {
+                    return from + (to - from) * (float) Math.sin(angle);
+                }
+                return to + (from - to) * (float) Math.cos(angle);
+            case LOG:
+                float a = Math.max(from, LOG_FLOOR);
+                float b = Math.max(to, LOG_FLOOR);
+                float v = a * (float) Math.pow(b / a, fraction);
+                // land exactly on silence rather than on the floor
+                return v <= LOG_FLOOR ? Math.min(from, to) : v;
+            default:
+                return from + (to - from) * fraction;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps small, pre-scaled copies of album art for the app widgets, so
+ * that the launcher doesn't have to decode full size covers for a tiny
+ * image. The copies are written to the cache directory and handed out
+ * through {@link WidgetArtProvider}. Only the most recently used ones
+ * are kept.
+ */
+class WidgetArtCache {
+    private static final String TAG = "WidgetArtCache";
+
+    static final String AUTHORITY = "com.android.music.widgetart";
+    static final String DIRECTORY = "widgetart";
+
+    // size of the album art on the 4x2 widget, the 4x1 one is smaller
+    private static final int SIZE_DIP = 100;
+    private static final int MAX_ENTRIES = 8;
+
+    /**
+     * Called on the main thread when artwork that was asked for with
+     * {@link #getUri} but wasn't ready yet has been generated.
+     */
+    public interface Listener {
+        void onArtworkReady();
+    }
+
+    private final Context mContext;
+    private final Listener mListener;
+    private final File mDirectory;
+    private final int mSize;
+    private final Handler mWorkerHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // key -> whether the album has artwork at all, in access order. Guarded by 'this'.
+    private final LinkedHashMap<String, Boolean> mEntries =
+            new LinkedHashMap<String, Boolean>(MAX_ENTRIES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            if (size() > MAX_ENTRIES) {
+                fileFor(eldest.getKey()).delete();
+                return true;
+            }
+            return false;
+        }
+    };
+    // keys currently being generated, guarded by 'this'
+    private final HashSet<String> mPending = new HashSet<String>();
+
+    WidgetArtCache(Context context, Listener listener) {
+        mContext = context;
+        mListener = listener;
+        mDirectory = new File(context.getCacheDir(), DIRECTORY);
+        mSize = (int) (SIZE_DIP * context.getResources().getDisplayMetrics().density + 0.5f);
+        Worker worker = new Worker("widget art");
+        mWorkerHandler = new Handler(worker.getLooper());
+        mWorkerHandler.post(new Runnable() {
+            public void run() {
+                // start over, the files don't say whether they're up to date
+                File [] files = mDirectory.listFiles();
+                if (files != null) {
+                    for (File f : files) {
+                        f.delete();
+                    }
+                }
+            }
+        });
+    }
+
+    static String keyFor(long songId, long albumId) {
+        return albumId >= 0 ? "a" + albumId : "s" + songId;
+    }
+
+    private File fileFor(String key) {
+        return new File(mDirectory, key + ".jpg");
+    }
+
+    /**
+     * Returns the uri of the scaled artwork for the given track. If it
+     * hasn't been generated yet, this starts generating it, calls the
+     * listener once it's done, and returns null in the meantime. It also
+     * returns null if the track has no artwork.
+     */
+    Uri getUri(long songId, long albumId) {
+        if (songId < 0 && albumId < 0) {
+            return null;
+        }
+        String key = keyFor(songId, albumId);
+        synchronized (this) {
+            Boolean hasArt = mEntries.get(key);
+            if (hasArt != null) {
+                return hasArt ? Uri.parse("content://" + AUTHORITY + "/" + key) : null;
+            }
+        }
+        generate(songId, albumId, key, true);
+        return null;
+    }
+
+    /**
+     * Returns true if getUri() returned null because the artwork is still
+     * being generated, rather than because there is none.
+     */
+    synchronized boolean isPending(long songId, long albumId) {
+        return mPending.contains(keyFor(songId, albumId));
+    }
+
+    /**
+     * Generates the artwork for the given track in the background, so it
+     * is ready when the track starts playing.
+     */
+    void prefetch(final long songId) {
+        mWorkerHandler.post(new Runnable() {
+            public void run() {
+                long albumId = -1;
+                Cursor c = MusicUtils.query(mContext,
+                        MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                        new String [] { MediaStore.Audio.Media.ALBUM_ID },
+                        MediaStore.Audio.Media._ID + "=" + songId, null, null);
+                if (c != null) {
+                    if (c.moveToFirst()) {
+                        albumId = c.getLong(0);
+                    }
+                    c.close();
+                }
+                String key = keyFor(songId, albumId);
+                synchronized (WidgetArtCache.this) {
+                    if (mEntries.containsKey(key)) {
+                        return;
+                    }
+                }
+                generate(songId, albumId, key, false);
+            }
+        });
+    }
+
+    private void generate(final long songId, final long albumId, final String key,
+            final boolean notify) {
+        synchronized (this) {
+            if (!mPending.add(key)) {
+                return;
+            }
+        }
+        mWorkerHandler.post(new Runnable() {
+            public void run() {
+                long start = Metrics.start();
+                boolean hasArt = writeScaled(songId, albumId, fileFor(key));
+                Metrics.WIDGET_ART.recordSince(start);
+                synchronized (WidgetArtCache.this) {
+                    mPending.remove(key);
+                    mEntries.put(key, hasArt);
+                }
+                if (notify && hasArt) {
+                    mMainHandler.post(new Runnable() {
+                        public void run() {
+                            mListener.onArtworkReady();
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private boolean writeScaled(long songId, long albumId, File file) {
+        Uri uri = MusicUtils.getArtworkUri(mContext, songId, albumId);
+        if (uri == null) {
+            return false;
+        }
+        Bitmap b = null;
+        ParcelFileDescriptor fd = null;
+        try {
+            fd = mContext.getContentResolver().openFileDescriptor(uri, "r");
+            BitmapFactory.Options opts = new BitmapFactory.Options();
+            opts.inJustDecodeBounds = true;
+            BitmapFactory.decodeFileDescriptor(fd.getFileDescriptor(), null, opts);
+            int sampleSize = 1;
+            int nextWidth = opts.outWidth >> 1;
+            int nextHeight = opts.outHeight >> 1;
+            while (nextWidth > mSize && nextHeight > mSize) {
+                sampleSize <<= 1;
+                nextWidth >>= 1;
+                nextHeight >>= 1;
+            }
+            opts.inSampleSize = sampleSize;
+            opts.inJustDecodeBounds = false;
+            b = BitmapFactory.decodeFileDescriptor(fd.getFileDescriptor(), null, opts);
+        } catch (FileNotFoundException ex) {
+        } finally {
+            try {
+                if (fd != null) {
+                    fd.close();
+                }
+            } catch (IOException ex) {
+            }
+        }
+        if (b == null) {
+            return false;
+        }
+
+        // scale to fit the widget, keeping the aspect ratio
+        int w = b.getWidth();
+        int h = b.getHeight();
+        if (w > mSize || h > mSize) {
+            float scale = Math.min((float) mSize / w, (float) mSize / h);
+            Bitmap tmp = Bitmap.createScaledBitmap(b,
+                    Math.max(1, (int) (w * scale)), Math.max(1, (int) (h * scale)), true);
+            if (tmp != b) {
+                b.recycle();
+            }
+            b = tmp;
+        }
+
+        mDirectory.mkdirs();
+        File tmpfile = new File(mDirectory, file.getName() + ".tmp");
+        FileOutputStream out = null;
+        boolean ok = false;
+        try {
+            out = new FileOutputStream(tmpfile);
+            ok = b.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        } catch (IOException ex) {
+            Log.e(TAG, "couldn't write " + tmpfile, ex);
+        } finally {
+            b.recycle();
+            try {
+                if (out != null) {
+                    out.close();
+                }
+            } catch (IOException ex) {
+                ok = false;
+            }
+        }
+        // rename, so the provider never hands out a half written file
+        if (!ok || !tmpfile.renameTo(file)) {
+            tmpfile.delete();
+            return false;
+        }
+        return true;
+    }
+}
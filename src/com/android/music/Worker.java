@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music;
+
+import android.os.Looper;
+
+/**
+ * A low priority thread running a {@link android.os.Looper}, used to
+ * move disk and provider work off the UI thread.
+ */
+class Worker implements Runnable {
+    private final Object mLock = new Object();
+    private Looper mLooper;
+
+    /**
+     * Creates a worker thread with the given name. The thread
+     * then runs a {@link android.os.Looper}.
+     * @param name A name for the new thread
+     */
+    Worker(String name) {
+        Thread t = new Thread(null, this, name);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+        synchronized (mLock) {
+            while (mLooper == null) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException ex) {
+                }
+            }
+        }
+    }
+
+    public Looper getLooper() {
+        return mLooper;
+    }
+
+    public void run() {
+        synchronized (mLock) {
+            Looper.prepare();
+            mLooper = Looper.myLooper();
+            mLock.notifyAll();
+        }
+        Looper.loop();
+    }
+
+    public void quit() {
+        mLooper.quit();
+    }
+}
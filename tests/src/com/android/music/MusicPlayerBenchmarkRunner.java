@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music.tests;
+
+import com.android.music.tests.fake.FakeMediaProviderTest;
+import com.android.music.tests.perf.StartupBenchmark;
+
+import android.os.Bundle;
+import android.test.InstrumentationTestRunner;
+import android.test.InstrumentationTestSuite;
+
+import junit.framework.TestSuite;
+
+/**
+ * Instrumentation Test Runner for the music player benchmarks.
+ *
+ * Running all benchmarks:
+ *
+ * adb shell am instrument -r \
+ *   -w com.android.music.tests/.MusicPlayerBenchmarkRunner
+ *
+ * Only recording, without failing on the limits:
+ *
+ * adb shell am instrument -r -e thresholds false \
+ *   -w com.android.music.tests/.MusicPlayerBenchmarkRunner
+ */
+public class MusicPlayerBenchmarkRunner extends InstrumentationTestRunner {
+    private static boolean sThresholds = true;
+    private static float sThresholdScale = 1f;
+
+    @Override
+    public void onCreate(Bundle arguments) {
+        readThresholdArguments(arguments);
+        super.onCreate(arguments);
+    }
+
+    /**
+     * Takes "thresholds" and "threshold_scale" from the runner arguments;
+     * the stress runner accepts them too.
+     */
+    static void readThresholdArguments(Bundle arguments) {
+        if (arguments != null) {
+            sThresholds = !"false".equals(arguments.getString("thresholds"));
+            String scale = arguments.getString("threshold_scale");
+            if (scale != null) {
+                sThresholdScale = Float.parseFloat(scale);
+            }
+        }
+    }
+
+    @Override
+    public TestSuite getAllTests() {
+        TestSuite suite = new InstrumentationTestSuite(this);
+        // the library numbers are only worth something if the fake is right
+        suite.addTestSuite(FakeMediaProviderTest.class);
+        suite.addTestSuite(StartupBenchmark.class);
+        return suite;
+    }
+
+    @Override
+    public ClassLoader getLoader() {
+        return MusicPlayerBenchmarkRunner.class.getClassLoader();
+    }
+
+    public static boolean areThresholdsEnforced() {
+        return sThresholds;
+    }
+
+    public static float getThresholdScale() {
+        return sThresholdScale;
+    }
+}
@@ -18,7 +18,9 @@ package com.android.music.tests;
 
 import com.android.music.tests.stress.AlbumsPlaybackStress;
 import com.android.music.tests.stress.MusicPlaybackStress;
+import com.android.music.tests.stress.ServiceStress;
 
+import android.os.Bundle;
 import android.test.InstrumentationTestRunner;
 import android.test.InstrumentationTestSuite;
 
@@ -31,15 +33,25 @@ import junit.framework.TestSuite;
  *
  * adb shell am instrument \
  *   -w com.android.music.tests/.MusicPlayerStressTestRunner
+ *
+ * ServiceStress takes the same "thresholds" and "threshold_scale"
+ * arguments as MusicPlayerBenchmarkRunner.
  */
 
 public class MusicPlayerStressTestRunner extends InstrumentationTestRunner {
 
+  @Override
+    public void onCreate(Bundle arguments) {
+      MusicPlayerBenchmarkRunner.readThresholdArguments(arguments);
+      super.onCreate(arguments);
+    }
+
   @Override
     public TestSuite getAllTests() {
       TestSuite suite = new InstrumentationTestSuite(this);  
       //suite.addTestSuite(MusicPlaybackStress.class);
       suite.addTestSuite(AlbumsPlaybackStress.class);
+      suite.addTestSuite(ServiceStress.class);
       return suite;
     }
 
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music.tests.fake;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.provider.MediaStore;
+import android.test.mock.MockContentResolver;
+
+/**
+ * A context whose content resolver sends the media provider's URIs to a
+ * {@link FakeMediaProvider}. Pass it to MusicUtils, or attach it to the
+ * service or an activity under test, and their queries see the synthetic
+ * library instead of the music on the device.
+ */
+public class FakeMediaContext extends ContextWrapper {
+    private final MockContentResolver mResolver = new MockContentResolver();
+    private final FakeMediaProvider mProvider;
+
+    public FakeMediaContext(Context base, SyntheticLibrary library) {
+        super(base);
+        mProvider = new FakeMediaProvider(library);
+        // calls onCreate(), which generates the library
+        mProvider.attachInfo(this, null);
+        mResolver.addProvider(MediaStore.AUTHORITY, mProvider);
+    }
+
+    public FakeMediaProvider getProvider() {
+        return mProvider;
+    }
+
+    @Override
+    public ContentResolver getContentResolver() {
+        return mResolver;
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        // so code that holds on to the application context stays here
+        return this;
+    }
+}
@@ -0,0 +1,461 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music.tests.fake;
+
+import android.content.ContentProvider;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+import android.text.TextUtils;
+
+/**
+ * An in-process stand-in for the media provider, backed by an in-memory
+ * database filled from a {@link SyntheticLibrary}. It answers the URIs the
+ * app uses: audio/media, albums, artists, album artists, playlists and
+ * their members, and search/fancy, with the same columns, so selections
+ * and sort orders written for the real provider work unchanged.
+ * <p>
+ * Every query can be made to take longer, to stand in for a slow or busy
+ * provider; see {@link #setLatency}.
+ */
+public class FakeMediaProvider extends ContentProvider {
+    static final String AUDIO_TABLE = "audio";
+    static final String PLAYLISTS_TABLE = "playlists";
+    static final String MEMBERS_TABLE = "audio_playlists_map";
+    private static final String ALBUMS_VIEW = "album_info";
+    private static final String ARTISTS_VIEW = "artist_info";
+    private static final String ALBUMARTISTS_VIEW = "albumartist_info";
+    private static final String MEMBERS_VIEW = "playlist_members";
+
+    // the album artist columns have no standard names
+    static final String ALBUM_ARTIST = MediaStore.Audio.Media.ALBUM_ARTIST;
+    static final String ALBUM_ARTIST_ID = MediaStore.Audio.Media.ALBUM_ARTIST_ID;
+    static final String ALBUM_ARTIST_KEY = MediaStore.Audio.Albumartists.ALBUM_ARTIST_KEY;
+
+    private static final String [] AUDIO_COLUMNS = {
+        "_data", "_display_name", "_size", "mime_type", "date_added", "date_modified",
+        "title", "title_key", "duration", "artist_id", "artist", "artist_key",
+        "album_id", "album", "album_key", ALBUM_ARTIST_ID, ALBUM_ARTIST, ALBUM_ARTIST_KEY,
+        "track", "year", "is_music", "is_podcast", "is_ringtone", "is_alarm",
+        "is_notification", "bookmark"
+    };
+
+    private static final int AUDIO = 1;
+    private static final int AUDIO_ID = 2;
+    private static final int ALBUMS = 3;
+    private static final int ALBUM_ID = 4;
+    private static final int ARTISTS = 5;
+    private static final int ARTIST_ID = 6;
+    private static final int ARTIST_ALBUMS = 7;
+    private static final int ALBUMARTISTS = 8;
+    private static final int ALBUMARTIST_ALBUMS = 9;
+    private static final int PLAYLISTS = 10;
+    private static final int PLAYLIST_ID = 11;
+    private static final int PLAYLIST_MEMBERS = 12;
+    private static final int PLAYLIST_MEMBER_ID = 13;
+    private static final int SEARCH_FANCY = 14;
+
+    private static final UriMatcher sMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+
+    /**
+     * Matches the given URI with the volume and any id made wildcards, so
+     * the patterns come from the same constants the app uses.
+     */
+    private static void addUri(Uri uri, int code) {
+        StringBuilder path = new StringBuilder();
+        for (String segment : uri.getPathSegments()) {
+            if (path.length() > 0) {
+                path.append('/');
+            }
+            if ("external".equals(segment)) {
+                path.append('*');
+            } else if ("0".equals(segment)) {
+                path.append('#');
+            } else {
+                path.append(segment);
+            }
+        }
+        sMatcher.addURI(uri.getAuthority(), path.toString(), code);
+    }
+
+    static {
+        addUri(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, AUDIO);
+        addUri(ContentUris.withAppendedId(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, 0),
+                AUDIO_ID);
+        addUri(MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI, ALBUMS);
+        addUri(ContentUris.withAppendedId(MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI, 0),
+                ALBUM_ID);
+        addUri(MediaStore.Audio.Artists.EXTERNAL_CONTENT_URI, ARTISTS);
+        addUri(ContentUris.withAppendedId(MediaStore.Audio.Artists.EXTERNAL_CONTENT_URI, 0),
+                ARTIST_ID);
+        addUri(MediaStore.Audio.Artists.Albums.getContentUri("external", 0), ARTIST_ALBUMS);
+        addUri(MediaStore.Audio.Albumartists.EXTERNAL_CONTENT_URI, ALBUMARTISTS);
+        addUri(MediaStore.Audio.Albumartists.Albums.getContentUri("external", 0),
+                ALBUMARTIST_ALBUMS);
+        addUri(MediaStore.Audio.Playlists.EXTERNAL_CONTENT_URI, PLAYLISTS);
+        addUri(ContentUris.withAppendedId(MediaStore.Audio.Playlists.EXTERNAL_CONTENT_URI, 0),
+                PLAYLIST_ID);
+        Uri members = MediaStore.Audio.Playlists.Members.getContentUri("external", 0);
+        addUri(members, PLAYLIST_MEMBERS);
+        addUri(ContentUris.withAppendedId(members, 0), PLAYLIST_MEMBER_ID);
+        sMatcher.addURI(MediaStore.AUTHORITY, "*/audio/search/fancy", SEARCH_FANCY);
+        sMatcher.addURI(MediaStore.AUTHORITY, "*/audio/search/fancy/*", SEARCH_FANCY);
+    }
+
+    /**
+     * Returns the id of the artist, album artist or playlist in a URI
+     * for its albums or members.
+     */
+    private static String parentId(Uri uri) {
+        for (String segment : uri.getPathSegments()) {
+            if (TextUtils.isDigitsOnly(segment)) {
+                return segment;
+            }
+        }
+        throw new IllegalArgumentException("no id in " + uri);
+    }
+
+    private final SyntheticLibrary mLibrary;
+    private SQLiteDatabase mDb;
+    private volatile long mQueryLatency;
+    private volatile long mRowLatency;
+    private volatile int mQueryCount;
+
+    public FakeMediaProvider(SyntheticLibrary library) {
+        mLibrary = library;
+    }
+
+    @Override
+    public boolean onCreate() {
+        mDb = SQLiteDatabase.create(null);
+        createTables(mDb);
+        mLibrary.populate(mDb);
+        return true;
+    }
+
+    private static void createTables(SQLiteDatabase db) {
+        StringBuilder sql = new StringBuilder("CREATE TABLE " + AUDIO_TABLE
+                + " (_id INTEGER PRIMARY KEY");
+        for (String column : AUDIO_COLUMNS) {
+            sql.append(", ").append(column);
+        }
+        sql.append(")");
+        db.execSQL(sql.toString());
+        db.execSQL("CREATE INDEX audio_album ON " + AUDIO_TABLE + " (album_id)");
+        db.execSQL("CREATE INDEX audio_artist ON " + AUDIO_TABLE + " (artist_id)");
+        db.execSQL("CREATE TABLE " + PLAYLISTS_TABLE + " (_id INTEGER PRIMARY KEY, _data,"
+                + " name, date_added, date_modified)");
+        db.execSQL("CREATE TABLE " + MEMBERS_TABLE + " (_id INTEGER PRIMARY KEY,"
+                + " audio_id INTEGER, playlist_id INTEGER, play_order INTEGER)");
+
+        String songsForAlbumArtist = MediaStore.Audio.Albums.NUMBER_OF_SONGS_FOR_ALBUM_ARTIST;
+        db.execSQL("CREATE VIEW " + ALBUMS_VIEW + " AS SELECT album_id AS _id, album,"
+                + " album_key, MIN(year) AS minyear, MAX(year) AS maxyear, artist, artist_id,"
+                + " artist_key, " + ALBUM_ARTIST + " AS " + MediaStore.Audio.Albums.ALBUM_ARTIST
+                + ", " + ALBUM_ARTIST_ID + ", count(*) AS numsongs"
+                + ("numsongs".equals(songsForAlbumArtist) ? ""
+                        : ", count(*) AS " + songsForAlbumArtist)
+                + ", NULL AS album_art FROM " + AUDIO_TABLE
+                + " WHERE is_music=1 GROUP BY album_id");
+        db.execSQL("CREATE VIEW " + ARTISTS_VIEW + " AS SELECT artist_id AS _id, artist,"
+                + " artist_key, count(DISTINCT album_id) AS number_of_albums,"
+                + " count(*) AS number_of_tracks FROM " + AUDIO_TABLE
+                + " WHERE is_music=1 GROUP BY artist_id");
+        db.execSQL("CREATE VIEW " + ALBUMARTISTS_VIEW + " AS SELECT " + ALBUM_ARTIST_ID
+                + " AS " + MediaStore.Audio.Albumartists._ID + ", " + ALBUM_ARTIST
+                + " AS " + MediaStore.Audio.Albumartists.ALBUM_ARTIST + ", " + ALBUM_ARTIST_KEY
+                + ", count(DISTINCT album_id) AS " + MediaStore.Audio.Albumartists.NUMBER_OF_ALBUMS
+                + ", count(*) AS " + MediaStore.Audio.Albumartists.NUMBER_OF_TRACKS
+                + " FROM " + AUDIO_TABLE + " WHERE is_music=1 GROUP BY " + ALBUM_ARTIST_ID);
+        sql = new StringBuilder("CREATE VIEW " + MEMBERS_VIEW + " AS SELECT " + MEMBERS_TABLE
+                + "._id AS _id, audio_id, playlist_id, play_order");
+        for (String column : AUDIO_COLUMNS) {
+            sql.append(", ").append(column);
+        }
+        sql.append(" FROM " + MEMBERS_TABLE + " JOIN " + AUDIO_TABLE + " ON "
+                + AUDIO_TABLE + "._id = audio_id");
+        db.execSQL(sql.toString());
+    }
+
+    /**
+     * Makes every query take at least 'perQuery' ms, plus 'perThousandRows'
+     * ms for every thousand rows it returns.
+     */
+    public void setLatency(long perQuery, long perThousandRows) {
+        mQueryLatency = perQuery;
+        mRowLatency = perThousandRows;
+    }
+
+    /**
+     * Returns the number of queries so far, to check how many a feature
+     * makes.
+     */
+    public int getQueryCount() {
+        return mQueryCount;
+    }
+
+    /**
+     * Narrows the query to rows where every word of the "filter" parameter
+     * appears in one of the given columns, like the real provider does.
+     */
+    private static void appendFilter(SQLiteQueryBuilder qb, Uri uri, String columns) {
+        String filter = uri.getQueryParameter("filter");
+        if (TextUtils.isEmpty(filter)) {
+            return;
+        }
+        for (String word : filter.trim().split("\\s+")) {
+            qb.appendWhere(" AND " + columns + " LIKE ");
+            qb.appendWhereEscapeString("%" + word + "%");
+        }
+    }
+
+    @Override
+    public Cursor query(Uri uri, String [] projection, String selection,
+            String [] selectionArgs, String sortOrder) {
+        mQueryCount++;
+        long start = SystemClock.uptimeMillis();
+        SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+        // so appendFilter() can always start with AND
+        qb.appendWhere("1");
+        switch (sMatcher.match(uri)) {
+            case AUDIO_ID:
+                qb.appendWhere(" AND _id=" + ContentUris.parseId(uri));
+                // fall through
+            case AUDIO:
+                qb.setTables(AUDIO_TABLE);
+                appendFilter(qb, uri, "(artist || ' ' || album || ' ' || title)");
+                break;
+            case ALBUM_ID:
+                qb.appendWhere(" AND _id=" + ContentUris.parseId(uri));
+                // fall through
+            case ALBUMS:
+                qb.setTables(ALBUMS_VIEW);
+                appendFilter(qb, uri, "(artist || ' ' || album)");
+                break;
+            case ARTIST_ALBUMS:
+                qb.setTables(ALBUMS_VIEW);
+                qb.appendWhere(" AND artist_id=" + parentId(uri));
+                appendFilter(qb, uri, "(artist || ' ' || album)");
+                break;
+            case ALBUMARTIST_ALBUMS:
+                qb.setTables(ALBUMS_VIEW);
+                qb.appendWhere(" AND " + ALBUM_ARTIST_ID + "=" + parentId(uri));
+                appendFilter(qb, uri, "(artist || ' ' || album)");
+                break;
+            case ARTIST_ID:
+                qb.appendWhere(" AND _id=" + ContentUris.parseId(uri));
+                // fall through
+            case ARTISTS:
+                qb.setTables(ARTISTS_VIEW);
+                appendFilter(qb, uri, "artist");
+                break;
+            case ALBUMARTISTS:
+                qb.setTables(ALBUMARTISTS_VIEW);
+                appendFilter(qb, uri, MediaStore.Audio.Albumartists.ALBUM_ARTIST);
+                break;
+            case PLAYLIST_ID:
+                qb.appendWhere(" AND _id=" + ContentUris.parseId(uri));
+                // fall through
+            case PLAYLISTS:
+                qb.setTables(PLAYLISTS_TABLE);
+                break;
+            case PLAYLIST_MEMBER_ID:
+                qb.appendWhere(" AND _id=" + ContentUris.parseId(uri));
+                // fall through
+            case PLAYLIST_MEMBERS:
+                qb.setTables(MEMBERS_VIEW);
+                qb.appendWhere(" AND playlist_id=" + parentId(uri));
+                appendFilter(qb, uri, "(artist || ' ' || album || ' ' || title)");
+                break;
+            case SEARCH_FANCY:
+                return delay(search(uri, projection), start);
+            default:
+                throw new UnsupportedOperationException("no such uri: " + uri);
+        }
+        Cursor c = qb.query(mDb, projection, selection, selectionArgs, null, null, sortOrder,
+                uri.getQueryParameter("limit"));
+        return delay(c, start);
+    }
+
+    /**
+     * Artists, then albums, then tracks whose names contain the last path
+     * segment, in the columns the real provider returns for a search:
+     * "artist" or "album" instead of a mime type, and the number of albums
+     * and tracks of an artist in data1 and data2.
+     */
+    private Cursor search(Uri uri, String [] projection) {
+        String filter = uri.getPathSegments().size() > 4 ? uri.getLastPathSegment() : "";
+        String like = "%" + filter + "%";
+        String union = "SELECT _id, 'artist' AS mime_type, artist, NULL AS album,"
+                + " NULL AS title, number_of_albums AS data1, number_of_tracks AS data2, 1 AS grp"
+                + " FROM " + ARTISTS_VIEW + " WHERE artist LIKE ?"
+                + " UNION ALL SELECT _id, 'album', artist, album, NULL, NULL, NULL, 2"
+                + " FROM " + ALBUMS_VIEW + " WHERE album LIKE ?"
+                + " UNION ALL SELECT _id, mime_type, artist, album, title, NULL, NULL, 3"
+                + " FROM " + AUDIO_TABLE + " WHERE is_music=1 AND title LIKE ?";
+        String columns = projection == null ? "*" : TextUtils.join(", ", projection);
+        return mDb.rawQuery("SELECT " + columns + " FROM (" + union + ") ORDER BY grp",
+                new String [] { like, like, like });
+    }
+
+    private Cursor delay(Cursor c, long start) {
+        long latency = mQueryLatency;
+        if (c != null && mRowLatency > 0) {
+            latency += c.getCount() * mRowLatency / 1000;
+        }
+        long wait = start + latency - SystemClock.uptimeMillis();
+        if (wait > 0) {
+            SystemClock.sleep(wait);
+        }
+        return c;
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues values) {
+        long id;
+        switch (sMatcher.match(uri)) {
+            case PLAYLISTS:
+                id = mDb.insert(PLAYLISTS_TABLE, null, values);
+                break;
+            case PLAYLIST_MEMBERS:
+                values = new ContentValues(values);
+                values.put("playlist_id", Long.valueOf(parentId(uri)));
+                id = mDb.insert(MEMBERS_TABLE, null, values);
+                break;
+            default:
+                throw new UnsupportedOperationException("can't insert into " + uri);
+        }
+        if (id < 0) {
+            return null;
+        }
+        notifyChange(uri);
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues [] values) {
+        mDb.beginTransaction();
+        try {
+            int count = super.bulkInsert(uri, values);
+            mDb.setTransactionSuccessful();
+            return count;
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the table and the selection for an update or delete.
+     */
+    private static String [] target(Uri uri, String selection) {
+        String table;
+        String where;
+        switch (sMatcher.match(uri)) {
+            case AUDIO:
+                table = AUDIO_TABLE;
+                where = null;
+                break;
+            case AUDIO_ID:
+                table = AUDIO_TABLE;
+                where = "_id=" + ContentUris.parseId(uri);
+                break;
+            case PLAYLISTS:
+                table = PLAYLISTS_TABLE;
+                where = null;
+                break;
+            case PLAYLIST_ID:
+                table = PLAYLISTS_TABLE;
+                where = "_id=" + ContentUris.parseId(uri);
+                break;
+            case PLAYLIST_MEMBERS:
+                table = MEMBERS_TABLE;
+                where = "playlist_id=" + parentId(uri);
+                break;
+            case PLAYLIST_MEMBER_ID:
+                table = MEMBERS_TABLE;
+                where = "playlist_id=" + parentId(uri)
+                        + " AND _id=" + ContentUris.parseId(uri);
+                break;
+            default:
+                throw new UnsupportedOperationException("can't change " + uri);
+        }
+        if (!TextUtils.isEmpty(selection)) {
+            where = where == null ? selection : where + " AND (" + selection + ")";
+        }
+        return new String [] { table, where };
+    }
+
+    @Override
+    public int update(Uri uri, ContentValues values, String selection, String [] selectionArgs) {
+        String [] target = target(uri, selection);
+        int count = mDb.update(target[0], values, target[1], selectionArgs);
+        notifyChange(uri);
+        return count;
+    }
+
+    @Override
+    public int delete(Uri uri, String selection, String [] selectionArgs) {
+        String [] target = target(uri, selection);
+        if (PLAYLISTS_TABLE.equals(target[0])) {
+            // the real provider drops the members along with the playlist
+            mDb.delete(MEMBERS_TABLE, "playlist_id IN (SELECT _id FROM " + PLAYLISTS_TABLE
+                    + (target[1] == null ? "" : " WHERE " + target[1]) + ")", selectionArgs);
+        }
+        int count = mDb.delete(target[0], target[1], selectionArgs);
+        notifyChange(uri);
+        return count;
+    }
+
+    private void notifyChange(Uri uri) {
+        if (getContext() != null) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    @Override
+    public String getType(Uri uri) {
+        switch (sMatcher.match(uri)) {
+            case AUDIO:
+            case PLAYLIST_MEMBERS:
+                return MediaStore.Audio.Media.CONTENT_TYPE;
+            case AUDIO_ID:
+            case PLAYLIST_MEMBER_ID:
+                return MediaStore.Audio.Media.ENTRY_CONTENT_TYPE;
+            case ALBUMS:
+            case ARTIST_ALBUMS:
+            case ALBUMARTIST_ALBUMS:
+                return MediaStore.Audio.Albums.CONTENT_TYPE;
+            case ALBUM_ID:
+                return MediaStore.Audio.Albums.ENTRY_CONTENT_TYPE;
+            case ARTISTS:
+                return MediaStore.Audio.Artists.CONTENT_TYPE;
+            case ARTIST_ID:
+                return MediaStore.Audio.Artists.ENTRY_CONTENT_TYPE;
+            case PLAYLISTS:
+                return MediaStore.Audio.Playlists.CONTENT_TYPE;
+            case PLAYLIST_ID:
+                return MediaStore.Audio.Playlists.ENTRY_CONTENT_TYPE;
+        }
+        return null;
+    }
+}
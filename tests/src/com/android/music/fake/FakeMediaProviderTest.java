@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music.tests.fake;
+
+import com.android.music.MusicUtils;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+/**
+ * Checks that the fake provider answers the app's own queries the way the
+ * media provider would, so benchmarks built on it measure something real.
+ */
+public class FakeMediaProviderTest extends AndroidTestCase {
+    private SyntheticLibrary mLibrary;
+    private FakeMediaContext mFake;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLibrary = SyntheticLibrary.ofSize(2000);
+        mFake = new FakeMediaContext(getContext(), mLibrary);
+    }
+
+    @MediumTest
+    public void testAllSongs() {
+        long [] songs = MusicUtils.getAllSongs(mFake);
+        assertEquals(mLibrary.mTracks, songs.length);
+    }
+
+    @MediumTest
+    public void testAlbums() {
+        Cursor c = MusicUtils.query(mFake, MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI,
+                new String [] { MediaStore.Audio.Albums._ID,
+                        MediaStore.Audio.Albums.NUMBER_OF_SONGS },
+                null, null, MediaStore.Audio.Albums.DEFAULT_SORT_ORDER);
+        int total = 0;
+        try {
+            assertTrue(c.moveToFirst());
+            long id = c.getLong(0);
+            assertEquals(c.getInt(1), MusicUtils.getSongListForAlbum(mFake, id).length);
+            do {
+                total += c.getInt(1);
+            } while (c.moveToNext());
+        } finally {
+            c.close();
+        }
+        assertEquals(mLibrary.mTracks, total);
+    }
+
+    @MediumTest
+    public void testPlaylists() {
+        Cursor c = MusicUtils.query(mFake, MediaStore.Audio.Playlists.EXTERNAL_CONTENT_URI,
+                new String [] { MediaStore.Audio.Playlists._ID }, null, null, null);
+        try {
+            assertEquals(mLibrary.mPlaylists, c.getCount());
+            c.moveToFirst();
+            long [] members = MusicUtils.getSongListForPlaylist(mFake, c.getLong(0));
+            assertEquals(mLibrary.mPlaylistSize, members.length);
+        } finally {
+            c.close();
+        }
+    }
+
+    @MediumTest
+    public void testFilterAndSearch() {
+        Uri uri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI.buildUpon()
+                .appendQueryParameter("filter", "blue night").build();
+        Cursor c = MusicUtils.query(mFake, uri, new String [] { MediaStore.Audio.Media._ID },
+                null, null, null);
+        int filtered = c.getCount();
+        c.close();
+        assertTrue(filtered < mLibrary.mTracks);
+
+        c = MusicUtils.query(mFake, Uri.parse("content://media/external/audio/search/fancy/"
+                + Uri.encode("1")), new String [] { "_id", MediaStore.Audio.Media.MIME_TYPE,
+                        "data1", "data2" }, null, null, null);
+        try {
+            assertTrue(c.moveToFirst());
+            // artists come first
+            assertEquals("artist", c.getString(1));
+        } finally {
+            c.close();
+        }
+    }
+
+    @MediumTest
+    public void testLatency() {
+        mFake.getProvider().setLatency(100, 0);
+        long start = SystemClock.uptimeMillis();
+        MusicUtils.getSongListForArtist(mFake, 1);
+        assertTrue(SystemClock.uptimeMillis() - start >= 100);
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music.tests.fake;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.MediaStore;
+
+import java.util.Random;
+
+/**
+ * Describes a generated music library, and writes it into the tables of a
+ * {@link FakeMediaProvider}. The same settings and seed always give the
+ * same library.
+ * <p>
+ * Tracks are spread over the albums with a Zipf distribution, so a few
+ * albums are big and most are small, the way real libraries look. Some
+ * tracks can be left without an artist or album tag, which the media
+ * scanner stores as &lt;unknown&gt;.
+ */
+public class SyntheticLibrary {
+    private static final String [] WORDS = {
+        "Blue", "night", "Love", "the", "Song", "river", "Fire", "of", "Dream", "rain",
+        "Heart", "a", "Light", "road", "Summer", "and", "Home", "time", "Gold", "sea",
+        "Ghost", "in", "Stone", "city", "Wild", "my", "Echo", "star", "Silver", "you",
+    };
+
+    public int mTracks = 1000;
+    public int mArtists = 25;
+    public int mAlbumsPerArtist = 4;
+    // 0 spreads the tracks evenly over the albums, 1 and up makes the
+    // first albums ever bigger
+    public double mSkew = 0.8;
+    public double mUnknownArtistFraction = 0.02;
+    public double mUnknownAlbumFraction = 0.02;
+    // albums whose tracks have different artists, under one album artist
+    public double mCompilationFraction = 0.05;
+    public double mPodcastFraction = 0;
+    public int mPlaylists = 5;
+    public int mPlaylistSize = 50;
+    public long mSeed = 1;
+
+    /**
+     * Returns a library with the given number of tracks, and artists and
+     * albums in proportion to it.
+     */
+    public static SyntheticLibrary ofSize(int tracks) {
+        SyntheticLibrary library = new SyntheticLibrary();
+        library.mTracks = tracks;
+        library.mArtists = Math.max(1, tracks / 40);
+        return library;
+    }
+
+    private static String words(Random r, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[r.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Fills the empty tables. Tracks, albums and artists are numbered
+     * from 1; the unknown artist and album come after the others.
+     */
+    void populate(SQLiteDatabase db) {
+        Random r = new Random(mSeed);
+        int numAlbums = Math.max(1, mArtists * mAlbumsPerArtist);
+        long unknownArtistId = mArtists + 1;
+        long unknownAlbumId = numAlbums + 1;
+        long variousArtistsId = mArtists + 2;
+
+        String [] artistNames = new String[mArtists + 1];
+        for (int i = 1; i <= mArtists; i++) {
+            artistNames[i] = words(r, 1 + r.nextInt(3)) + " " + i;
+        }
+        String [] albumNames = new String[numAlbums + 1];
+        long [] albumArtists = new long[numAlbums + 1];
+        boolean [] compilations = new boolean[numAlbums + 1];
+        int [] years = new int[numAlbums + 1];
+        for (int i = 1; i <= numAlbums; i++) {
+            albumNames[i] = words(r, 1 + r.nextInt(4)) + " " + i;
+            albumArtists[i] = 1 + (i - 1) % mArtists;
+            compilations[i] = r.nextDouble() < mCompilationFraction;
+            years[i] = 1960 + r.nextInt(50);
+        }
+
+        // cumulative Zipf weights, to pick albums by
+        double [] weights = new double[numAlbums];
+        double total = 0;
+        for (int i = 0; i < numAlbums; i++) {
+            total += 1 / Math.pow(i + 1, mSkew);
+            weights[i] = total;
+        }
+        int [] trackNumbers = new int[numAlbums + 2];
+
+        long now = System.currentTimeMillis() / 1000;
+        db.beginTransaction();
+        try {
+            SQLiteStatement insert = db.compileStatement("INSERT INTO "
+                    + FakeMediaProvider.AUDIO_TABLE + " (_id, _data, _display_name, _size,"
+                    + " mime_type, date_added, date_modified, title, title_key, duration,"
+                    + " artist_id, artist, artist_key, album_id, album, album_key,"
+                    + " " + FakeMediaProvider.ALBUM_ARTIST_ID
+                    + ", " + FakeMediaProvider.ALBUM_ARTIST
+                    + ", " + FakeMediaProvider.ALBUM_ARTIST_KEY + ", track, year,"
+                    + " is_music, is_podcast, is_ringtone, is_alarm, is_notification, bookmark)"
+                    + " VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)");
+            for (long id = 1; id <= mTracks; id++) {
+                double w = r.nextDouble() * total;
+                int lo = 0;
+                int hi = numAlbums - 1;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (weights[mid] < w) {
+                        lo = mid + 1;
+                    } else {
+                        hi = mid;
+                    }
+                }
+                long albumId = lo + 1;
+                long albumArtistId = albumArtists[(int) albumId];
+                long artistId = compilations[(int) albumId] ? 1 + r.nextInt(mArtists)
+                        : albumArtistId;
+                String albumArtist = compilations[(int) albumId] ? "Various Artists"
+                        : artistNames[(int) albumArtistId];
+                if (compilations[(int) albumId]) {
+                    albumArtistId = variousArtistsId;
+                }
+                String artist = artistNames[(int) artistId];
+                String album = albumNames[(int) albumId];
+                if (r.nextDouble() < mUnknownArtistFraction) {
+                    artistId = unknownArtistId;
+                    artist = MediaStore.UNKNOWN_STRING;
+                }
+                if (r.nextDouble() < mUnknownAlbumFraction) {
+                    albumId = unknownAlbumId;
+                    album = MediaStore.UNKNOWN_STRING;
+                }
+                int track = ++trackNumbers[(int) albumId];
+                String title = words(r, 1 + r.nextInt(5));
+                boolean podcast = r.nextDouble() < mPodcastFraction;
+                String file = String.format("%02d %s.mp3", track, title);
+
+                insert.bindLong(1, id);
+                insert.bindString(2, "/sdcard/Music/" + artist + "/" + album + "/" + file);
+                insert.bindString(3, file);
+                insert.bindLong(4, 3000000 + r.nextInt(7000000));
+                insert.bindString(5, "audio/mpeg");
+                // spread over the last two months, for "recently added"
+                long added = now - r.nextInt(60 * 24 * 3600);
+                insert.bindLong(6, added);
+                insert.bindLong(7, added);
+                insert.bindString(8, title);
+                insert.bindString(9, MediaStore.Audio.keyFor(title));
+                insert.bindLong(10, (120 + r.nextInt(300)) * 1000L);
+                insert.bindLong(11, artistId);
+                insert.bindString(12, artist);
+                insert.bindString(13, MediaStore.Audio.keyFor(artist));
+                insert.bindLong(14, albumId);
+                insert.bindString(15, album);
+                insert.bindString(16, MediaStore.Audio.keyFor(album));
+                insert.bindLong(17, albumArtistId);
+                insert.bindString(18, albumArtist);
+                insert.bindString(19, MediaStore.Audio.keyFor(albumArtist));
+                insert.bindLong(20, track);
+                insert.bindLong(21, years[Math.min((int) albumId, numAlbums)]);
+                insert.bindLong(22, podcast ? 0 : 1);
+                insert.bindLong(23, podcast ? 1 : 0);
+                insert.bindLong(24, 0);
+                insert.bindLong(25, 0);
+                insert.bindLong(26, 0);
+                insert.bindLong(27, 0);
+                insert.executeInsert();
+            }
+            insert.close();
+
+            ContentValues values = new ContentValues();
+            for (int p = 1; p <= mPlaylists; p++) {
+                values.clear();
+                values.put("_id", p);
+                values.put("name", "Playlist " + words(r, 2) + " " + p);
+                values.put("date_added", now);
+                values.put("date_modified", now);
+                db.insert(FakeMediaProvider.PLAYLISTS_TABLE, null, values);
+                int size = mTracks == 0 ? 0 : mPlaylistSize;
+                for (int i = 0; i < size; i++) {
+                    values.clear();
+                    values.put("playlist_id", p);
+                    values.put("audio_id", 1 + r.nextInt(mTracks));
+                    values.put("play_order", i);
+                    db.insert(FakeMediaProvider.MEMBERS_TABLE, null, values);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
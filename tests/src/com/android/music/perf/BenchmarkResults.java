@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music.tests.perf;
+
+import com.android.music.tests.MusicPlayerBenchmarkRunner;
+
+import android.app.Instrumentation;
+import android.os.Bundle;
+import android.os.Environment;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects the samples of a benchmark run and reports them in a form
+ * scripts can read: every metric is sent as an instrumentation status
+ * (visible with "am instrument -r"), and the whole run is written as JSON
+ * to /sdcard/music_benchmarks/&lt;name&gt;.json.
+ * <p>
+ * A metric can have limits on its percentiles, the 90th unless another
+ * is given. {@link #check} fails the test if any is over, unless the runner was given
+ * "-e thresholds false"; "-e threshold_scale 2" doubles all limits, for
+ * slow devices.
+ */
+public class BenchmarkResults {
+    private static final String TAG = "BenchmarkResults";
+
+    // status code for the benchmark values, next to the runner's own
+    public static final int REPORT_VALUE_RESULT_BENCHMARK = 3;
+
+    private static class Metric {
+        final ArrayList<Long> mSamples = new ArrayList<Long>();
+        final String mUnit;
+        // percentile (0 to 1) to limit
+        final LinkedHashMap<Double, Long> mLimits = new LinkedHashMap<Double, Long>();
+
+        Metric(String unit) {
+            mUnit = unit;
+        }
+
+        long percentile(double fraction) {
+            if (mSamples.isEmpty()) {
+                return -1;
+            }
+            long [] sorted = new long[mSamples.size()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = mSamples.get(i);
+            }
+            Arrays.sort(sorted);
+            int i = (int) Math.ceil(fraction * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+        }
+    }
+
+    private final String mName;
+    private final Instrumentation mInstrumentation;
+    private final LinkedHashMap<String, Metric> mMetrics = new LinkedHashMap<String, Metric>();
+    private final LinkedHashMap<String, Object> mInfo = new LinkedHashMap<String, Object>();
+
+    public BenchmarkResults(String name, Instrumentation instrumentation) {
+        mName = name;
+        mInstrumentation = instrumentation;
+    }
+
+    private Metric metric(String name, String unit) {
+        Metric m = mMetrics.get(name);
+        if (m == null) {
+            m = new Metric(unit);
+            mMetrics.put(name, m);
+        }
+        return m;
+    }
+
+    /**
+     * Adds a sample, in the given unit ("ms", "us", "count", ...).
+     */
+    public void add(String name, String unit, long value) {
+        metric(name, unit).mSamples.add(value);
+    }
+
+    /**
+     * Sets the limit on the 90th percentile of a metric.
+     */
+    public void setLimit(String name, String unit, long limit) {
+        setLimit(name, unit, 0.9, limit);
+    }
+
+    /**
+     * Sets the limit on the given percentile (0 to 1) of a metric.
+     */
+    public void setLimit(String name, String unit, double fraction, long limit) {
+        metric(name, unit).mLimits.put(fraction, limit);
+    }
+
+    /**
+     * Records something about the run, like the size of the library.
+     */
+    public void putInfo(String key, Object value) {
+        mInfo.put(key, value);
+    }
+
+    public long getPercentile(String name, double fraction) {
+        Metric m = mMetrics.get(name);
+        return m == null ? -1 : m.percentile(fraction);
+    }
+
+    /**
+     * Sends the results as instrumentation status and writes them to the
+     * JSON file.
+     */
+    public void report() {
+        JSONObject json = new JSONObject();
+        Bundle status = new Bundle();
+        try {
+            json.put("benchmark", mName);
+            for (Map.Entry<String, Object> e : mInfo.entrySet()) {
+                json.put(e.getKey(), e.getValue());
+                status.putString(e.getKey(), String.valueOf(e.getValue()));
+            }
+            JSONObject metrics = new JSONObject();
+            for (Map.Entry<String, Metric> e : mMetrics.entrySet()) {
+                Metric m = e.getValue();
+                JSONObject o = new JSONObject();
+                o.put("unit", m.mUnit);
+                o.put("count", m.mSamples.size());
+                o.put("p50", m.percentile(0.5));
+                o.put("p90", m.percentile(0.9));
+                o.put("p99", m.percentile(0.99));
+                o.put("max", m.percentile(1));
+                for (Map.Entry<Double, Long> limit : m.mLimits.entrySet()) {
+                    o.put("limit_" + percentileName(limit.getKey()), scaled(limit.getValue()));
+                }
+                metrics.put(e.getKey(), o);
+                status.putLong(e.getKey() + " p50 (" + m.mUnit + ")", m.percentile(0.5));
+                status.putLong(e.getKey() + " p90 (" + m.mUnit + ")", m.percentile(0.9));
+                status.putLong(e.getKey() + " p99 (" + m.mUnit + ")", m.percentile(0.99));
+            }
+            json.put("metrics", metrics);
+        } catch (JSONException ex) {
+            // only thrown for NaN and infinite numbers, which we don't have
+            throw new RuntimeException(ex);
+        }
+        mInstrumentation.sendStatus(REPORT_VALUE_RESULT_BENCHMARK, status);
+
+        File dir = new File(Environment.getExternalStorageDirectory(), "music_benchmarks");
+        dir.mkdirs();
+        File file = new File(dir, mName + ".json");
+        FileWriter out = null;
+        try {
+            out = new FileWriter(file);
+            out.write(json.toString(2));
+        } catch (IOException ex) {
+            Log.w(TAG, "couldn't write " + file, ex);
+        } catch (JSONException ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ex) {
+                }
+            }
+        }
+    }
+
+    private static String percentileName(double fraction) {
+        return "p" + Math.round(fraction * 100);
+    }
+
+    private static long scaled(long limit) {
+        return (long) (limit * MusicPlayerBenchmarkRunner.getThresholdScale());
+    }
+
+    /**
+     * Returns a description of every metric that is over its limit, or
+     * has a limit but no samples, or null if none is, or limits are
+     * turned off.
+     */
+    public String check() {
+        if (!MusicPlayerBenchmarkRunner.areThresholdsEnforced()) {
+            return null;
+        }
+        StringBuilder failures = null;
+        for (Map.Entry<String, Metric> e : mMetrics.entrySet()) {
+            Metric m = e.getValue();
+            if (!m.mLimits.isEmpty() && m.mSamples.isEmpty()) {
+                // whatever was measured never happened
+                if (failures == null) {
+                    failures = new StringBuilder(mName + " over its limits:");
+                }
+                failures.append("\n  ").append(e.getKey()).append(": no samples");
+                continue;
+            }
+            for (Map.Entry<Double, Long> limit : m.mLimits.entrySet()) {
+                long value = m.percentile(limit.getKey());
+                long max = scaled(limit.getValue());
+                if (value <= max) {
+                    continue;
+                }
+                if (failures == null) {
+                    failures = new StringBuilder(mName + " over its limits:");
+                }
+                failures.append("\n  ").append(e.getKey()).append(": ")
+                        .append(percentileName(limit.getKey())).append(' ').append(value)
+                        .append(m.mUnit).append(" > ").append(max).append(m.mUnit);
+            }
+        }
+        return failures == null ? null : failures.toString();
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music.tests.perf;
+
+import com.android.music.AlbumBrowserActivity;
+import com.android.music.ArtistAlbumBrowserActivity;
+import com.android.music.IMediaPlaybackService;
+import com.android.music.MediaPlaybackService;
+import com.android.music.MusicUtils;
+import com.android.music.PlaylistBrowserActivity;
+import com.android.music.TrackBrowserActivity;
+import com.android.music.tests.fake.FakeMediaContext;
+import com.android.music.tests.fake.SyntheticLibrary;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.view.View;
+import android.widget.AdapterView;
+
+/**
+ * Measures how long the browser tabs take to come up and show their
+ * first row, and how long the playback service takes to bind and to
+ * restore its queue.
+ * <p>
+ * The first launch of a tab in the test process is reported as cold, the
+ * ones after it as warm. A launch of the whole process is measured by
+ * MusicPlayerLaunchPerformance. The tabs show whatever music is on the
+ * device, whose size is reported with the results; testLibraryFirstRow
+ * runs the tabs' queries against generated libraries of fixed sizes.
+ */
+public class StartupBenchmark extends InstrumentationTestCase {
+    private static final int WARM_LAUNCHES = 5;
+    private static final int SERVICE_STARTS = 5;
+    private static final int QUERY_RUNS = 5;
+    private static final int [] LIBRARY_SIZES = { 1000, 10000, 50000 };
+    private static final long FIRST_ROW_TIMEOUT = 10000; // ms
+    private static final long READY_TIMEOUT = 15000; // ms
+    private static final long POLL_INTERVAL = 5; // ms
+
+    // limits on the 90th percentiles
+    private static final long COLD_LAUNCH_LIMIT = 1500; // ms
+    private static final long WARM_LAUNCH_LIMIT = 700; // ms
+    private static final long FIRST_ROW_LIMIT = 1500; // ms
+    private static final long SERVICE_BIND_LIMIT = 300; // ms
+    private static final long SERVICE_READY_LIMIT = 2000; // ms
+    private static final long LIBRARY_FIRST_ROW_LIMIT = 500; // ms, at 50000 tracks
+
+    private static final Object [][] TABS = {
+        { "artist", ArtistAlbumBrowserActivity.class, "vnd.android.cursor.dir/artistalbum" },
+        { "album", AlbumBrowserActivity.class, "vnd.android.cursor.dir/album" },
+        { "track", TrackBrowserActivity.class, "vnd.android.cursor.dir/track" },
+        { "playlist", PlaylistBrowserActivity.class, MediaStore.Audio.Playlists.CONTENT_TYPE },
+    };
+
+    private Instrumentation mInstrumentation;
+    private Context mContext;
+    private BenchmarkResults mResults;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mInstrumentation = getInstrumentation();
+        mContext = mInstrumentation.getTargetContext();
+        mResults = new BenchmarkResults("startup_" + getName(), mInstrumentation);
+        mResults.putInfo("tracks", countTracks());
+    }
+
+    private int countTracks() {
+        Cursor c = mContext.getContentResolver().query(
+                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                new String [] { MediaStore.Audio.Media._ID },
+                MediaStore.Audio.Media.IS_MUSIC + "=1", null, null);
+        if (c == null) {
+            return 0;
+        }
+        try {
+            return c.getCount();
+        } finally {
+            c.close();
+        }
+    }
+
+    private void finishReporting() {
+        mResults.report();
+        String failures = mResults.check();
+        if (failures != null) {
+            fail(failures);
+        }
+    }
+
+    /**
+     * Starts the tab the way the tab bar does, and waits until it has been
+     * drawn. Records the launch time, and the time until the list has a
+     * row; a list that has none after FIRST_ROW_TIMEOUT counts as taking
+     * that long.
+     */
+    private void launchTab(Object [] tab, String launchMetric) {
+        String name = (String) tab[0];
+        Intent intent = new Intent(Intent.ACTION_PICK);
+        intent.setClass(mContext, (Class<?>) tab[1]);
+        intent.setDataAndType(Uri.EMPTY, (String) tab[2]);
+        intent.putExtra("withtabs", true);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+
+        long start = SystemClock.uptimeMillis();
+        final Activity activity = mInstrumentation.startActivitySync(intent);
+        long launched = SystemClock.uptimeMillis();
+        mResults.add(name + " " + launchMetric, "ms", launched - start);
+
+        final int [] rows = new int[1];
+        long firstRow = FIRST_ROW_TIMEOUT;
+        long end = launched + FIRST_ROW_TIMEOUT;
+        while (SystemClock.uptimeMillis() < end) {
+            mInstrumentation.runOnMainSync(new Runnable() {
+                public void run() {
+                    View list = activity.findViewById(android.R.id.list);
+                    rows[0] = list instanceof AdapterView
+                            ? ((AdapterView<?>) list).getChildCount() : 0;
+                }
+            });
+            if (rows[0] > 0) {
+                firstRow = SystemClock.uptimeMillis() - start;
+                break;
+            }
+            SystemClock.sleep(POLL_INTERVAL);
+        }
+        mResults.add(name + " first row", "ms", firstRow);
+
+        activity.finish();
+        mInstrumentation.waitForIdleSync();
+    }
+
+    @LargeTest
+    public void testTabLaunch() {
+        for (Object [] tab : TABS) {
+            String name = (String) tab[0];
+            mResults.setLimit(name + " cold launch", "ms", COLD_LAUNCH_LIMIT);
+            mResults.setLimit(name + " warm launch", "ms", WARM_LAUNCH_LIMIT);
+            mResults.setLimit(name + " first row", "ms", FIRST_ROW_LIMIT);
+            launchTab(tab, "cold launch");
+            for (int i = 0; i < WARM_LAUNCHES; i++) {
+                launchTab(tab, "warm launch");
+            }
+        }
+        finishReporting();
+    }
+
+    // the queries the tabs start with, as the activities make them:
+    // name, uri, columns, selection, sort order
+    private static final Object [][] TAB_QUERIES = {
+        { "artist", MediaStore.Audio.Albumartists.EXTERNAL_CONTENT_URI,
+                new String [] { MediaStore.Audio.Albumartists._ID,
+                        MediaStore.Audio.Albumartists.ALBUM_ARTIST,
+                        MediaStore.Audio.Albumartists.NUMBER_OF_ALBUMS,
+                        MediaStore.Audio.Albumartists.NUMBER_OF_TRACKS },
+                null, MediaStore.Audio.Albumartists.ALBUM_ARTIST_KEY },
+        { "album", MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI,
+                new String [] { MediaStore.Audio.Albums._ID, MediaStore.Audio.Albums.ALBUM_ARTIST,
+                        MediaStore.Audio.Albums.ALBUM, MediaStore.Audio.Albums.ALBUM_ART },
+                null, MediaStore.Audio.Albums.DEFAULT_SORT_ORDER },
+        { "track", MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                new String [] { MediaStore.Audio.Media._ID, MediaStore.Audio.Media.TITLE,
+                        MediaStore.Audio.Media.DATA, MediaStore.Audio.Media.ALBUM,
+                        MediaStore.Audio.Media.ARTIST, MediaStore.Audio.Media.ARTIST_ID,
+                        MediaStore.Audio.Media.DURATION },
+                MediaStore.Audio.Media.TITLE + " != '' AND " + MediaStore.Audio.Media.IS_MUSIC
+                        + "=1",
+                MediaStore.Audio.Media.TITLE_KEY },
+        { "playlist", MediaStore.Audio.Playlists.EXTERNAL_CONTENT_URI,
+                new String [] { MediaStore.Audio.Playlists._ID, MediaStore.Audio.Playlists.NAME },
+                MediaStore.Audio.Playlists.NAME + " != ''", MediaStore.Audio.Playlists.NAME },
+    };
+
+    /**
+     * Runs the tabs' first queries against generated libraries of 1000 to
+     * 50000 tracks, and takes the time until the first row has been read.
+     * The activities themselves can't be pointed at another provider, so
+     * this measures the part of the first row that grows with the library.
+     */
+    @LargeTest
+    public void testLibraryFirstRow() {
+        for (int size : LIBRARY_SIZES) {
+            FakeMediaContext context = new FakeMediaContext(mContext,
+                    SyntheticLibrary.ofSize(size));
+            for (Object [] query : TAB_QUERIES) {
+                String metric = query[0] + " first row (" + size + " tracks)";
+                if (size == LIBRARY_SIZES[LIBRARY_SIZES.length - 1]) {
+                    mResults.setLimit(metric, "ms", LIBRARY_FIRST_ROW_LIMIT);
+                }
+                for (int i = 0; i < QUERY_RUNS; i++) {
+                    long start = SystemClock.uptimeMillis();
+                    Cursor c = MusicUtils.query(context, (Uri) query[1], (String []) query[2],
+                            (String) query[3], null, (String) query[4]);
+                    assertNotNull(metric, c);
+                    try {
+                        // getCount() fills the first window, like the list does
+                        if (c.getCount() > 0 && c.moveToFirst()) {
+                            for (int col = 0; col < c.getColumnCount(); col++) {
+                                c.getString(col);
+                            }
+                        }
+                    } finally {
+                        c.close();
+                    }
+                    mResults.add(metric, "ms", SystemClock.uptimeMillis() - start);
+                }
+            }
+        }
+        finishReporting();
+    }
+
+    private static class Connection implements ServiceConnection {
+        IMediaPlaybackService mService;
+        long mConnectedTime;
+
+        public synchronized void onServiceConnected(ComponentName name, IBinder binder) {
+            mService = IMediaPlaybackService.Stub.asInterface(binder);
+            mConnectedTime = SystemClock.uptimeMillis();
+            notifyAll();
+        }
+
+        public void onServiceDisconnected(ComponentName name) {
+        }
+
+        synchronized IMediaPlaybackService await(long timeout) throws InterruptedException {
+            long end = SystemClock.uptimeMillis() + timeout;
+            long now;
+            while (mService == null && (now = SystemClock.uptimeMillis()) < end) {
+                wait(end - now);
+            }
+            return mService;
+        }
+    }
+
+    private static long count(IMediaPlaybackService service, String metric)
+            throws RemoteException {
+        long [] values = service.getMetric(metric);
+        return values == null ? 0 : values[0];
+    }
+
+    /**
+     * Stops the service, binds to it again, and waits for it to restore
+     * its queue, a few times over. The bind time is taken here; how long
+     * onCreate() and the restore took comes from the service's own
+     * histograms.
+     */
+    @LargeTest
+    public void testServiceStart() throws Exception {
+        mResults.setLimit("service bind (cold)", "ms", SERVICE_BIND_LIMIT);
+        mResults.setLimit("service ready", "ms", SERVICE_READY_LIMIT);
+        Intent intent = new Intent(mContext, MediaPlaybackService.class);
+        IMediaPlaybackService service = bindOnce(intent);
+        long creates = count(service, "service create");
+        long readies = count(service, "service ready");
+        for (int i = 0; i < SERVICE_STARTS; i++) {
+            mContext.stopService(intent);
+            mInstrumentation.waitForIdleSync();
+
+            Connection conn = new Connection();
+            long start = SystemClock.uptimeMillis();
+            assertTrue(mContext.bindService(intent, conn, Context.BIND_AUTO_CREATE));
+            service = conn.await(READY_TIMEOUT);
+            assertNotNull("service didn't bind", service);
+
+            // the service lives in this process, so its onCreate() ran
+            // only if the number of creates went up
+            long c = count(service, "service create");
+            boolean cold = c > creates;
+            creates = c;
+            if (cold) {
+                mResults.add("service bind (cold)", "ms", conn.mConnectedTime - start);
+                long end = start + READY_TIMEOUT;
+                while (count(service, "service ready") <= readies
+                        && SystemClock.uptimeMillis() < end) {
+                    SystemClock.sleep(POLL_INTERVAL);
+                }
+                mResults.add("service ready", "ms", SystemClock.uptimeMillis() - start);
+            } else {
+                mResults.add("service bind (warm)", "ms", conn.mConnectedTime - start);
+            }
+            readies = count(service, "service ready");
+            mContext.unbindService(conn);
+        }
+
+        // Metrics are per process, so the binder still answers after unbinding
+        long [] create = service.getMetric("service create");
+        long [] ready = service.getMetric("service ready");
+        // the service's own view, in microseconds: count, mean, p50, p90, p99, max
+        mResults.putInfo("service create p50 (us)", create[2]);
+        mResults.putInfo("service create p90 (us)", create[3]);
+        mResults.putInfo("service ready p50 (us)", ready[2]);
+        mResults.putInfo("service ready p90 (us)", ready[3]);
+        finishReporting();
+    }
+
+    private IMediaPlaybackService bindOnce(Intent intent) throws InterruptedException {
+        Connection conn = new Connection();
+        assertTrue(mContext.bindService(intent, conn, Context.BIND_AUTO_CREATE));
+        IMediaPlaybackService service = conn.await(READY_TIMEOUT);
+        assertNotNull("service didn't bind", service);
+        mContext.unbindService(conn);
+        return service;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music.tests.replay;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import junit.framework.TestCase;
+
+/**
+ * Replays synthetic traces through the flip and shake detectors. These
+ * only need junit, so they run on a plain JVM as well as on the device.
+ */
+public class DetectorReplayTest extends TestCase {
+    // SENSOR_DELAY_UI delivers about 15 samples a second
+    private static final int PERIOD = 66;
+
+    private StringBuilder mTrace;
+    private long mTime;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTrace = new StringBuilder("time,x,y,z,label\n");
+        mTime = 0;
+    }
+
+    private void hold(long duration, float x, float y, float z, String label) {
+        for (long end = mTime + duration; mTime < end; mTime += PERIOD) {
+            sample(x, y, z, label);
+        }
+    }
+
+    private void sample(float x, float y, float z, String label) {
+        mTrace.append(mTime).append(',').append(x).append(',').append(y).append(',').append(z)
+                .append(',').append(label == null ? "" : label).append('\n');
+    }
+
+    private SensorTrace trace() throws IOException {
+        return SensorTrace.parse(getName(), new StringReader(mTrace.toString()));
+    }
+
+    public void testParse() throws Exception {
+        mTrace.append("# comment\n\n");
+        mTime = 10;
+        sample(1, 2, 3, null);
+        mTime = 20;
+        sample(4, 5, 6, "shake");
+        SensorTrace trace = trace();
+        assertEquals(2, trace.size());
+        assertEquals(20, trace.getTime(1));
+        assertEquals(5f, trace.getValues(1)[1]);
+        assertNull(trace.getLabel(0));
+        assertEquals("shake", trace.getLabel(1));
+    }
+
+    public void testFlip() throws Exception {
+        // on the table, face down, wobbling around the edge of the face
+        // down window, then rolled over onto its side
+        hold(2000, 0, -5, 2, null);
+        hold(2000, 0, 175, 3, "face_down");
+        for (int i = 0; i < 10; i++) {
+            sample(0, 174, i % 2 == 0 ? 33 : 37, "face_down");
+            mTime += PERIOD;
+        }
+        hold(1500, 0, 172, 70, "rolled_over");
+        hold(2000, 0, -5, 2, null);
+
+        ReplayHarness.Report r = ReplayHarness.forFlip(10).replay(trace());
+        assertEquals(r.toString(), 2, r.mTruePositives);
+        assertEquals(r.toString(), 0, r.mFalsePositives);
+        assertEquals(r.toString(), 0, r.mMissed);
+    }
+
+    public void testFlipIgnoresQuickTurn() throws Exception {
+        hold(2000, 0, -5, 2, null);
+        // shorter than the debounce time
+        hold(200, 0, 175, 3, null);
+        hold(2000, 0, -5, 2, null);
+
+        ReplayHarness.Report r = ReplayHarness.forFlip(10).replay(trace());
+        assertEquals(r.toString(), 0, r.mDetections);
+    }
+
+    public void testShake() throws Exception {
+        float g = 9.81f;
+        hold(2000, 0, 0, g, null);
+        for (int i = 0; i < 15; i++) {
+            sample(i % 2 == 0 ? 25 : -25, 0, g, "shake");
+            mTime += PERIOD;
+        }
+        hold(2000, 0, 0, g, null);
+        // a single bump, like putting the phone down on a table
+        sample(0, 0, 3 * g, null);
+        mTime += PERIOD;
+        hold(2000, 0, 0, g, null);
+
+        ReplayHarness.Report r = ReplayHarness.forShake(2.25).replay(trace());
+        assertEquals(r.toString(), 1, r.mTruePositives);
+        assertEquals(r.toString(), 0, r.mFalsePositives);
+        assertEquals(r.toString(), 0, r.mMissed);
+    }
+
+    public void testShakeThreshold() throws Exception {
+        float g = 9.81f;
+        hold(1000, 0, 0, g, null);
+        for (int i = 0; i < 15; i++) {
+            // about 1.8g, a gentle shake
+            sample(i % 2 == 0 ? 15 : -15, 0, g, "shake");
+            mTime += PERIOD;
+        }
+        hold(1000, 0, 0, g, null);
+        SensorTrace trace = trace();
+
+        assertEquals(1, ReplayHarness.forShake(1.25).replay(trace).mTruePositives);
+        assertEquals(1, ReplayHarness.forShake(2.25).replay(trace).mMissed);
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music.tests.replay;
+
+import com.android.music.FlipDetector;
+import com.android.music.MotionDetector;
+import com.android.music.ShakeDetector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Feeds recorded sensor traces through a {@link MotionDetector} and
+ * scores what it detects against the labels in the trace.
+ * <p>
+ * Every run of samples with the same label is a gesture, which should
+ * be detected exactly once, somewhere between its first sample and a
+ * little after its last one. Anything else the detector reports is a
+ * false positive.
+ * <p>
+ * This runs on a plain JVM, so thresholds can be tuned without a device:
+ * <pre>
+ * javac -d out src/com/android/music/MotionDetector.java \
+ *     src/com/android/music/FlipDetector.java src/com/android/music/ShakeDetector.java \
+ *     tests/src/com/android/music/replay/SensorTrace.java \
+ *     tests/src/com/android/music/replay/ReplayHarness.java
+ * java -cp out com.android.music.tests.replay.ReplayHarness shake -t 2.25 trace.csv
+ * </pre>
+ */
+public class ReplayHarness {
+    // how long after the end of a gesture its detection may still come
+    static final long TOLERANCE = 1000;
+
+    public static class Report {
+        public int mSamples;
+        public int mGestures;
+        public int mDetections;
+        public int mTruePositives;
+        public int mFalsePositives;
+        public int mMissed;
+        public long mNanos;
+
+        public double getNanosPerSample() {
+            return mSamples == 0 ? 0 : (double) mNanos / mSamples;
+        }
+
+        void add(Report r) {
+            mSamples += r.mSamples;
+            mGestures += r.mGestures;
+            mDetections += r.mDetections;
+            mTruePositives += r.mTruePositives;
+            mFalsePositives += r.mFalsePositives;
+            mMissed += r.mMissed;
+            mNanos += r.mNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "samples: " + mSamples + ", gestures: " + mGestures
+                    + ", detections: " + mDetections + ", true positives: " + mTruePositives
+                    + ", false positives: " + mFalsePositives + ", missed: " + mMissed
+                    + ", ns/sample: " + String.format("%.1f", getNanosPerSample());
+        }
+    }
+
+    private static class Gesture {
+        final String mLabel;
+        final long mStart;
+        long mEnd;
+        boolean mDetected;
+
+        Gesture(String label, long start) {
+            mLabel = label;
+            mStart = start;
+            mEnd = start;
+        }
+    }
+
+    private final MotionDetector mDetector;
+    private final String [] mNames;
+    private int mRepeat = 1;
+
+    /**
+     * @param detector the detector to replay through
+     * @param names the label each of the detector's results stands for,
+     * indexed by result. Results without a name are not scored.
+     */
+    public ReplayHarness(MotionDetector detector, String [] names) {
+        mDetector = detector;
+        mNames = names;
+    }
+
+    /**
+     * Replays every trace this many times when timing, so the numbers
+     * don't just measure the JIT warming up.
+     */
+    public void setRepeat(int repeat) {
+        mRepeat = Math.max(1, repeat);
+    }
+
+    public Report replay(SensorTrace trace) {
+        ArrayList<Gesture> gestures = new ArrayList<Gesture>();
+        Gesture current = null;
+        for (int i = 0; i < trace.size(); i++) {
+            String label = trace.getLabel(i);
+            if (label == null) {
+                current = null;
+            } else if (current != null && current.mLabel.equals(label)) {
+                current.mEnd = trace.getTime(i);
+            } else {
+                current = new Gesture(label, trace.getTime(i));
+                gestures.add(current);
+            }
+        }
+
+        Report report = new Report();
+        report.mGestures = gestures.size();
+        report.mSamples = trace.size();
+        mDetector.reset();
+        for (int i = 0; i < trace.size(); i++) {
+            int result = mDetector.onSample(trace.getTime(i), trace.getValues(i));
+            String name = result >= 0 && result < mNames.length ? mNames[result] : null;
+            if (name == null) {
+                continue;
+            }
+            report.mDetections++;
+            long time = trace.getTime(i);
+            Gesture match = null;
+            for (Gesture g : gestures) {
+                if (!g.mDetected && g.mLabel.equals(name)
+                        && time >= g.mStart && time <= g.mEnd + TOLERANCE) {
+                    match = g;
+                    break;
+                }
+            }
+            if (match != null) {
+                match.mDetected = true;
+                report.mTruePositives++;
+            } else {
+                report.mFalsePositives++;
+            }
+        }
+        for (Gesture g : gestures) {
+            if (!g.mDetected) {
+                report.mMissed++;
+            }
+        }
+
+        // time the detector on its own, without the scoring
+        long start = System.nanoTime();
+        for (int r = 0; r < mRepeat; r++) {
+            mDetector.reset();
+            for (int i = 0; i < trace.size(); i++) {
+                mDetector.onSample(trace.getTime(i), trace.getValues(i));
+            }
+        }
+        report.mNanos = (System.nanoTime() - start) / mRepeat;
+        return report;
+    }
+
+    public static ReplayHarness forFlip(int sensitivity) {
+        FlipDetector detector = new FlipDetector();
+        detector.setSensitivity(sensitivity);
+        return new ReplayHarness(detector, new String [] { null, "face_down", "rolled_over" });
+    }
+
+    public static ReplayHarness forShake(double threshold) {
+        ShakeDetector detector = new ShakeDetector();
+        detector.setThreshold(threshold);
+        return new ReplayHarness(detector, new String [] { null, "shake", null });
+    }
+
+    private static void usage() {
+        System.err.println("usage: ReplayHarness flip|shake [-t threshold] [-r repeat] trace.csv...");
+        System.err.println("  flip: threshold is the flip sensitivity in degrees (default 10)");
+        System.err.println("  shake: threshold is in g (default " + ShakeDetector.THRESHOLD + ")");
+        System.exit(2);
+    }
+
+    public static void main(String [] args) throws IOException {
+        if (args.length < 2) {
+            usage();
+        }
+        String kind = args[0];
+        String threshold = null;
+        int repeat = 100;
+        int i = 1;
+        for (; i < args.length && args[i].startsWith("-"); i += 2) {
+            if (i + 1 >= args.length) {
+                usage();
+            }
+            if (args[i].equals("-t")) {
+                threshold = args[i + 1];
+            } else if (args[i].equals("-r")) {
+                repeat = Integer.parseInt(args[i + 1]);
+            } else {
+                usage();
+            }
+        }
+
+        ReplayHarness harness = null;
+        if (kind.equals("flip")) {
+            harness = forFlip(threshold == null ? 10 : Integer.parseInt(threshold));
+        } else if (kind.equals("shake")) {
+            harness = forShake(threshold == null ?
+                    ShakeDetector.THRESHOLD : Double.parseDouble(threshold));
+        } else {
+            usage();
+        }
+        harness.setRepeat(repeat);
+
+        Report total = new Report();
+        for (; i < args.length; i++) {
+            Report r = harness.replay(SensorTrace.load(args[i]));
+            System.out.println(args[i] + ": " + r);
+            total.add(r);
+        }
+        System.out.println("total: " + total);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music.tests.replay;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+
+/**
+ * A recorded stream of sensor samples. Traces are stored as CSV, one
+ * sample per line:
+ * <pre>
+ * time,value0,value1,value2[,label]
+ * </pre>
+ * The time is in milliseconds, the values are laid out as in
+ * SensorEvent.values. The optional label names the gesture the person
+ * recording was making at the time, e.g. "shake" or "face_down", and is
+ * left empty otherwise. Empty lines, lines starting with '#' and a
+ * header line are skipped.
+ */
+public class SensorTrace {
+    private final String mName;
+    private final long [] mTimes;
+    private final float [][] mValues;
+    private final String [] mLabels;
+
+    private SensorTrace(String name, long [] times, float [][] values, String [] labels) {
+        mName = name;
+        mTimes = times;
+        mValues = values;
+        mLabels = labels;
+    }
+
+    public static SensorTrace load(String path) throws IOException {
+        Reader reader = new FileReader(path);
+        try {
+            return parse(path, reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    public static SensorTrace parse(String name, Reader reader) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        long [] times = new long[256];
+        ArrayList<float []> values = new ArrayList<float []>();
+        ArrayList<String> labels = new ArrayList<String>();
+        String line;
+        int lineno = 0;
+        while ((line = in.readLine()) != null) {
+            lineno++;
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+            String [] fields = line.split(",", -1);
+            if (fields.length < 4) {
+                throw new IOException(name + ":" + lineno + ": expected at least 4 fields");
+            }
+            long time;
+            try {
+                time = Long.parseLong(fields[0].trim());
+            } catch (NumberFormatException ex) {
+                if (values.isEmpty()) {
+                    // header
+                    continue;
+                }
+                throw new IOException(name + ":" + lineno + ": bad time " + fields[0]);
+            }
+            float [] v = new float[3];
+            try {
+                for (int i = 0; i < 3; i++) {
+                    v[i] = Float.parseFloat(fields[i + 1].trim());
+                }
+            } catch (NumberFormatException ex) {
+                throw new IOException(name + ":" + lineno + ": bad value");
+            }
+            String label = fields.length > 4 ? fields[4].trim() : "";
+            if (values.size() == times.length) {
+                long [] t = new long[times.length * 2];
+                System.arraycopy(times, 0, t, 0, times.length);
+                times = t;
+            }
+            times[values.size()] = time;
+            values.add(v);
+            labels.add(label.length() == 0 ? null : label);
+        }
+
+        int n = values.size();
+        long [] t = new long[n];
+        System.arraycopy(times, 0, t, 0, n);
+        return new SensorTrace(name, t, values.toArray(new float[n][]),
+                labels.toArray(new String[n]));
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int size() {
+        return mTimes.length;
+    }
+
+    public long getTime(int i) {
+        return mTimes[i];
+    }
+
+    public float [] getValues(int i) {
+        return mValues[i];
+    }
+
+    /**
+     * Returns the label of the given sample, or null if it has none.
+     */
+    public String getLabel(int i) {
+        return mLabels[i];
+    }
+}
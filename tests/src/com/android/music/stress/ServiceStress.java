@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.music.tests.stress;
+
+import com.android.music.IMediaPlaybackService;
+import com.android.music.MediaPlaybackService;
+import com.android.music.MusicUtils;
+import com.android.music.tests.perf.BenchmarkResults;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import java.util.Random;
+
+/**
+ * Drives the playback service through its AIDL interface as fast as a
+ * misbehaving client would: storms of next and prev, edits of a 20000
+ * track queue, and shuffle toggles while playing.
+ * <p>
+ * Every call is timed, and the results are reported like the benchmarks'
+ * (see {@link BenchmarkResults}), with limits on the 50th and 99th
+ * percentiles. The heap is compared before and after each scenario, and
+ * the service's own counts show whether the queue saves and broadcasts
+ * stayed coalesced. Needs music on the device.
+ */
+public class ServiceStress extends InstrumentationTestCase {
+    private static final long BIND_TIMEOUT = 10000; // ms
+    // time for the service to finish the saves and broadcasts a
+    // scenario left pending
+    private static final long SETTLE_TIME = 1000; // ms
+
+    private static final int SKIPS = 1000;
+    private static final int SKIPS_PER_SECOND = 300;
+    private static final int TIMED_SKIPS = 50;
+    private static final long SKIP_TIMEOUT = 5000; // ms
+    private static final int CHURN_QUEUE_SIZE = 20000;
+    private static final int CHURN_CYCLES = 500;
+    private static final int CHURN_BATCH = 10;
+    private static final int TOGGLES = 300;
+    private static final int TOGGLES_PER_SECOND = 100;
+
+    // limits, in microseconds. A skip includes the service's fade down.
+    private static final long CALL_P50_LIMIT = 2000;
+    private static final long CALL_P99_LIMIT = 20000;
+    private static final long SKIP_P50_LIMIT = 300000;
+    private static final long SKIP_P99_LIMIT = 600000;
+    private static final long EDIT_P50_LIMIT = 2000;
+    private static final long EDIT_P99_LIMIT = 20000;
+    private static final long GET_QUEUE_P99_LIMIT = 30000;
+    private static final long SHUFFLE_P99_LIMIT = 50000;
+    private static final long HEAP_GROWTH_LIMIT = 2048; // kB
+
+    // the service's coalescing intervals, in ms
+    private static final long SAVE_INTERVAL = 250;
+    private static final long BROADCAST_INTERVAL = 100;
+
+    private Context mContext;
+    private IMediaPlaybackService mService;
+    private ServiceConnection mConnection;
+    private BenchmarkResults mResults;
+    private long [] mSongs;
+    private final Random mRandom = new Random(0);
+
+    private long mSaves;
+    private long mFullSaves;
+    private long mBroadcasts;
+    private long mHeap;
+    private long mStartTime;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+        mResults = new BenchmarkResults("stress_" + getName(), getInstrumentation());
+        mSongs = MusicUtils.getAllSongs(mContext);
+        assertTrue("needs music on the device", mSongs != null && mSongs.length > 0);
+        mResults.putInfo("tracks", mSongs.length);
+
+        final Object lock = new Object();
+        mConnection = new ServiceConnection() {
+            public void onServiceConnected(ComponentName name, IBinder binder) {
+                synchronized (lock) {
+                    mService = IMediaPlaybackService.Stub.asInterface(binder);
+                    lock.notifyAll();
+                }
+            }
+
+            public void onServiceDisconnected(ComponentName name) {
+            }
+        };
+        assertTrue(mContext.bindService(new Intent(mContext, MediaPlaybackService.class),
+                mConnection, Context.BIND_AUTO_CREATE));
+        synchronized (lock) {
+            long end = SystemClock.uptimeMillis() + BIND_TIMEOUT;
+            long now;
+            while (mService == null && (now = SystemClock.uptimeMillis()) < end) {
+                lock.wait(end - now);
+            }
+        }
+        assertNotNull("service didn't bind", mService);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mService != null) {
+            mService.stop();
+            mService.setShuffleMode(MediaPlaybackService.SHUFFLE_NONE);
+            mService.setRepeatMode(MediaPlaybackService.REPEAT_NONE);
+        }
+        mContext.unbindService(mConnection);
+        super.tearDown();
+    }
+
+    /**
+     * Returns a queue of the given size, made of the device's songs over
+     * and over.
+     */
+    private long [] queueOf(int size) {
+        long [] queue = new long[size];
+        for (int i = 0; i < size; i++) {
+            queue[i] = mSongs[i % mSongs.length];
+        }
+        return queue;
+    }
+
+    private void record(String name, long startNanos) {
+        mResults.add(name, "us", (System.nanoTime() - startNanos) / 1000);
+    }
+
+    private void limit(String name, long p50, long p99) {
+        mResults.setLimit(name, "us", 0.5, p50);
+        mResults.setLimit(name, "us", 0.99, p99);
+    }
+
+    /**
+     * Waits until the given number of calls at the given rate should
+     * have been made.
+     */
+    private void pace(long start, int calls, int perSecond) {
+        long due = start + calls * 1000L / perSecond;
+        long now = SystemClock.uptimeMillis();
+        if (due > now) {
+            SystemClock.sleep(due - now);
+        }
+    }
+
+    private long count(String metric) throws RemoteException {
+        long [] values = mService.getMetric(metric);
+        return values == null ? 0 : values[0];
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 2; i++) {
+            System.gc();
+            System.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private void startScenario() throws RemoteException {
+        mSaves = count("save queue");
+        mFullSaves = count("save queue (full)");
+        mBroadcasts = count("notify broadcasts");
+        mHeap = usedHeap();
+        mStartTime = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Lets the service settle, and records and checks what the scenario
+     * cost beyond the calls themselves. The service (which runs in this
+     * process) saves the queue and broadcasts at most once per interval.
+     */
+    private void finishScenario() throws RemoteException {
+        long elapsed = SystemClock.uptimeMillis() - mStartTime;
+        SystemClock.sleep(SETTLE_TIME);
+        long window = elapsed + SETTLE_TIME;
+        long saves = count("save queue") - mSaves;
+        long fullSaves = count("save queue (full)") - mFullSaves;
+        long broadcasts = count("notify broadcasts") - mBroadcasts;
+        mResults.putInfo("duration (ms)", elapsed);
+        mResults.add("state saves", "count", saves);
+        mResults.add("queue saves", "count", fullSaves);
+        mResults.add("broadcast batches", "count", broadcasts);
+        mResults.setLimit("state saves", "count", window / SAVE_INTERVAL + 1);
+        mResults.setLimit("queue saves", "count", window / SAVE_INTERVAL + 1);
+        mResults.setLimit("broadcast batches", "count", window / BROADCAST_INTERVAL + 1);
+        mResults.add("heap growth", "kB", (usedHeap() - mHeap) / 1024);
+        mResults.setLimit("heap growth", "kB", HEAP_GROWTH_LIMIT);
+
+        mResults.report();
+        String failures = mResults.check();
+        if (failures != null) {
+            fail(failures);
+        }
+    }
+
+    /**
+     * Waits until the service has moved off the given track and on to
+     * another, and returns how long that took, in microseconds.
+     */
+    private long waitForTrackChange(long from, long startNanos) throws RemoteException {
+        long end = SystemClock.uptimeMillis() + SKIP_TIMEOUT;
+        long id;
+        while ((id = mService.getAudioId()) == from || id < 0) {
+            assertTrue("skip didn't happen", SystemClock.uptimeMillis() < end);
+            SystemClock.sleep(1);
+        }
+        return (System.nanoTime() - startNanos) / 1000;
+    }
+
+    /**
+     * Hundreds of skips a second, mostly forward, while playing. next and
+     * prev only start a fade and return, and a new one replaces the fade
+     * before it, so the storm times the calls and counts the skips the
+     * service ended up making. Skips made one at a time are then timed
+     * until the next track is playing.
+     */
+    @LargeTest
+    public void testSkipStorm() throws Exception {
+        // one of each song, so every skip changes the audio id
+        mService.open(queueOf(Math.min(mSongs.length, 500)), 0);
+        mService.setRepeatMode(MediaPlaybackService.REPEAT_ALL);
+        mService.play();
+        limit("next call", CALL_P50_LIMIT, CALL_P99_LIMIT);
+        limit("prev call", CALL_P50_LIMIT, CALL_P99_LIMIT);
+        limit("next", SKIP_P50_LIMIT, SKIP_P99_LIMIT);
+        limit("prev", SKIP_P50_LIMIT, SKIP_P99_LIMIT);
+
+        startScenario();
+        long skips = count("skips");
+        long start = SystemClock.uptimeMillis();
+        for (int i = 0; i < SKIPS; i++) {
+            pace(start, i, SKIPS_PER_SECOND);
+            long t = System.nanoTime();
+            if (i % 5 == 4) {
+                mService.prev();
+                record("prev call", t);
+            } else {
+                mService.next();
+                record("next call", t);
+            }
+        }
+        mResults.putInfo("skips per second",
+                SKIPS * 1000L / Math.max(1, SystemClock.uptimeMillis() - start));
+        SystemClock.sleep(SETTLE_TIME);
+        long stormSkips = count("skips") - skips;
+        mResults.putInfo("skips made during the storm", stormSkips);
+        // the last fade is never cut short
+        assertTrue("no skip happened", stormSkips > 0);
+        assertTrue("more skips than calls", stormSkips <= SKIPS);
+
+        skips = count("skips");
+        int nexts = 0;
+        for (int i = 0; i < TIMED_SKIPS; i++) {
+            long from = mService.getAudioId();
+            long t = System.nanoTime();
+            if (i % 5 == 4) {
+                mService.prev();
+                mResults.add("prev", "us", waitForTrackChange(from, t));
+            } else {
+                mService.next();
+                mResults.add("next", "us", waitForTrackChange(from, t));
+                nexts++;
+            }
+        }
+        assertEquals("skips made", nexts, count("skips") - skips);
+        long [] next = mService.getMetric("next");
+        if (next != null) {
+            mResults.putInfo("service next p50 (us)", next[2]);
+            mResults.putInfo("service next p99 (us)", next[4]);
+        }
+        assertTrue("stopped playing", mService.isPlaying());
+        finishScenario();
+    }
+
+    /**
+     * Adds, moves and removes tracks in a 20000 track queue, keeping its
+     * length, and reads the whole queue back now and then the way the now
+     * playing list does.
+     */
+    @LargeTest
+    public void testQueueChurn() throws Exception {
+        long [] queue = queueOf(CHURN_QUEUE_SIZE);
+        long t = System.nanoTime();
+        mService.open(queue, 0);
+        record("open (" + CHURN_QUEUE_SIZE + ")", t);
+        limit("enqueue", EDIT_P50_LIMIT, EDIT_P99_LIMIT);
+        limit("move", EDIT_P50_LIMIT, EDIT_P99_LIMIT);
+        limit("remove", EDIT_P50_LIMIT, EDIT_P99_LIMIT);
+        mResults.setLimit("getQueue", "us", 0.99, GET_QUEUE_P99_LIMIT);
+
+        startScenario();
+        long [] batch = new long[CHURN_BATCH];
+        for (int i = 0; i < CHURN_CYCLES; i++) {
+            for (int j = 0; j < CHURN_BATCH; j++) {
+                batch[j] = mSongs[mRandom.nextInt(mSongs.length)];
+            }
+            t = System.nanoTime();
+            mService.enqueue(batch, MediaPlaybackService.LAST);
+            record("enqueue", t);
+
+            int size = CHURN_QUEUE_SIZE + CHURN_BATCH;
+            t = System.nanoTime();
+            mService.moveQueueItem(mRandom.nextInt(size), mRandom.nextInt(size));
+            record("move", t);
+
+            // never the current track, so this doesn't turn into a skip
+            int pos = mService.getQueuePosition();
+            int first = mRandom.nextInt(size - CHURN_BATCH + 1);
+            if (first <= pos && pos < first + CHURN_BATCH) {
+                first = pos + CHURN_BATCH < size ? pos + 1 : pos - CHURN_BATCH;
+            }
+            t = System.nanoTime();
+            mService.removeTracks(first, first + CHURN_BATCH - 1);
+            record("remove", t);
+
+            if (i % 50 == 0) {
+                t = System.nanoTime();
+                mService.getQueue();
+                record("getQueue", t);
+            }
+        }
+        assertEquals(CHURN_QUEUE_SIZE, mService.getQueue().length);
+        finishScenario();
+    }
+
+    /**
+     * Switches shuffle on and off while playing, skipping in between.
+     */
+    @LargeTest
+    public void testShuffleToggles() throws Exception {
+        mService.open(queueOf(Math.min(mSongs.length * 4, 2000)), 0);
+        mService.setRepeatMode(MediaPlaybackService.REPEAT_ALL);
+        mService.play();
+        mResults.setLimit("setShuffleMode", "us", 0.99, SHUFFLE_P99_LIMIT);
+        limit("next call", CALL_P50_LIMIT, CALL_P99_LIMIT);
+
+        startScenario();
+        long start = SystemClock.uptimeMillis();
+        for (int i = 0; i < TOGGLES; i++) {
+            pace(start, i, TOGGLES_PER_SECOND);
+            long t = System.nanoTime();
+            mService.setShuffleMode(i % 2 == 0 ? MediaPlaybackService.SHUFFLE_NORMAL
+                    : MediaPlaybackService.SHUFFLE_NONE);
+            record("setShuffleMode", t);
+            t = System.nanoTime();
+            mService.next();
+            record("next call", t);
+            int pos = mService.getQueuePosition();
+            assertTrue("bad queue position " + pos, pos >= 0 && pos < mService.getQueue().length);
+        }
+        assertTrue("stopped playing", mService.isPlaying());
+        finishScenario();
+    }
+}